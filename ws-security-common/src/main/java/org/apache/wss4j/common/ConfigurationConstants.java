@@ -549,6 +549,39 @@ public class ConfigurationConstants {
      */
     public static final String EXPAND_XOP_INCLUDE = "expandXOPInclude";
 
+    /**
+     * Whether to validate the References of a Signature in parallel on the inbound side, which
+     * speeds up the verification of Signatures that cover many (large) parts. Only same-document
+     * References to an Id, with standard canonicalization and enveloped signature transforms, are
+     * validated in parallel. References to attachments are validated on the calling thread. The
+     * default is false.
+     */
+    public static final String PARALLEL_SIGNATURE_VERIFICATION = "parallelSignatureVerification";
+
+    /**
+     * Whether to compute the digests of the References of a Signature in parallel on the outbound
+     * side, which speeds up the creation of Signatures that cover many (large) parts or attachments.
+     * The References are added to the SignedInfo in the original order. Note that the attachment
+     * CallbackHandler must be thread-safe if this is enabled. The default is false.
+     */
+    public static final String PARALLEL_SIGNATURE_DIGESTS = "parallelSignatureDigests";
+
+    /**
+     * Whether to decrypt the EncryptedData elements that are referenced by a ReferenceList or an
+     * EncryptedKey in parallel on the inbound side. Only the decryption and parsing of the encrypted
+     * data is performed in parallel, the decrypted data is inserted into the message one element after
+     * another. The default is false.
+     */
+    public static final String PARALLEL_DECRYPTION = "parallelDecryption";
+
+    /**
+     * Whether to index the Ids of the message in a single traversal on the inbound side, instead of
+     * searching the message for each referenced Id. Duplicate Ids are only detected if every change
+     * to the document is registered with the index, so this must not be enabled together with custom
+     * Processors that modify the document. The default is false.
+     */
+    public static final String INDEX_ELEMENT_IDS = "indexElementIds";
+
     //
     // (Non-boolean) Configuration parameters for the actions/processors
     //
@@ -888,6 +921,21 @@ public class ConfigurationConstants {
      */
     public static final String SAML_ONE_TIME_USE_CACHE_INSTANCE = "samlOneTimeUseCacheInstance";
 
+    /**
+     * This holds a reference to an EncryptedKeyCache instance used to cache the secret keys that are
+     * unwrapped from inbound EncryptedKeys, so that an EncryptedKey that is received repeatedly is only
+     * unwrapped with the private key once. No cache is used by default.
+     */
+    public static final String ENCRYPTED_KEY_CACHE_INSTANCE = "encryptedKeyCacheInstance";
+
+    /**
+     * This holds a reference to an EncryptedKeySessionCache instance used to reuse a generated
+     * symmetric key, and the EncryptedKey that wraps it, for several outbound messages to the same
+     * recipient, subject to the rekey policy of the cache. No cache is used by default, i.e. a new
+     * symmetric key is generated and wrapped for every message.
+     */
+    public static final String ENCRYPTED_KEY_SESSION_CACHE_INSTANCE = "encryptedKeySessionCacheInstance";
+
     /**
      * This holds a reference to a PasswordEncryptor instance, which is used to encrypt or
      * decrypt passwords in the Merlin Crypto implementation (or any custom Crypto implementations).
@@ -30,6 +30,22 @@ public class EncryptionActionToken extends SignatureEncryptionActionToken {
     private String keyTransportAlgorithm;
     private boolean getSymmetricKeyFromCallbackHandler;
 
+    public EncryptionActionToken() {
+        super();
+    }
+
+    /**
+     * Copy constructor
+     */
+    public EncryptionActionToken(EncryptionActionToken actionToken) {
+        super(actionToken);
+        encSymmetricEncryptionKey = actionToken.encSymmetricEncryptionKey;
+        mgfAlgorithm = actionToken.mgfAlgorithm;
+        symmetricAlgorithm = actionToken.symmetricAlgorithm;
+        keyTransportAlgorithm = actionToken.keyTransportAlgorithm;
+        getSymmetricKeyFromCallbackHandler = actionToken.getSymmetricKeyFromCallbackHandler;
+    }
+
     public boolean isEncSymmetricEncryptionKey() {
         return encSymmetricEncryptionKey;
     }
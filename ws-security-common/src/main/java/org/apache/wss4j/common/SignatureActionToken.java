@@ -28,6 +28,20 @@ public class SignatureActionToken extends SignatureEncryptionActionToken {
     private boolean useSingleCert = true;
     private String signatureAlgorithm;
 
+    public SignatureActionToken() {
+        super();
+    }
+
+    /**
+     * Copy constructor
+     */
+    public SignatureActionToken(SignatureActionToken actionToken) {
+        super(actionToken);
+        c14nAlgorithm = actionToken.c14nAlgorithm;
+        useSingleCert = actionToken.useSingleCert;
+        signatureAlgorithm = actionToken.signatureAlgorithm;
+    }
+
     public String getC14nAlgorithm() {
         return c14nAlgorithm;
     }
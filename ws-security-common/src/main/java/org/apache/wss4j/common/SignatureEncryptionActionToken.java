@@ -56,6 +56,44 @@ public abstract class SignatureEncryptionActionToken implements SecurityActionTo
     private int derivedKeyIdentifier;
     private boolean includeToken;
 
+    protected SignatureEncryptionActionToken() {
+        // complete
+    }
+
+    /**
+     * Copy constructor. The parts are copied, so that they can be changed independently of
+     * the parts of the given token.
+     */
+    protected SignatureEncryptionActionToken(SignatureEncryptionActionToken actionToken) {
+        certificate = actionToken.certificate;
+        key = actionToken.key;
+        user = actionToken.user;
+        keyInfoElement = actionToken.keyInfoElement;
+        synchronized (actionToken) {
+            crypto = actionToken.crypto;
+            cryptoProperties = actionToken.cryptoProperties;
+        }
+        keyIdentifier = actionToken.keyIdentifier;
+        keyIdentifierId = actionToken.keyIdentifierId;
+        digestAlgorithm = actionToken.digestAlgorithm;
+        if (actionToken.parts != null) {
+            parts = new ArrayList<>(actionToken.parts.size());
+            for (WSEncryptionPart part : actionToken.parts) {
+                parts.add(new WSEncryptionPart(part));
+            }
+        } else {
+            parts = null;
+        }
+        optionalParts = actionToken.optionalParts;
+        tokenType = actionToken.tokenType;
+        tokenId = actionToken.tokenId;
+        sha1Value = actionToken.sha1Value;
+        derivedKeyTokenReference = actionToken.derivedKeyTokenReference;
+        derivedKeyLength = actionToken.derivedKeyLength;
+        derivedKeyIdentifier = actionToken.derivedKeyIdentifier;
+        includeToken = actionToken.includeToken;
+    }
+
     public X509Certificate getCertificate() {
         return certificate;
     }
@@ -98,6 +98,21 @@ public class WSEncryptionPart {
         name = namespace = null;
     }
 
+    /**
+     * Copy constructor. The element that the part was resolved to, if any, is not copied.
+     *
+     * @param part The part to copy
+     */
+    public WSEncryptionPart(WSEncryptionPart part) {
+        name = part.name;
+        namespace = part.namespace;
+        encModifier = part.encModifier;
+        encId = part.encId;
+        id = part.id;
+        required = part.required;
+        xpath = part.xpath;
+    }
+
     /**
      * @return the local name of the element to encrypt.
      */
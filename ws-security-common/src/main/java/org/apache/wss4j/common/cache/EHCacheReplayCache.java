@@ -114,7 +114,33 @@ public class EHCacheReplayCache implements ReplayCache {
             return;
         }
 
-        int parsedTTL = (int)(expiry.getEpochSecond() - Instant.now().getEpochSecond());
+        cache.put(createElement(identifier, expiry));
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is
+     * already contained in the cache. This check and the addition are performed atomically.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for the
+     * configured amount of time
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        // An expired element is removed by get, so that putIfAbsent can store the new element
+        if (contains(identifier)) {
+            return false;
+        }
+        Element existingElement = cache.putIfAbsent(createElement(identifier, expiry));
+        return existingElement == null;
+    }
+
+    private Element createElement(String identifier, Instant expiry) {
+        int parsedTTL = expiry == null ? -1 : (int)(expiry.getEpochSecond() - Instant.now().getEpochSecond());
         if (parsedTTL < 0 || parsedTTL > MAX_TTL) {
             // Default to configured value
             parsedTTL = (int)ttl;
@@ -126,7 +152,7 @@ public class EHCacheReplayCache implements ReplayCache {
 
         Element cacheElement = new Element(identifier, identifier, parsedTTL, parsedTTL);
         cacheElement.resetAccessStatistics();
-        cache.put(cacheElement);
+        return cacheElement;
     }
 
     /**
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.crypto.JCAInstancePool;
+
+/**
+ * A bounded in-memory cache of unwrapped EncryptedKeys. It maps the SHA-1 digest of the (decoded)
+ * CipherValue of an EncryptedKey, i.e. its EncryptedKeySHA1 identifier, to the secret key that was
+ * unwrapped from it. An EncryptedKey that is received repeatedly, as in the symmetric binding,
+ * then only has to be unwrapped with the private key once.
+ *
+ * An entry is bound to a context supplied by the caller, which should identify the key transport
+ * algorithm, its parameters and the key pair that was used, and it is only returned for the same
+ * context. Entries expire after a fixed TTL that is not extended by lookups. If the cache is full,
+ * the oldest entry is evicted. The bytes of the secret key of an entry are overwritten when it
+ * expires, is evicted or replaced, or when the cache is closed, and only copies of them are
+ * handed out. Only successfully unwrapped keys must be added to the cache.
+ */
+public class EncryptedKeyCache implements Closeable {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptedKeyCache.class);
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    // Insertion ordered, which is the order of expiry as the TTL is fixed
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public EncryptedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxEntries the maximum number of keys to cache
+     * @param ttl the time in seconds for which a key is cached, at most MAX_TTL
+     */
+    public EncryptedKeyCache(int maxEntries, long ttl) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        if (ttl <= 0L || ttl > MAX_TTL) {
+            throw new IllegalArgumentException("The TTL must be between 1 and " + MAX_TTL + " seconds");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl * 1000L;
+    }
+
+    /**
+     * Get the secret key that was unwrapped from the given encrypted key bytes
+     * @param encryptedKey the decoded CipherValue of the EncryptedKey
+     * @param context the context the key was unwrapped in
+     * @return a copy of the secret key bytes, or null if they are not cached for the given context
+     */
+    public byte[] get(byte[] encryptedKey, String context) {
+        if (encryptedKey == null) {
+            return null;
+        }
+        String identifier = getIdentifier(encryptedKey);
+        synchronized (this) {
+            removeExpiredEntries(System.currentTimeMillis());
+            Entry entry = entries.get(identifier);
+            if (entry == null || !entry.context.equals(context)) {
+                return null;
+            }
+            LOG.debug("Found a cached key for the EncryptedKey {}", identifier);
+            return entry.secretKey.clone();
+        }
+    }
+
+    /**
+     * Cache the secret key that was unwrapped from the given encrypted key bytes
+     * @param encryptedKey the decoded CipherValue of the EncryptedKey
+     * @param context the context the key was unwrapped in
+     * @param secretKey the unwrapped secret key bytes, which are copied
+     */
+    public void put(byte[] encryptedKey, String context, byte[] secretKey) {
+        if (encryptedKey == null || context == null || secretKey == null) {
+            return;
+        }
+        String identifier = getIdentifier(encryptedKey);
+        Entry entry = new Entry(context, secretKey.clone(), System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            removeExpiredEntries(System.currentTimeMillis());
+            Entry previousEntry = entries.remove(identifier);
+            if (previousEntry != null) {
+                previousEntry.clear();
+            }
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() >= maxEntries && iterator.hasNext()) {
+                iterator.next().clear();
+                iterator.remove();
+            }
+            entries.put(identifier, entry);
+        }
+    }
+
+    /**
+     * @return the number of unexpired keys in the cache
+     */
+    public synchronized int size() {
+        removeExpiredEntries(System.currentTimeMillis());
+        return entries.size();
+    }
+
+    /**
+     * Remove all of the keys from the cache, and overwrite them
+     */
+    @Override
+    public synchronized void close() {
+        for (Entry entry : entries.values()) {
+            entry.clear();
+        }
+        entries.clear();
+    }
+
+    private void removeExpiredEntries(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiry > now) {
+                break;
+            }
+            entry.clear();
+            iterator.remove();
+        }
+    }
+
+    private static String getIdentifier(byte[] encryptedKey) {
+        MessageDigest digest = null;
+        try {
+            digest = JCAInstancePool.getMessageDigest("SHA-1");
+            return org.apache.xml.security.utils.XMLUtils.encodeToString(digest.digest(encryptedKey));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            JCAInstancePool.release(digest);
+        }
+    }
+
+    private static final class Entry {
+        private final String context;
+        private final byte[] secretKey;
+        private final long expiry;
+
+        Entry(String context, byte[] secretKey, long expiry) {
+            this.context = context;
+            this.secretKey = secretKey;
+            this.expiry = expiry;
+        }
+
+        void clear() {
+            Arrays.fill(secretKey, (byte)0);
+        }
+    }
+}
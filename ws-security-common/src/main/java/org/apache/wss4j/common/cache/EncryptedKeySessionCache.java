@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.crypto.JCAInstancePool;
+
+/**
+ * A bounded in-memory cache of outbound symmetric key sessions. A session holds a symmetric key
+ * together with the EncryptedKey CipherValue that wraps it for a given recipient, so that the key
+ * only has to be wrapped with the public key of the recipient once, and the same EncryptedKey
+ * can be sent on subsequent messages to that recipient.
+ *
+ * A session is bound to a recipient context, see {@link #getContext}. The rekey policy is
+ * built in: a session is used for at most a fixed number of messages and for at most a fixed
+ * time, after which a new key is generated and wrapped. The bytes of the symmetric key of a
+ * session are overwritten when it ends or is replaced, or when the cache is closed, and only
+ * copies of them are handed out.
+ */
+public class EncryptedKeySessionCache implements Closeable {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_MAX_MESSAGES = 100;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptedKeySessionCache.class);
+
+    private final int maxMessages;
+    private final long ttlMillis;
+    private final int maxEntries;
+    // Insertion ordered, which is the order of expiry as the TTL is fixed
+    private final Map<String, Session> sessions = new LinkedHashMap<>();
+
+    public EncryptedKeySessionCache() {
+        this(DEFAULT_MAX_MESSAGES, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxMessages the maximum number of messages a symmetric key is used for
+     * @param ttl the time in seconds for which a symmetric key is used, at most MAX_TTL
+     */
+    public EncryptedKeySessionCache(int maxMessages, long ttl) {
+        this(maxMessages, ttl, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxMessages the maximum number of messages a symmetric key is used for
+     * @param ttl the time in seconds for which a symmetric key is used, at most MAX_TTL
+     * @param maxEntries the maximum number of recipients to hold sessions for
+     */
+    public EncryptedKeySessionCache(int maxMessages, long ttl, int maxEntries) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("The maximum number of messages must be positive");
+        }
+        if (ttl <= 0L || ttl > MAX_TTL) {
+            throw new IllegalArgumentException("The TTL must be between 1 and " + MAX_TTL + " seconds");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries must be positive");
+        }
+        this.maxMessages = maxMessages;
+        this.ttlMillis = ttl * 1000L;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the symmetric key of the current session with a recipient, which counts as a use of
+     * the session.
+     * @param context the recipient context
+     * @param symmetricAlgorithm the symmetric encryption algorithm the key is used with
+     * @return a copy of the symmetric key bytes, or null if there is no usable session, in which
+     *         case a new key must be generated and added with {@link #putSession}
+     */
+    public synchronized byte[] getSessionKey(String context, String symmetricAlgorithm) {
+        if (context == null) {
+            return null;
+        }
+        removeExpiredSessions(System.currentTimeMillis());
+        Session session = sessions.get(context);
+        if (session == null || !session.symmetricAlgorithm.equals(symmetricAlgorithm)) {
+            return null;
+        }
+        if (session.uses >= maxMessages) {
+            // The session is replaced by the one for the new key
+            LOG.debug("The key session for {} has reached its maximum number of messages", context);
+            return null;
+        }
+        session.uses++;
+        return session.secretKey.clone();
+    }
+
+    /**
+     * Get the EncryptedKey CipherValue that wraps the given symmetric key for a recipient
+     * @param context the recipient context
+     * @param secretKey the symmetric key bytes
+     * @return a copy of the CipherValue bytes, or null if the key is not the key of a session
+     */
+    public synchronized byte[] getEncryptedKey(String context, byte[] secretKey) {
+        if (context == null || secretKey == null) {
+            return null;
+        }
+        removeExpiredSessions(System.currentTimeMillis());
+        Session session = sessions.get(context);
+        if (session == null || !MessageDigest.isEqual(session.secretKey, secretKey)) {
+            return null;
+        }
+        return session.encryptedKey.clone();
+    }
+
+    /**
+     * Start a new session with a recipient for a newly generated symmetric key. The message the
+     * key was generated for counts as the first use of the session. Only a key that was generated
+     * because {@link #getSessionKey} returned null must be passed here, never a key that was
+     * obtained from {@link #getSessionKey}.
+     *
+     * The current session with the recipient is only replaced if it can no longer be used, i.e.
+     * if it has reached its maximum number of messages or is for another symmetric algorithm. If
+     * another thread has started a usable session in the meantime, that session is kept, and the
+     * given key is only used for the current message.
+     * @param context the recipient context
+     * @param symmetricAlgorithm the symmetric encryption algorithm the key is used with
+     * @param secretKey the symmetric key bytes, which are copied
+     * @param encryptedKey the EncryptedKey CipherValue that wraps the key, which is copied
+     * @return true if a new session was started
+     */
+    public boolean putSession(String context, String symmetricAlgorithm, byte[] secretKey, byte[] encryptedKey) {
+        if (context == null || symmetricAlgorithm == null || secretKey == null || encryptedKey == null
+            || maxMessages == 1) {
+            return false;
+        }
+        Session session = new Session(symmetricAlgorithm, secretKey.clone(), encryptedKey.clone(),
+                                      System.currentTimeMillis() + ttlMillis);
+        synchronized (this) {
+            removeExpiredSessions(System.currentTimeMillis());
+            Session previousSession = sessions.get(context);
+            if (previousSession != null) {
+                if (previousSession.uses < maxMessages
+                    && previousSession.symmetricAlgorithm.equals(symmetricAlgorithm)) {
+                    LOG.debug("Keeping the current key session for {}", context);
+                    session.clear();
+                    return false;
+                }
+                sessions.remove(context);
+                previousSession.clear();
+            }
+            Iterator<Session> iterator = sessions.values().iterator();
+            while (sessions.size() >= maxEntries && iterator.hasNext()) {
+                iterator.next().clear();
+                iterator.remove();
+            }
+            sessions.put(context, session);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of current sessions
+     */
+    public synchronized int size() {
+        removeExpiredSessions(System.currentTimeMillis());
+        return sessions.size();
+    }
+
+    /**
+     * End all of the sessions, and overwrite their keys
+     */
+    @Override
+    public synchronized void close() {
+        for (Session session : sessions.values()) {
+            session.clear();
+        }
+        sessions.clear();
+    }
+
+    /**
+     * Get the context of a recipient, which identifies its public key and the key transport
+     * algorithm and parameters that are used to wrap a key for it. The OAEP parameters are the
+     * value of the PSource of the OAEPParameterSpec, where null is the same as the default
+     * (empty) value.
+     */
+    public static String getContext(
+        PublicKey publicKey,
+        String keyTransportAlgorithm,
+        String digestAlgorithm,
+        String mgfAlgorithm,
+        byte[] oaepParams
+    ) {
+        if (publicKey == null || keyTransportAlgorithm == null) {
+            return null;
+        }
+        StringBuilder context = new StringBuilder(keyTransportAlgorithm);
+        context.append('|').append(digestAlgorithm);
+        context.append('|').append(mgfAlgorithm);
+        if (oaepParams != null && oaepParams.length > 0) {
+            context.append('|').append(org.apache.xml.security.utils.XMLUtils.encodeToString(oaepParams));
+        }
+        MessageDigest digest = null;
+        try {
+            digest = JCAInstancePool.getMessageDigest("SHA-1");
+            byte[] publicKeyDigest = digest.digest(publicKey.getEncoded());
+            context.append('|').append(org.apache.xml.security.utils.XMLUtils.encodeToString(publicKeyDigest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            JCAInstancePool.release(digest);
+        }
+        return context.toString();
+    }
+
+    private void removeExpiredSessions(long now) {
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.expiry > now) {
+                break;
+            }
+            session.clear();
+            iterator.remove();
+        }
+    }
+
+    private static final class Session {
+        private final String symmetricAlgorithm;
+        private final byte[] secretKey;
+        private final byte[] encryptedKey;
+        private final long expiry;
+        private int uses = 1;
+
+        Session(String symmetricAlgorithm, byte[] secretKey, byte[] encryptedKey, long expiry) {
+            this.symmetricAlgorithm = symmetricAlgorithm;
+            this.secretKey = secretKey;
+            this.encryptedKey = encryptedKey;
+            this.expiry = expiry;
+        }
+
+        void clear() {
+            Arrays.fill(secretKey, (byte)0);
+        }
+    }
+}
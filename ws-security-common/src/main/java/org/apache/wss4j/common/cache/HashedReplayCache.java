@@ -0,0 +1,464 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.crypto.JCAInstancePool;
+
+/**
+ * An in-memory ReplayCache with a fixed memory footprint. Instead of the identifiers themselves,
+ * it stores a 128-bit digest (the truncated SHA-256 hash) of each identifier together with its
+ * expiry time in a preallocated table of longs, i.e. 24 bytes per entry regardless of the length
+ * of the identifier. The default TTL is 5 minutes and the max TTL is 60 minutes.
+ *
+ * The table has (at least) twice as many slots as the capacity, and is split into segments that
+ * are locked independently, each of which holds up to 1/16th of the capacity. Within a segment,
+ * an identifier is stored in one of a small window of slots starting at the position given by
+ * its digest, and the slots of expired identifiers are reused. In the rare case that all of the
+ * slots of the window are in use by unexpired identifiers while the segment is not full, the
+ * digest is kept in a small map of the segment instead. Only if the segment holds as many
+ * unexpired identifiers as its share of the capacity does the configured OverflowPolicy decide
+ * what happens. A full segment is only scanned for expired identifiers once the earliest expiry
+ * time of its identifiers has passed.
+ */
+public class HashedReplayCache implements ReplayCache {
+
+    /**
+     * What to do when a new identifier cannot be stored because the cache is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Do not store the identifier. addIfAbsent returns false, so the message is treated
+         * as a replay (fail closed).
+         */
+        REJECT,
+        /**
+         * Evict the unexpired identifier that expires first (in the window of slots of the new
+         * identifier) to make space for the new one. The evicted identifier could then be
+         * replayed (fail open).
+         */
+        EVICT
+    }
+
+    public static final long DEFAULT_TTL = MemoryReplayCache.DEFAULT_TTL;
+    public static final long MAX_TTL = MemoryReplayCache.MAX_TTL;
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(HashedReplayCache.class);
+
+    /**
+     * The number of longs per slot of the table
+     */
+    protected static final int SLOT_SIZE = 3;
+
+    private static final int SEGMENTS = 16;
+    private static final int PROBE_LIMIT = 16;
+
+    /**
+     * The expiry time of a slot whose identifier has expired and been purged. Unlike a never
+     * used slot (zero), it does not end the chain of a lookup.
+     */
+    private static final long PURGED = 1L;
+
+    private final LongBuffer table;
+    private final Segment[] segments;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    public HashedReplayCache() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.REJECT);
+    }
+
+    /**
+     * @param capacity the maximum number of unexpired identifiers to store
+     * @param overflowPolicy what to do when a new identifier cannot be stored
+     */
+    public HashedReplayCache(int capacity, OverflowPolicy overflowPolicy) {
+        this(LongBuffer.wrap(new long[getSlotCount(capacity) * SLOT_SIZE]), capacity, overflowPolicy);
+    }
+
+    /**
+     * Create a cache that stores its entries in the given table, which may be backed by off-heap
+     * or memory-mapped storage. Existing entries of the table are kept.
+     * @param table the table, the size of which must be SLOT_SIZE times the value returned by
+     * getSlotCount for the capacity. Unused slots must be zero.
+     * @param capacity the maximum number of unexpired identifiers to store
+     * @param overflowPolicy what to do when a new identifier cannot be stored
+     */
+    protected HashedReplayCache(LongBuffer table, int capacity, OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("An OverflowPolicy must be specified");
+        }
+        int slots = table.capacity() / SLOT_SIZE;
+        if (slots != getSlotCount(capacity) || slots * SLOT_SIZE != table.capacity()) {
+            throw new IllegalArgumentException("The size of the table is invalid");
+        }
+        this.table = table;
+        this.overflowPolicy = overflowPolicy;
+
+        int segmentSlots = slots / SEGMENTS;
+        int segmentCapacity = (capacity + SEGMENTS - 1) / SEGMENTS;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(i * segmentSlots, segmentSlots, segmentCapacity);
+        }
+    }
+
+    /**
+     * @param capacity the maximum number of identifiers to store
+     * @return the number of slots of a table for the given capacity, which is twice the capacity
+     * rounded up to a power of two, and at least 256. The memory footprint of the cache is
+     * SLOT_SIZE longs per slot.
+     */
+    protected static int getSlotCount(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 27) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^27");
+        }
+        return Math.max(SEGMENTS * PROBE_LIMIT, Integer.highestOneBit(capacity - 1) << 2);
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     */
+    public void add(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+        long[] digest = digest(identifier);
+        getSegment(digest).add(digest[0], digest[1], getExpiryTime(expiry), false);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is
+     * already contained in the cache. This check and the addition are performed atomically.
+     * If the cache holds as many unexpired identifiers as its capacity and the OverflowPolicy is
+     * REJECT, false is returned.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default
+     * amount of time
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        long[] digest = digest(identifier);
+        return getSegment(digest).add(digest[0], digest[1], getExpiryTime(expiry), true);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        long[] digest = digest(identifier);
+        return getSegment(digest).contains(digest[0], digest[1]);
+    }
+
+    /**
+     * @return the number of identifiers that could not be stored, or that were evicted, because
+     * the cache was full
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment getSegment(long[] digest) {
+        return segments[(int)(digest[1] >>> 32) & (SEGMENTS - 1)];
+    }
+
+    private static long[] digest(String identifier) {
+        MessageDigest digest = null;
+        try {
+            digest = JCAInstancePool.getMessageDigest("SHA-256");
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(identifier.getBytes(StandardCharsets.UTF_8)));
+            return new long[] {hash.getLong(), hash.getLong()};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            JCAInstancePool.release(digest);
+        }
+    }
+
+    private static long getExpiryTime(Instant expiry) {
+        Instant now = Instant.now();
+        Instant maxTTL = now.plusSeconds(MAX_TTL);
+        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
+            return now.plusSeconds(DEFAULT_TTL).toEpochMilli();
+        }
+        return expiry.toEpochMilli();
+    }
+
+    /**
+     * An open-addressed region of the table. Each slot consists of three longs: the two halves of
+     * the digest, followed by the expiry time. A slot with an expiry time of zero has never been
+     * used, so a lookup can stop there. The expiry time is written last, so that a slot that is
+     * only partly written never matches a digest with an unexpired expiry time. Digests that do not
+     * fit into their window of slots are kept in the overflow map of the segment.
+     */
+    private final class Segment {
+        private final int offset;
+        private final int mask;
+        private final int capacity;
+        private final Map<Digest, Long> overflow = new HashMap<>();
+
+        /**
+         * The number of slots with an expiry time other than zero or PURGED, plus the size of the
+         * overflow map, i.e. the unexpired identifiers and the expired ones that were not purged
+         */
+        private int size;
+
+        /**
+         * A lower bound of the expiry times of the identifiers that count towards the size. A full
+         * segment is only purged once this time has passed, as there is nothing to purge before.
+         */
+        private long earliestExpiry = Long.MAX_VALUE;
+
+        Segment(int offset, int slots, int capacity) {
+            this.offset = offset;
+            this.mask = slots - 1;
+            this.capacity = capacity;
+            for (int slot = 0; slot < slots; slot++) {
+                long slotExpiry = table.get(getPosition(slot) + 2);
+                if (slotExpiry > PURGED) {
+                    size++;
+                    earliestExpiry = Math.min(earliestExpiry, slotExpiry);
+                }
+            }
+        }
+
+        synchronized boolean contains(long h, long l) {
+            long now = System.currentTimeMillis();
+            int index = (int)l & mask;
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                int position = getPosition((index + i) & mask);
+                long slotExpiry = table.get(position + 2);
+                if (slotExpiry == 0L) {
+                    return false;
+                }
+                if (table.get(position) == h && table.get(position + 1) == l) {
+                    return slotExpiry > now;
+                }
+            }
+            if (overflow.isEmpty()) {
+                return false;
+            }
+            Long expiry = overflow.get(new Digest(h, l));
+            return expiry != null && expiry > now;
+        }
+
+        synchronized boolean add(long h, long l, long expiry, boolean ifAbsent) {
+            long now = System.currentTimeMillis();
+            int index = (int)l & mask;
+            int freePosition = -1;
+            int earliestPosition = -1;
+            long windowExpiry = Long.MAX_VALUE;
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                int position = getPosition((index + i) & mask);
+                long slotExpiry = table.get(position + 2);
+                if (slotExpiry != 0L && table.get(position) == h && table.get(position + 1) == l) {
+                    if (ifAbsent && slotExpiry > now) {
+                        return false;
+                    }
+                    if (slotExpiry == PURGED) {
+                        size++;
+                    }
+                    table.put(position + 2, expiry);
+                    earliestExpiry = Math.min(earliestExpiry, expiry);
+                    return true;
+                }
+                if (slotExpiry <= now) {
+                    if (freePosition < 0) {
+                        freePosition = position;
+                    }
+                    if (slotExpiry == 0L) {
+                        // A never used slot ends the chain, so the digest is not stored further on
+                        break;
+                    }
+                } else if (slotExpiry < windowExpiry) {
+                    earliestPosition = position;
+                    windowExpiry = slotExpiry;
+                }
+            }
+
+            Digest digest = null;
+            if (!overflow.isEmpty()) {
+                digest = new Digest(h, l);
+                Long overflowExpiry = overflow.get(digest);
+                if (overflowExpiry != null) {
+                    if (ifAbsent && overflowExpiry > now) {
+                        return false;
+                    }
+                    overflow.put(digest, expiry);
+                    earliestExpiry = Math.min(earliestExpiry, expiry);
+                    return true;
+                }
+            }
+
+            if (size >= capacity && earliestExpiry <= now) {
+                purge(now);
+            }
+            if (size >= capacity) {
+                if (freePosition >= 0 && overflowPolicy == OverflowPolicy.EVICT) {
+                    // Nothing needs to be evicted from the window
+                    store(freePosition, h, l, expiry);
+                    return true;
+                }
+                overflowCount.incrementAndGet();
+                if (overflowPolicy == OverflowPolicy.REJECT) {
+                    LOG.debug("The replay cache is full, the identifier could not be stored");
+                    return false;
+                }
+                LOG.debug("The replay cache is full, evicting an unexpired identifier");
+                store(earliestPosition, h, l, expiry);
+                return true;
+            }
+
+            if (freePosition >= 0) {
+                store(freePosition, h, l, expiry);
+            } else {
+                overflow.put(digest == null ? new Digest(h, l) : digest, expiry);
+                earliestExpiry = Math.min(earliestExpiry, expiry);
+                size++;
+            }
+            return true;
+        }
+
+        private void store(int position, long h, long l, long expiry) {
+            if (table.get(position + 2) <= PURGED) {
+                size++;
+            }
+            table.put(position + 2, PURGED);
+            table.put(position, h);
+            table.put(position + 1, l);
+            table.put(position + 2, expiry);
+            earliestExpiry = Math.min(earliestExpiry, expiry);
+        }
+
+        /**
+         * Mark the slots and overflow entries of expired identifiers as purged, so that they no
+         * longer count towards the capacity, and find the earliest expiry time of the others
+         */
+        private void purge(long now) {
+            long earliest = Long.MAX_VALUE;
+            for (int slot = 0; slot <= mask; slot++) {
+                int position = getPosition(slot) + 2;
+                long slotExpiry = table.get(position);
+                if (slotExpiry > PURGED) {
+                    if (slotExpiry <= now) {
+                        table.put(position, PURGED);
+                        size--;
+                    } else {
+                        earliest = Math.min(earliest, slotExpiry);
+                    }
+                }
+            }
+            for (Iterator<Long> iterator = overflow.values().iterator(); iterator.hasNext();) {
+                long overflowExpiry = iterator.next();
+                if (overflowExpiry <= now) {
+                    iterator.remove();
+                    size--;
+                } else {
+                    earliest = Math.min(earliest, overflowExpiry);
+                }
+            }
+            earliestExpiry = earliest;
+        }
+
+        synchronized void clear() {
+            for (int slot = 0; slot <= mask; slot++) {
+                int position = getPosition(slot);
+                table.put(position + 2, 0L);
+                table.put(position, 0L);
+                table.put(position + 1, 0L);
+            }
+            overflow.clear();
+            size = 0;
+            earliestExpiry = Long.MAX_VALUE;
+        }
+
+        private int getPosition(int slot) {
+            return (offset + slot) * SLOT_SIZE;
+        }
+    }
+
+    /**
+     * The digest of an identifier in the overflow map of a segment
+     */
+    private static final class Digest {
+        private final long h;
+        private final long l;
+
+        Digest(long h, long l) {
+            this.h = h;
+            this.l = l;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(h ^ (h >>> 32) ^ l ^ (l >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Digest)) {
+                return false;
+            }
+            Digest other = (Digest)obj;
+            return h == other.h && l == other.l;
+        }
+    }
+}
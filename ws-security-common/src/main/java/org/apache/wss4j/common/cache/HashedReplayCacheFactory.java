@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+
+/**
+ * A factory to return a HashedReplayCache instance. The capacity and OverflowPolicy of the caches
+ * are given when the factory is created. The configuration passed to newReplayCache may override
+ * them: a Number is used as the capacity, and an OverflowPolicy as the policy of the cache.
+ */
+public class HashedReplayCacheFactory extends ReplayCacheFactory {
+
+    private final int capacity;
+    private final HashedReplayCache.OverflowPolicy overflowPolicy;
+
+    public HashedReplayCacheFactory() {
+        this(HashedReplayCache.DEFAULT_CAPACITY, HashedReplayCache.OverflowPolicy.REJECT);
+    }
+
+    public HashedReplayCacheFactory(int capacity, HashedReplayCache.OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("An OverflowPolicy must be specified");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        if (configuration instanceof Number) {
+            return new HashedReplayCache(((Number)configuration).intValue(), overflowPolicy);
+        } else if (configuration instanceof HashedReplayCache.OverflowPolicy) {
+            return new HashedReplayCache(capacity, (HashedReplayCache.OverflowPolicy)configuration);
+        }
+        return new HashedReplayCache(capacity, overflowPolicy);
+    }
+
+}
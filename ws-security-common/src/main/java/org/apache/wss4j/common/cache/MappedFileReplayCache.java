@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A HashedReplayCache that stores its table in a memory-mapped file, so that the cached
+ * identifiers survive a restart of the JVM, and replays within the TTL of an identifier are
+ * still detected after a restart. Entries are written to the mapped pages directly, and are
+ * flushed to disk by the operating system, or when the cache is closed. There is no flush per
+ * entry, so the entries that were added just before a crash of the operating system may be lost.
+ * The (rare) identifiers that the HashedReplayCache keeps in the overflow map of a segment, rather
+ * than in the table, are held on the heap and do not survive a restart either.
+ *
+ * A file can only be used by one MappedFileReplayCache at a time. The cache holds an exclusive
+ * lock on the file until it is closed, and the constructor fails if the file is locked by another
+ * cache, in this or in another process. It also fails if the file holds a cache of a different
+ * capacity, rather than discarding the identifiers in the file.
+ */
+public class MappedFileReplayCache extends HashedReplayCache {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(MappedFileReplayCache.class);
+
+    // "WSS4JRC1"
+    private static final long MAGIC = 0x575353344a524331L;
+    private static final int HEADER_SIZE = 16;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private boolean closed;
+
+    public MappedFileReplayCache(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, OverflowPolicy.REJECT);
+    }
+
+    /**
+     * @param file the file to store the cache in. An existing cache file is reused, any other
+     * file is (re-)initialised.
+     * @throws IOException if the file cannot be opened, is in use by another cache, or holds a
+     * cache of a different capacity
+     * @param capacity the maximum number of identifiers to store
+     * @param overflowPolicy what to do when a new identifier cannot be stored
+     */
+    public MappedFileReplayCache(File file, int capacity, OverflowPolicy overflowPolicy) throws IOException {
+        this(file, openFile(file), capacity, overflowPolicy);
+    }
+
+    private MappedFileReplayCache(
+        File file, RandomAccessFile randomAccessFile, int capacity, OverflowPolicy overflowPolicy
+    ) throws IOException {
+        this(file, randomAccessFile, mapFile(file, randomAccessFile, getSlotCount(capacity)), capacity, overflowPolicy);
+    }
+
+    private MappedFileReplayCache(
+        File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int capacity,
+        OverflowPolicy overflowPolicy
+    ) {
+        super(buffer.asLongBuffer(), capacity, overflowPolicy);
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Write the cached identifiers to the file
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Write the cached identifiers to the file and close it, which releases the lock on the file.
+     * Unlike other ReplayCache implementations, the cached identifiers are not discarded.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            buffer.force();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            LOG.debug(e.getMessage(), e);
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private static RandomAccessFile openFile(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create the directory " + parent);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileLock lock = randomAccessFile.getChannel().tryLock();
+            if (lock == null) {
+                throw new IOException("The replay cache file " + file + " is in use by another process");
+            }
+        } catch (OverlappingFileLockException e) {
+            randomAccessFile.close();
+            throw new IOException("The replay cache file " + file + " is already in use", e);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+        return randomAccessFile;
+    }
+
+    private static MappedByteBuffer mapFile(
+        File file, RandomAccessFile randomAccessFile, int slots
+    ) throws IOException {
+        try {
+            long tableSize = (long)slots * SLOT_SIZE * Long.BYTES;
+            boolean reuse = false;
+            if (randomAccessFile.length() >= HEADER_SIZE && randomAccessFile.readLong() == MAGIC) {
+                long fileSlots = randomAccessFile.readLong();
+                if (fileSlots != slots) {
+                    throw new IOException("The replay cache file " + file + " holds a cache of "
+                        + fileSlots + " slots rather than " + slots);
+                }
+                reuse = randomAccessFile.length() == HEADER_SIZE + tableSize;
+            }
+            if (!reuse) {
+                LOG.debug("Initialising the replay cache file {}", file);
+                // Truncating the file first zeroes the table
+                randomAccessFile.setLength(0L);
+                randomAccessFile.setLength(HEADER_SIZE + tableSize);
+                randomAccessFile.seek(0L);
+                randomAccessFile.writeLong(MAGIC);
+                randomAccessFile.writeLong(slots);
+            }
+
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, tableSize);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A factory to return a MappedFileReplayCache instance. The cache is stored in the file
+ * "<key>.cache" in the directory given when the factory was created. The directory must only be
+ * writable by the user of the process, as anyone who can write to the file can remove the cached
+ * identifiers, and it should survive a restart of the operating system (unlike "java.io.tmpdir"
+ * on many systems), as otherwise the identifiers are lost.
+ *
+ * As a file can only be used by one MappedFileReplayCache at a time, the cache for a file that
+ * is already open in this JVM is returned, rather than a new one.
+ *
+ * The configuration passed to newReplayCache may override the directory with a File, or with a
+ * String that is the path of the directory. Note that unlike for the EHCacheReplayCacheFactory,
+ * where a String configuration is the location of a configuration file, the String is not
+ * resolved as a resource or URL, as there is no configuration file for this cache.
+ */
+public class MappedFileReplayCacheFactory extends ReplayCacheFactory {
+
+    private static final Map<File, MappedFileReplayCache> OPEN_CACHES = new HashMap<>();
+
+    private final File directory;
+    private final int capacity;
+    private final HashedReplayCache.OverflowPolicy overflowPolicy;
+
+    public MappedFileReplayCacheFactory(File directory) {
+        this(directory, HashedReplayCache.DEFAULT_CAPACITY, HashedReplayCache.OverflowPolicy.REJECT);
+    }
+
+    public MappedFileReplayCacheFactory(
+        File directory, int capacity, HashedReplayCache.OverflowPolicy overflowPolicy
+    ) {
+        if (directory == null || overflowPolicy == null) {
+            throw new IllegalArgumentException("A directory and an OverflowPolicy must be specified");
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        File cacheDirectory = directory;
+        if (configuration instanceof File) {
+            cacheDirectory = (File)configuration;
+        } else if (configuration instanceof String) {
+            cacheDirectory = new File((String)configuration);
+        }
+
+        File file = new File(cacheDirectory, key.replaceAll("[^A-Za-z0-9._-]", "_") + ".cache");
+        try {
+            file = file.getCanonicalFile();
+            synchronized (OPEN_CACHES) {
+                MappedFileReplayCache replayCache = OPEN_CACHES.get(file);
+                if (replayCache == null || replayCache.isClosed()) {
+                    replayCache = new MappedFileReplayCache(file, capacity, overflowPolicy);
+                    OPEN_CACHES.put(file, replayCache);
+                }
+                return replayCache;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create the replay cache file " + file, e);
+        }
+    }
+
+}
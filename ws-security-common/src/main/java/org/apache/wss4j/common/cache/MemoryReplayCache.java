@@ -22,25 +22,54 @@ package org.apache.wss4j.common.cache;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A simple in-memory HashSet based cache to prevent against replay attacks. The default TTL is 5 minutes
+ * A simple in-memory cache to prevent against replay attacks. The default TTL is 5 minutes
  * and the max TTL is 60 minutes.
+ *
+ * The identifiers are stored in a ConcurrentHashMap together with their expiry time, so that
+ * adding and checking identifiers does not take a global lock. Expired identifiers are removed
+ * with a timer wheel of one-second slots: each identifier is also queued in the slot of the
+ * second in which it expires, and the slots that have passed are drained by whichever thread
+ * first notices that the wheel is behind, while all other threads carry on without waiting.
+ * A single call drains at most MAX_EXPIRIES_PER_STEP identifiers, so that a backlog (e.g. after
+ * the cache was idle) is worked off over several calls rather than by one caller. Expired
+ * identifiers which have not been drained yet are never reported as contained in the cache.
  */
 public class MemoryReplayCache implements ReplayCache {
 
     public static final long DEFAULT_TTL = 60L * 5L;
     public static final long MAX_TTL = DEFAULT_TTL * 12L;
-    private final SortedMap<Instant, List<String>> cache = new TreeMap<>();
-    private final Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+
+    // A power of two that covers more than MAX_TTL one-second slots
+    private static final int WHEEL_SIZE = 4096;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * The maximum number of queued identifiers that a single call processes
+     */
+    private static final int MAX_EXPIRIES_PER_STEP = 1024;
+
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+    private final Queue<String>[] wheel;
+    private final AtomicLong lastProcessedSecond;
+    private final AtomicBoolean processing = new AtomicBoolean();
+
+    @SuppressWarnings("unchecked")
+    public MemoryReplayCache() {
+        wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        lastProcessedSecond = new AtomicLong(System.currentTimeMillis() / 1000L - 1L);
+    }
 
     /**
      * Add the given identifier to the cache. It will be cached for a default amount of time.
@@ -60,21 +89,43 @@ public class MemoryReplayCache implements ReplayCache {
             return;
         }
 
-        Instant now = Instant.now();
-        Instant maxTTL = now.plusSeconds(MAX_TTL);
-        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
-            expiry = now.plusSeconds(DEFAULT_TTL);
+        long expiryTime = getExpiryTime(expiry);
+        ids.put(identifier, expiryTime);
+        schedule(identifier, expiryTime);
+        processTokenExpiry();
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is
+     * already contained in the cache. This check and the addition are performed atomically.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default
+     * amount of time
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
         }
 
-        synchronized (cache) {
-            List<String> list = cache.get(expiry);
-            if (list == null) {
-                list = new ArrayList<>(1);
-                cache.put(expiry, list);
+        long expiryTime = getExpiryTime(expiry);
+        while (true) {
+            Long existingExpiry = ids.putIfAbsent(identifier, expiryTime);
+            if (existingExpiry == null) {
+                break;
+            }
+            if (existingExpiry > System.currentTimeMillis()) {
+                return false;
+            }
+            // The existing identifier has expired but has not been removed yet
+            if (ids.replace(identifier, existingExpiry, expiryTime)) {
+                break;
             }
-            list.add(identifier);
         }
-        ids.add(identifier);
+        schedule(identifier, expiryTime);
+        processTokenExpiry();
+        return true;
     }
 
     /**
@@ -85,32 +136,88 @@ public class MemoryReplayCache implements ReplayCache {
         processTokenExpiry();
 
         if (identifier != null && !"".equals(identifier)) {
-            return ids.contains(identifier);
+            Long expiryTime = ids.get(identifier);
+            if (expiryTime != null) {
+                if (expiryTime > System.currentTimeMillis()) {
+                    return true;
+                }
+                ids.remove(identifier, expiryTime);
+            }
         }
         return false;
     }
 
+    /**
+     * Remove the identifiers that expired in the timer wheel slots that have passed since the
+     * last call, up to MAX_EXPIRIES_PER_STEP identifiers. Only one thread processes the slots at
+     * a time, other threads return immediately.
+     */
     protected void processTokenExpiry() {
-        Instant current = Instant.now();
-        synchronized (cache) {
-            Iterator<Entry<Instant, List<String>>> it = cache.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<Instant, List<String>> entry = it.next();
-                if (entry.getKey().isBefore(current)) {
-                    for (String id : entry.getValue()) {
-                        ids.remove(id);
+        long currentSecond = System.currentTimeMillis() / 1000L;
+        if (lastProcessedSecond.get() >= currentSecond - 1L
+            || !processing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            long second = lastProcessedSecond.get() + 1L;
+            // A full revolution of the wheel covers every slot
+            second = Math.max(second, currentSecond - WHEEL_SIZE);
+            int budget = MAX_EXPIRIES_PER_STEP;
+            for (; second < currentSecond && budget > 0; second++) {
+                Queue<String> slot = wheel[(int)(second & WHEEL_MASK)];
+                List<String> unexpired = null;
+                String identifier = slot.poll();
+                while (identifier != null) {
+                    Long expiryTime = ids.get(identifier);
+                    if (expiryTime != null) {
+                        if (expiryTime <= now) {
+                            ids.remove(identifier, expiryTime);
+                        } else if (((expiryTime / 1000L) & WHEEL_MASK) == (second & WHEEL_MASK)) {
+                            // The identifier expires in a later revolution of the wheel
+                            if (unexpired == null) {
+                                unexpired = new ArrayList<>();
+                            }
+                            unexpired.add(identifier);
+                        }
+                        // Otherwise the identifier was added again with a later expiry, which
+                        // is queued in another slot
                     }
-                    it.remove();
-                } else {
+                    identifier = --budget > 0 ? slot.poll() : null;
+                }
+                if (unexpired != null) {
+                    slot.addAll(unexpired);
+                }
+                if (budget <= 0 && !slot.isEmpty()) {
+                    // The rest of this slot is processed by a later call
                     break;
                 }
+                lastProcessedSecond.set(second);
             }
+        } finally {
+            processing.set(false);
         }
     }
 
     @Override
     public synchronized void close() throws IOException {
-        cache.clear();
         ids.clear();
+        for (Queue<String> slot : wheel) {
+            slot.clear();
+        }
+    }
+
+    private void schedule(String identifier, long expiryTime) {
+        wheel[(int)((expiryTime / 1000L) & WHEEL_MASK)].offer(identifier);
+    }
+
+    private static long getExpiryTime(Instant expiry) {
+        Instant now = Instant.now();
+        Instant maxTTL = now.plusSeconds(MAX_TTL);
+        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
+            return now.plusSeconds(DEFAULT_TTL).toEpochMilli();
+        }
+        return expiry.toEpochMilli();
     }
 }
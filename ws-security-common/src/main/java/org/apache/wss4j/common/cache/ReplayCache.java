@@ -47,4 +47,43 @@ public interface ReplayCache extends Closeable {
      */
     boolean contains(String identifier);
 
+    /**
+     * Add the given identifier to the cache for a default amount of time, unless it is already
+     * contained in the cache.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    default boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, unless it is already
+     * contained in the cache. Two concurrent calls with the same identifier must not both return
+     * true.
+     *
+     * This default implementation holds the monitor of the cache instance ("synchronized (this)")
+     * for the contains/add sequence. It is therefore only atomic with respect to other addIfAbsent
+     * calls on the same instance - not against concurrent "add" calls, nor against other instances
+     * that share the same underlying store - and it serializes all addIfAbsent calls on the cache.
+     * Implementations should override it with an atomic operation of the underlying store.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default
+     * amount of time
+     * @return true if the identifier was added, false if it was already contained in the cache
+     */
+    default boolean addIfAbsent(String identifier, Instant expiry) {
+        synchronized (this) {
+            if (contains(identifier)) {
+                return false;
+            }
+            if (expiry == null) {
+                add(identifier);
+            } else {
+                add(identifier, expiry);
+            }
+            return true;
+        }
+    }
+
 }
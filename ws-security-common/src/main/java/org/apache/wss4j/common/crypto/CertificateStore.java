@@ -367,25 +367,27 @@ public class CertificateStore extends CryptoBase {
         }
 
         try {
-            sha = MessageDigest.getInstance("SHA1");
+            sha = JCAInstancePool.getMessageDigest("SHA1");
+            for (X509Certificate trustedCert : trustedCerts) {
+                try {
+                    sha.update(trustedCert.getEncoded());
+                } catch (CertificateEncodingException ex) {
+                    throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
+                    );
+                }
+                byte[] data = sha.digest();
+
+                if (Arrays.equals(data, thumb)) {
+                    return new X509Certificate[]{trustedCert};
+                }
+            }
         } catch (NoSuchAlgorithmException e) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
             );
-        }
-        for (X509Certificate trustedCert : trustedCerts) {
-            try {
-                sha.update(trustedCert.getEncoded());
-            } catch (CertificateEncodingException ex) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                );
-            }
-            byte[] data = sha.digest();
-
-            if (Arrays.equals(data, thumb)) {
-                return new X509Certificate[]{trustedCert};
-            }
+        } finally {
+            JCAInstancePool.release(sha);
         }
         return null;
     }
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A cache of certificate chains that have been successfully verified by a Crypto
+ * implementation. A chain is identified by a SHA-256 digest of the encoded certificates,
+ * together with the revocation flag and the Subject DN constraints that were used to verify
+ * it. A cache entry expires at the earliest of the configured time-to-live, the "notAfter"
+ * date of any certificate in the chain, or the "nextUpdate" date of the CRLs that were used
+ * for revocation checking.
+ *
+ * Only successful verifications are cached. The cache must be cleared whenever the trust
+ * material that the chains were verified against is changed. Each clear starts a new generation
+ * of the cache. A verification records the generation that was current when it started, and its
+ * result is dropped if the cache was cleared in the meantime, so that a verification against
+ * outdated trust material cannot repopulate the cache.
+ */
+public class CertificateTrustCache {
+
+    public static final long DEFAULT_MAX_ENTRIES = 10000L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CertificateTrustCache.class);
+
+    private final Map<ByteBuffer, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final long ttl;
+    private final long maxEntries;
+
+    /**
+     * @param ttl the maximum time-to-live of a cache entry in seconds
+     */
+    public CertificateTrustCache(long ttl) {
+        this(ttl, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param ttl the maximum time-to-live of a cache entry in seconds
+     * @param maxEntries the maximum number of entries to cache
+     */
+    public CertificateTrustCache(long ttl, long maxEntries) {
+        if (ttl <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("The TTL and the maximum number of entries must be positive");
+        }
+        this.ttl = ttl * 1000L;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Create the key under which the verification result of the given certificate chain is
+     * stored.
+     */
+    public ByteBuffer createKey(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        MessageDigest digest = null;
+        try {
+            digest = JCAInstancePool.getMessageDigest("SHA-256");
+            for (X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            digest.update(enableRevocation ? (byte)1 : (byte)0);
+            if (subjectCertConstraints != null) {
+                for (Pattern pattern : subjectCertConstraints) {
+                    digest.update(Integer.toString(pattern.flags()).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte)0);
+                    digest.update(pattern.pattern().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte)0);
+                }
+            }
+            return ByteBuffer.wrap(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        } catch (CertificateEncodingException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
+            );
+        } finally {
+            JCAInstancePool.release(digest);
+        }
+    }
+
+    /**
+     * @return true if a verified certificate chain is cached under the given key and has
+     * not expired
+     */
+    public boolean isVerified(ByteBuffer key) {
+        CacheEntry entry = cache.get(key);
+        if (entry != null) {
+            if (entry.generation == generation.get() && entry.expiry > System.currentTimeMillis()) {
+                hitCount.incrementAndGet();
+                return true;
+            }
+            cache.remove(key, entry);
+        }
+        missCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get the current generation of the cache, which must be obtained before a certificate
+     * chain is verified and then passed to addVerified.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Record that the given certificate chain has been verified. The result is not cached if
+     * the cache was cleared after the given generation was obtained.
+     *
+     * @param key the key returned by createKey for the certificate chain
+     * @param certs the verified certificate chain
+     * @param crlNextUpdate the earliest "nextUpdate" date of the CRLs that were used to
+     * verify the chain, or null if no CRLs were used
+     * @param verifiedGeneration the generation returned by getGeneration before the
+     * certificate chain was verified
+     */
+    public void addVerified(
+        ByteBuffer key, X509Certificate[] certs, Date crlNextUpdate, long verifiedGeneration
+    ) {
+        long expiry = System.currentTimeMillis() + ttl;
+        for (X509Certificate cert : certs) {
+            expiry = Math.min(expiry, cert.getNotAfter().getTime());
+        }
+        if (crlNextUpdate != null) {
+            expiry = Math.min(expiry, crlNextUpdate.getTime());
+        }
+
+        if (verifiedGeneration != generation.get()) {
+            // The cache was cleared while the chain was verified
+            return;
+        }
+        if (cache.size() >= maxEntries) {
+            purge();
+        }
+        CacheEntry entry = new CacheEntry(expiry, verifiedGeneration, sequence.incrementAndGet());
+        cache.put(key, entry);
+        if (verifiedGeneration != generation.get()) {
+            // The cache was cleared while the entry was added
+            cache.remove(key, entry);
+        }
+    }
+
+    /**
+     * Remove all of the entries from the cache, and start a new generation of it
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Remove the expired entries (and the entries of a previous generation) from the cache,
+     * and if it is still full then also remove the oldest entries, so that a tenth of the
+     * cache is free for new entries.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        long currentGeneration = generation.get();
+        List<Map.Entry<ByteBuffer, CacheEntry>> entries = new ArrayList<>(cache.size());
+        Iterator<Map.Entry<ByteBuffer, CacheEntry>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ByteBuffer, CacheEntry> mapEntry = iterator.next();
+            CacheEntry entry = mapEntry.getValue();
+            if (entry.expiry <= now || entry.generation != currentGeneration) {
+                iterator.remove();
+            } else {
+                entries.add(mapEntry);
+            }
+        }
+
+        long targetSize = maxEntries - Math.max(1L, maxEntries / 10);
+        if (entries.size() > targetSize) {
+            Collections.sort(entries, new Comparator<Map.Entry<ByteBuffer, CacheEntry>>() {
+                @Override
+                public int compare(Map.Entry<ByteBuffer, CacheEntry> o1, Map.Entry<ByteBuffer, CacheEntry> o2) {
+                    return Long.compare(o1.getValue().sequence, o2.getValue().sequence);
+                }
+            });
+            long toRemove = entries.size() - targetSize;
+            for (int i = 0; i < toRemove; i++) {
+                cache.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        }
+        LOG.debug("Purged the certificate trust cache, {} entries remain", cache.size());
+    }
+
+    private static final class CacheEntry {
+        private final long expiry;
+        private final long generation;
+        private final long sequence;
+
+        CacheEntry(long expiry, long generation, long sequence) {
+            this.expiry = expiry;
+            this.generation = generation;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -221,14 +221,17 @@ public abstract class CryptoBase implements Crypto {
         if (cert.getVersion() < 3 || derEncodedValue == null) {
             X509SubjectPublicKeyInfo spki = new X509SubjectPublicKeyInfo(cert.getPublicKey());
             byte[] value = spki.getSubjectPublicKey();
+            MessageDigest digest = null;
             try {
-                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                digest = JCAInstancePool.getMessageDigest("SHA-1");
                 return digest.digest(value);
             } catch (Exception ex) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.UNSUPPORTED_SECURITY_TOKEN, ex, "noSKIHandling",
                     new Object[] {"No SKI certificate extension and no SHA1 message digest available"}
                 );
+            } finally {
+                JCAInstancePool.release(digest);
             }
         }
 
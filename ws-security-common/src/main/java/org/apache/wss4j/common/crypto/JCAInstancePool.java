@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A pool of JCA primitive instances (Cipher, Mac, MessageDigest and KeyGenerator),
+ * so that the (synchronized) provider lookup of the "getInstance" methods is not performed
+ * every time a primitive is needed. Instances are pooled per type, algorithm and provider in
+ * lock-free queues of a bounded size, and are not bound to a thread, so the pool can be
+ * shared by any number of (virtual) threads.
+ *
+ * An instance obtained from this pool must be (re-)initialised by the caller before it is
+ * used, and should be handed back with the corresponding "release" method when the caller is
+ * done with it. Mac and MessageDigest instances are reset when they are released. A Cipher
+ * can't be reset, so a symmetric Cipher is re-initialised with a dummy key when it is released,
+ * so that an idle instance does not keep the content key of a message alive. Key transport and
+ * key wrap Ciphers are not pooled at all, as they would keep the key that protects a session key
+ * alive for as long as they are idle.
+ *
+ * The pool is discarded when the list of installed security providers changes, as instances
+ * are pooled for the provider that was the default one for a given algorithm when they were
+ * created. Reading the list of providers is synchronized by the JDK, so it is only checked once
+ * every PROVIDER_CHECK_INTERVAL milliseconds. Code that changes the providers can call clear()
+ * to discard the pool straight away. Pooling is bypassed while the ThreadLocalSecurityProvider is
+ * installed, as the provider that backs an instance then depends on the thread that requested it.
+ */
+public final class JCAInstancePool {
+
+    /**
+     * The maximum number of idle instances that are pooled per type, algorithm and provider
+     */
+    public static final int MAX_IDLE_INSTANCES =
+        Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The interval in milliseconds at which the list of installed security providers is checked
+     * for changes
+     */
+    static final long PROVIDER_CHECK_INTERVAL = 1000L;
+
+    private static final String CIPHER = "Cipher";
+    private static final String MAC = "Mac";
+    private static final String MESSAGE_DIGEST = "MessageDigest";
+    private static final String KEY_GENERATOR = "KeyGenerator";
+
+    private static final Map<String, InstanceQueue> POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * The name of the provider that "getInstance" selects by default, per type and algorithm
+     */
+    private static final Map<String, String> DEFAULT_PROVIDERS = new ConcurrentHashMap<>();
+
+    /**
+     * The security providers that were installed when the pooled instances were created
+     */
+    private static volatile Provider[] installedProviders = Security.getProviders();
+    private static volatile long nextProviderCheck =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROVIDER_CHECK_INTERVAL);
+
+    /**
+     * The dummy keys with which symmetric Ciphers are re-initialised when they are released,
+     * per key algorithm
+     */
+    private static final Map<String, SecretKeySpec> DUMMY_KEYS = new ConcurrentHashMap<>();
+
+    private JCAInstancePool() {
+        // complete
+    }
+
+    public static Cipher getCipher(String transformation)
+        throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = (Cipher)poll(CIPHER, transformation, null);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            registerDefaultProvider(CIPHER, transformation, cipher.getProvider());
+        }
+        return cipher;
+    }
+
+    public static Cipher getCipher(String transformation, String provider)
+        throws NoSuchAlgorithmException, NoSuchPaddingException, NoSuchProviderException {
+        if (provider == null) {
+            return getCipher(transformation);
+        }
+        Cipher cipher = (Cipher)poll(CIPHER, transformation, provider);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation, provider);
+        }
+        return cipher;
+    }
+
+    /**
+     * Hand a Cipher back to the pool. It is re-initialised with a dummy key first, and is
+     * discarded if that fails. Key transport (RSA) and key wrap Ciphers are discarded rather
+     * than pooled.
+     */
+    public static void release(Cipher cipher) {
+        if (cipher != null && !isKeyWrapCipher(cipher.getAlgorithm()) && clearKey(cipher)) {
+            offer(CIPHER, cipher.getAlgorithm(), cipher.getProvider(), cipher);
+        }
+    }
+
+    public static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+        Mac mac = (Mac)poll(MAC, algorithm, null);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            registerDefaultProvider(MAC, algorithm, mac.getProvider());
+        }
+        return mac;
+    }
+
+    public static void release(Mac mac) {
+        if (mac != null) {
+            mac.reset();
+            offer(MAC, mac.getAlgorithm(), mac.getProvider(), mac);
+        }
+    }
+
+    public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest digest = (MessageDigest)poll(MESSAGE_DIGEST, algorithm, null);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            registerDefaultProvider(MESSAGE_DIGEST, algorithm, digest.getProvider());
+        }
+        return digest;
+    }
+
+    public static void release(MessageDigest digest) {
+        if (digest != null) {
+            digest.reset();
+            offer(MESSAGE_DIGEST, digest.getAlgorithm(), digest.getProvider(), digest);
+        }
+    }
+
+    public static KeyGenerator getKeyGenerator(String algorithm) throws NoSuchAlgorithmException {
+        KeyGenerator keyGenerator = (KeyGenerator)poll(KEY_GENERATOR, algorithm, null);
+        if (keyGenerator == null) {
+            keyGenerator = KeyGenerator.getInstance(algorithm);
+            registerDefaultProvider(KEY_GENERATOR, algorithm, keyGenerator.getProvider());
+        }
+        return keyGenerator;
+    }
+
+    public static void release(KeyGenerator keyGenerator) {
+        if (keyGenerator != null) {
+            offer(KEY_GENERATOR, keyGenerator.getAlgorithm(), keyGenerator.getProvider(), keyGenerator);
+        }
+    }
+
+    /**
+     * Discard all of the pooled instances. The pool is also discarded automatically, within
+     * PROVIDER_CHECK_INTERVAL milliseconds, after the installed security providers have changed.
+     */
+    public static void clear() {
+        installedProviders = Security.getProviders();
+        nextProviderCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROVIDER_CHECK_INTERVAL);
+        POOLS.clear();
+        DEFAULT_PROVIDERS.clear();
+    }
+
+    /**
+     * Discard the pool if a security provider was added, removed or re-ordered since the
+     * pooled instances were created. This is checked at most once per PROVIDER_CHECK_INTERVAL.
+     */
+    private static void checkInstalledProviders() {
+        long now = System.nanoTime();
+        if (now - nextProviderCheck < 0) {
+            return;
+        }
+        nextProviderCheck = now + TimeUnit.MILLISECONDS.toNanos(PROVIDER_CHECK_INTERVAL);
+
+        Provider[] providers = Security.getProviders();
+        Provider[] previousProviders = installedProviders;
+        if (providers.length == previousProviders.length) {
+            boolean unchanged = true;
+            for (int i = 0; i < providers.length && unchanged; i++) {
+                unchanged = providers[i] == previousProviders[i];
+            }
+            if (unchanged) {
+                return;
+            }
+        }
+        clear();
+    }
+
+    private static boolean isInstalled(Provider provider) {
+        for (Provider installedProvider : installedProviders) {
+            if (installedProvider == provider) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-initialise the given symmetric Cipher with a dummy key, so that it no longer holds the
+     * key it was last initialised with
+     * @return false if the Cipher could not be re-initialised, and so must not be pooled
+     */
+    private static boolean clearKey(Cipher cipher) {
+        String transformation = cipher.getAlgorithm();
+        int index = transformation.indexOf('/');
+        String keyAlgorithm = index == -1 ? transformation : transformation.substring(0, index);
+        SecretKeySpec dummyKey = DUMMY_KEYS.get(keyAlgorithm);
+        if (dummyKey == null) {
+            int keyLength = "DESede".equalsIgnoreCase(keyAlgorithm) ? 24 : 16;
+            dummyKey = new SecretKeySpec(new byte[keyLength], keyAlgorithm);
+            DUMMY_KEYS.put(keyAlgorithm, dummyKey);
+        }
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, dummyKey);
+            return true;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static boolean isKeyWrapCipher(String transformation) {
+        String upperCaseTransformation = transformation.toUpperCase(Locale.ENGLISH);
+        return upperCaseTransformation.startsWith("RSA") || upperCaseTransformation.contains("WRAP");
+    }
+
+    /**
+     * @return the number of idle instances of the given type and algorithm that are pooled for
+     * the default provider
+     */
+    static int getIdleCount(String type, String algorithm) {
+        String provider = DEFAULT_PROVIDERS.get(type + '/' + algorithm);
+        if (provider == null) {
+            return 0;
+        }
+        InstanceQueue queue = POOLS.get(createKey(type, algorithm, provider));
+        return queue == null ? 0 : queue.size.get();
+    }
+
+    private static Object poll(String type, String algorithm, String provider) {
+        if (ThreadLocalSecurityProvider.isInstalled()) {
+            return null;
+        }
+        checkInstalledProviders();
+        String providerName = provider;
+        if (providerName == null) {
+            providerName = DEFAULT_PROVIDERS.get(type + '/' + algorithm);
+            if (providerName == null) {
+                return null;
+            }
+        }
+        InstanceQueue queue = POOLS.get(createKey(type, algorithm, providerName));
+        return queue == null ? null : queue.poll();
+    }
+
+    private static void offer(String type, String algorithm, Provider provider, Object instance) {
+        if (ThreadLocalSecurityProvider.isInstalled() || provider == null) {
+            return;
+        }
+        checkInstalledProviders();
+        if (!isInstalled(provider)) {
+            // created before the providers changed
+            return;
+        }
+        String key = createKey(type, algorithm, provider.getName());
+        InstanceQueue queue = POOLS.get(key);
+        if (queue == null) {
+            InstanceQueue newQueue = new InstanceQueue();
+            queue = POOLS.putIfAbsent(key, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        queue.offer(instance);
+    }
+
+    private static void registerDefaultProvider(String type, String algorithm, Provider provider) {
+        if (provider != null && !ThreadLocalSecurityProvider.isInstalled()) {
+            DEFAULT_PROVIDERS.putIfAbsent(type + '/' + algorithm, provider.getName());
+        }
+    }
+
+    private static String createKey(String type, String algorithm, String provider) {
+        return type + '/' + algorithm + '/' + provider;
+    }
+
+    /**
+     * A lock-free queue of idle instances, which holds at most MAX_IDLE_INSTANCES instances
+     */
+    private static final class InstanceQueue {
+        private final Queue<Object> instances = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        Object poll() {
+            Object instance = instances.poll();
+            if (instance != null) {
+                size.decrementAndGet();
+            }
+            return instance;
+        }
+
+        void offer(Object instance) {
+            if (size.incrementAndGet() > MAX_IDLE_INSTANCES) {
+                size.decrementAndGet();
+                return;
+            }
+            instances.offer(instance);
+        }
+    }
+}
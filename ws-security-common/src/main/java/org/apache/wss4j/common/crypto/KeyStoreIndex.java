@@ -0,0 +1,290 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An immutable in-memory index of the certificate entries of a KeyStore. It allows Merlin to
+ * find a certificate (chain) by issuer/serial, SHA-1 thumbprint, SKI bytes, subject DN or public
+ * key without enumerating all of the aliases of the KeyStore for every lookup.
+ *
+ * Where several aliases match the same key, the first alias returned by the KeyStore wins, as
+ * is the case for a linear search of the KeyStore.
+ *
+ * A KeyStore does not notify of changes, so an index is built when the KeyStore is loaded or set,
+ * and is then used for as long as the KeyStore is in use. Checking whether the KeyStore was
+ * modified in place since, see isIndexOf, visits every entry, and so is only done on request.
+ */
+final class KeyStoreIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(KeyStoreIndex.class);
+
+    private final KeyStore keyStore;
+    private final int size;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<String> unindexedAliases = new ArrayList<>();
+    private final Map<IssuerSerial, Entry> issuerSerialIndex = new HashMap<>();
+    private final Map<ByteBuffer, Entry> thumbprintIndex = new HashMap<>();
+    private final Map<ByteBuffer, Entry> skiIndex = new HashMap<>();
+    private final Map<Object, List<Entry>> subjectIndex = new HashMap<>();
+    private final Map<ByteBuffer, Entry> publicKeyIndex = new HashMap<>();
+
+    /**
+     * Index the X.509 certificate (chain) entries of the given KeyStore
+     * @param keyStore the KeyStore to index
+     * @param crypto the CryptoBase instance used to normalise DNs and compute SKI bytes
+     * @throws KeyStoreException if the KeyStore has not been initialized
+     * @throws WSSecurityException if no SHA-1 MessageDigest is available
+     */
+    KeyStoreIndex(KeyStore keyStore, CryptoBase crypto) throws KeyStoreException, WSSecurityException {
+        this.keyStore = keyStore;
+        this.size = keyStore.size();
+
+        MessageDigest sha = getSHA1Digest();
+        try {
+            for (Enumeration<String> e = keyStore.aliases(); e.hasMoreElements();) {
+                String alias = e.nextElement();
+                Certificate[] certs = keyStore.getCertificateChain(alias);
+                if (certs == null || certs.length == 0) {
+                    // no cert chain, so lets check if getCertificate gives us a result.
+                    Certificate cert = keyStore.getCertificate(alias);
+                    if (cert != null) {
+                        certs = new Certificate[]{cert};
+                    }
+                }
+
+                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
+                    addEntry(new Entry(alias, certs), crypto, sha);
+                } else {
+                    unindexedAliases.add(alias);
+                }
+            }
+        } finally {
+            JCAInstancePool.release(sha);
+        }
+        LOG.debug("Indexed {} certificate entries of a KeyStore of type {}", entries.size(), keyStore.getType());
+    }
+
+    private void addEntry(Entry entry, CryptoBase crypto, MessageDigest sha) {
+        entries.add(entry);
+        X509Certificate x509cert = entry.getCertificate();
+
+        Object issuerName = crypto.createBCX509Name(x509cert.getIssuerX500Principal().getName());
+        putIfAbsent(issuerSerialIndex, new IssuerSerial(issuerName, x509cert.getSerialNumber()), entry);
+
+        Object subjectName = crypto.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+        List<Entry> subjectEntries = subjectIndex.get(subjectName);
+        if (subjectEntries == null) {
+            subjectEntries = new ArrayList<>(1);
+            subjectIndex.put(subjectName, subjectEntries);
+        }
+        subjectEntries.add(entry);
+
+        try {
+            putIfAbsent(thumbprintIndex, ByteBuffer.wrap(sha.digest(x509cert.getEncoded())), entry);
+        } catch (CertificateEncodingException ex) {
+            LOG.debug("Cannot index the thumbprint of the certificate with alias " + entry.getAlias(), ex);
+        }
+
+        try {
+            putIfAbsent(skiIndex, ByteBuffer.wrap(crypto.getSKIBytesFromCert(x509cert)), entry);
+        } catch (WSSecurityException ex) {
+            LOG.debug("Cannot index the SKI of the certificate with alias " + entry.getAlias(), ex);
+        }
+
+        byte[] encodedKey = x509cert.getPublicKey().getEncoded();
+        if (encodedKey != null) {
+            putIfAbsent(publicKeyIndex, ByteBuffer.wrap(encodedKey), entry);
+        }
+    }
+
+    private static <K> void putIfAbsent(Map<K, Entry> map, K key, Entry entry) {
+        if (!map.containsKey(key)) {
+            map.put(key, entry);
+        }
+    }
+
+    /**
+     * @return true if this index was built for the given KeyStore instance
+     */
+    boolean isFor(KeyStore store) {
+        return keyStore == store;
+    }
+
+    /**
+     * @return true if this index was built for the given KeyStore, and the KeyStore has not
+     * since had entries added, removed or replaced. An entry is replaced in place if its alias
+     * now refers to a different certificate, which is checked for every alias of the index.
+     */
+    boolean isIndexOf(KeyStore store) throws KeyStoreException {
+        if (keyStore != store || size != store.size()) {
+            return false;
+        }
+        for (Entry entry : entries) {
+            Certificate cert = store.getCertificate(entry.getAlias());
+            if (cert != entry.getCertificate() && !entry.getCertificate().equals(cert)) {
+                return false;
+            }
+        }
+        for (String alias : unindexedAliases) {
+            if (store.getCertificate(alias) instanceof X509Certificate) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Entry getByIssuerSerial(Object issuerName, BigInteger serialNumber) {
+        return issuerSerialIndex.get(new IssuerSerial(issuerName, serialNumber));
+    }
+
+    Entry getByThumbprint(byte[] thumbprint) {
+        return thumbprintIndex.get(ByteBuffer.wrap(thumbprint));
+    }
+
+    Entry getBySKI(byte[] skiBytes) {
+        return skiIndex.get(ByteBuffer.wrap(skiBytes));
+    }
+
+    List<Entry> getBySubject(Object subjectName) {
+        List<Entry> subjectEntries = subjectIndex.get(subjectName);
+        if (subjectEntries == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(subjectEntries);
+    }
+
+    /**
+     * Get the entry corresponding to the given certificate. The (encoded form of the)
+     * certificate must match, not just the DN.
+     */
+    Entry getByCertificate(X509Certificate cert) throws WSSecurityException {
+        MessageDigest sha = getSHA1Digest();
+        try {
+            Entry entry = getByThumbprint(sha.digest(cert.getEncoded()));
+            if (entry != null && entry.getCertificate().equals(cert)) {
+                return entry;
+            }
+        } catch (CertificateEncodingException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
+            );
+        } finally {
+            JCAInstancePool.release(sha);
+        }
+        return null;
+    }
+
+    Entry getByPublicKey(PublicKey publicKey) {
+        byte[] encodedKey = publicKey.getEncoded();
+        if (encodedKey != null) {
+            return publicKeyIndex.get(ByteBuffer.wrap(encodedKey));
+        }
+
+        // Keys without an encoded form can only be compared directly
+        for (Entry entry : entries) {
+            if (publicKey.equals(entry.getCertificate().getPublicKey())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static MessageDigest getSHA1Digest() throws WSSecurityException {
+        try {
+            return JCAInstancePool.getMessageDigest("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+    }
+
+    /**
+     * A KeyStore alias together with its certificate (chain)
+     */
+    static final class Entry {
+        private final String alias;
+        private final Certificate[] certs;
+
+        Entry(String alias, Certificate[] certs) {
+            this.alias = alias;
+            this.certs = certs;
+        }
+
+        String getAlias() {
+            return alias;
+        }
+
+        Certificate[] getCertificates() {
+            return certs.clone();
+        }
+
+        X509Certificate getCertificate() {
+            return (X509Certificate)certs[0];
+        }
+    }
+
+    private static final class IssuerSerial {
+        private final Object issuerName;
+        private final BigInteger serialNumber;
+
+        IssuerSerial(Object issuerName, BigInteger serialNumber) {
+            this.issuerName = issuerName;
+            this.serialNumber = serialNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * issuerName.hashCode() + serialNumber.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IssuerSerial)) {
+                return false;
+            }
+            IssuerSerial other = (IssuerSerial)obj;
+            return issuerName.equals(other.issuerName) && serialNumber.equals(other.serialNumber);
+        }
+    }
+}
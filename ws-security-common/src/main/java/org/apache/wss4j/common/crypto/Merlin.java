@@ -22,6 +22,7 @@ package org.apache.wss4j.common.crypto;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
@@ -29,17 +30,17 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
+import java.security.cert.CRL;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertStore;
+import java.security.cert.CertStoreException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
@@ -48,10 +49,12 @@ import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509CRL;
+import java.security.cert.X509CRLSelector;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -101,6 +104,8 @@ public class Merlin extends CryptoBase {
     public static final String KEYSTORE_TYPE = "keystore.type";
     public static final String KEYSTORE_ALIAS = "keystore.alias";
     public static final String KEYSTORE_PRIVATE_PASSWORD = "keystore.private.password";
+    public static final String KEYSTORE_PRIVATE_CACHE_SIZE = "keystore.private.cache.size";
+    public static final String DETECT_STORE_CHANGES = "detect.store.changes";
 
     /*
      * TrustStore configuration types
@@ -116,6 +121,12 @@ public class Merlin extends CryptoBase {
      */
     public static final String X509_CRL_FILE = "x509crl.file";
 
+    /*
+     * Certificate trust verification cache configuration
+     */
+    public static final String TRUST_CACHE_TTL = "trust.cache.ttl";
+    public static final String TRUST_CACHE_SIZE = "trust.cache.size";
+
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
     private static final String COMMA_SEPARATOR = ",";
@@ -129,6 +140,16 @@ public class Merlin extends CryptoBase {
     protected PasswordEncryptor passwordEncryptor;
 
     private boolean certProviderHandlesNameConstraints = false;
+    private boolean detectStoreChanges;
+    private volatile KeyStoreIndex keystoreIndex;
+    private volatile KeyStoreIndex truststoreIndex;
+    private CertificateTrustCache trustCache;
+    private volatile KeyStoreIndex trustCacheKeystoreIndex;
+    private volatile KeyStoreIndex trustCacheTruststoreIndex;
+    private volatile PKIXValidationState pkixValidationState;
+    private int privateKeyCacheSize;
+    private volatile PrivateKeyCache privateKeyCache;
+    private volatile String privatePassword;
 
     public Merlin() {
         // default constructor
@@ -166,6 +187,8 @@ public class Merlin extends CryptoBase {
         }
         this.properties = properties;
         this.passwordEncryptor = passwordEncryptor;
+        privatePassword = null;
+        privateKeyCache = null;
 
         String prefix = PREFIX;
         for (Object key : properties.keySet()) {
@@ -335,6 +358,51 @@ public class Merlin extends CryptoBase {
             }
             LOG.debug("The CRL files {} have been loaded", crlLocations);
         }
+
+        loadCacheProperties(properties, prefix);
+
+        keystoreIndex = createIndex(keystore);
+        truststoreIndex = createIndex(truststore);
+    }
+
+    /**
+     * Configure the private key cache and the detection of keystore changes, and set up the
+     * (optional) cache of verified certificate chains
+     */
+    private void loadCacheProperties(Properties properties, String prefix) throws WSSecurityException {
+        String detectChanges = properties.getProperty(prefix + DETECT_STORE_CHANGES);
+        if (detectChanges != null) {
+            detectStoreChanges = Boolean.parseBoolean(detectChanges.trim());
+        }
+
+        String cacheSize = properties.getProperty(prefix + KEYSTORE_PRIVATE_CACHE_SIZE);
+        if (cacheSize != null) {
+            try {
+                privateKeyCacheSize = Integer.parseInt(cacheSize.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+            }
+        }
+
+        String trustCacheTTL = properties.getProperty(prefix + TRUST_CACHE_TTL);
+        if (trustCacheTTL != null) {
+            String trustCacheSize = properties.getProperty(prefix + TRUST_CACHE_SIZE);
+            try {
+                long ttl = Long.parseLong(trustCacheTTL.trim());
+                if (ttl > 0) {
+                    long size = CertificateTrustCache.DEFAULT_MAX_ENTRIES;
+                    if (trustCacheSize != null) {
+                        size = Long.parseLong(trustCacheSize.trim());
+                    }
+                    trustCache = new CertificateTrustCache(ttl, size);
+                    LOG.debug("Verified certificate chains will be cached for up to {} seconds", ttl);
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+            }
+        }
     }
 
     /**
@@ -393,6 +461,9 @@ public class Merlin extends CryptoBase {
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        keystoreIndex = createIndex(keyStore);
+        privateKeyCache = null;
+        clearTrustCache();
     }
 
     /**
@@ -411,6 +482,8 @@ public class Merlin extends CryptoBase {
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        truststoreIndex = createIndex(trustStore);
+        clearTrustCache();
     }
 
     /**
@@ -421,6 +494,7 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        clearTrustCache();
     }
 
     /**
@@ -433,6 +507,59 @@ public class Merlin extends CryptoBase {
         return crlCertStore;
     }
 
+    /**
+     * Set the cache of verified certificate chains. If a certificate chain passed to
+     * verifyTrust is found in the cache, then path validation of the chain is skipped.
+     * Set it to null (the default) to disable caching.
+     * @param trustCache the cache of verified certificate chains
+     */
+    public void setCertificateTrustCache(CertificateTrustCache trustCache) {
+        this.trustCache = trustCache;
+    }
+
+    /**
+     * Get the cache of verified certificate chains, which exposes the hit and miss counts
+     * of the cache.
+     * @return the cache of verified certificate chains, or null if caching is disabled
+     */
+    public CertificateTrustCache getCertificateTrustCache() {
+        return trustCache;
+    }
+
+    /**
+     * Set the maximum number of PrivateKeys recovered from the keystore that are cached, so
+     * that protected keys do not have to be decrypted on every call to getPrivateKey. A cached
+     * key is recovered again if its keystore entry is replaced. The default is 0, which
+     * disables the cache.
+     * @param privateKeyCacheSize the maximum number of PrivateKeys to cache
+     */
+    public void setPrivateKeyCacheSize(int privateKeyCacheSize) {
+        this.privateKeyCacheSize = privateKeyCacheSize;
+        privateKeyCache = null;
+    }
+
+    /**
+     * Set whether entries that are added to, removed from or replaced in the keystore or truststore
+     * after it was loaded or set on this Crypto instance are picked up. Every certificate lookup then
+     * checks all of the entries of the KeyStore for changes, so it is only needed if a KeyStore is
+     * modified in place. Otherwise, call setKeyStore or setTrustStore again after modifying it. The
+     * default is false.
+     * @param detectStoreChanges whether to detect in place changes of the keystore and truststore
+     */
+    public void setDetectStoreChanges(boolean detectStoreChanges) {
+        this.detectStoreChanges = detectStoreChanges;
+    }
+
+    public boolean isDetectStoreChanges() {
+        return detectStoreChanges;
+    }
+
+    private void clearTrustCache() {
+        if (trustCache != null) {
+            trustCache.clear();
+        }
+    }
+
     /**
      * Singleton certificate factory for this Crypto instance.
      * <p/>
@@ -695,15 +822,17 @@ public class Merlin extends CryptoBase {
             }
             String pwd = password;
             if (pwd == null && privatePasswordSet) {
-                pwd = properties.getProperty(PREFIX + KEYSTORE_PRIVATE_PASSWORD);
-                if (pwd == null) {
-                    pwd = properties.getProperty(OLD_PREFIX + KEYSTORE_PRIVATE_PASSWORD);
-                }
-                if (pwd != null) {
-                    pwd = pwd.trim();
-                    pwd = decryptPassword(pwd, passwordEncryptor);
+                pwd = getPrivatePassword();
+            }
+
+            PrivateKeyCache cache = getPrivateKeyCache();
+            if (cache != null) {
+                PrivateKey cachedKey = cache.get(identifier, pwd);
+                if (cachedKey != null) {
+                    return cachedKey;
                 }
             }
+
             Key keyTmp = keystore.getKey(identifier, pwd == null
                                          ? new char[]{} : pwd.toCharArray());
             if (!(keyTmp instanceof PrivateKey)) {
@@ -713,6 +842,9 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty",
                                               new Object[] {msg});
             }
+            if (cache != null) {
+                cache.put(identifier, pwd, (PrivateKey) keyTmp);
+            }
             return (PrivateKey) keyTmp;
         } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException ex) {
             throw new WSSecurityException(
@@ -721,6 +853,41 @@ public class Merlin extends CryptoBase {
         }
     }
 
+    /**
+     * Get the (decrypted) private key password from the Crypto properties
+     */
+    private String getPrivatePassword() {
+        String pwd = privatePassword;
+        if (pwd == null) {
+            pwd = properties.getProperty(PREFIX + KEYSTORE_PRIVATE_PASSWORD);
+            if (pwd == null) {
+                pwd = properties.getProperty(OLD_PREFIX + KEYSTORE_PRIVATE_PASSWORD);
+            }
+            if (pwd != null) {
+                pwd = pwd.trim();
+                pwd = decryptPassword(pwd, passwordEncryptor);
+                privatePassword = pwd;
+            }
+        }
+        return pwd;
+    }
+
+    /**
+     * Get the cache of PrivateKeys recovered from the keystore, (re)creating it if the keystore
+     * has been replaced since the cache was created.
+     */
+    private PrivateKeyCache getPrivateKeyCache() {
+        if (privateKeyCacheSize <= 0) {
+            return null;
+        }
+        PrivateKeyCache cache = privateKeyCache;
+        if (cache == null || !cache.isCacheOf(keystore)) {
+            cache = new PrivateKeyCache(keystore, privateKeyCacheSize);
+            privateKeyCache = cache;
+        }
+        return cache;
+    }
+
     /**
      * Evaluate whether a given certificate chain should be trusted.
      *
@@ -806,20 +973,6 @@ public class Merlin extends CryptoBase {
         );
 
         try {
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                addTrustAnchors(set, truststore);
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                addTrustAnchors(set, keystore);
-            }
-
             // Verify the trust path using the above settings
             String provider = getCryptoProvider();
             CertPathValidator validator = null;
@@ -829,7 +982,7 @@ public class Merlin extends CryptoBase {
                 validator = CertPathValidator.getInstance("PKIX", provider);
             }
 
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
+            PKIXParameters param = getPKIXParameters(enableRevocation);
 
             // Generate cert path
             if (foundIssuingCertChains != null && !foundIssuingCertChains.isEmpty()) {
@@ -881,12 +1034,113 @@ public class Merlin extends CryptoBase {
     public void verifyTrust(X509Certificate[] certs, boolean enableRevocation,
                             Collection<Pattern> subjectCertConstraints,
                             Collection<Pattern> issuerCertConstraints) throws WSSecurityException {
-        verifyTrust(certs, enableRevocation, subjectCertConstraints);
+        CertificateTrustCache cache = trustCache;
+        if (cache == null) {
+            verifyTrust(certs, enableRevocation, subjectCertConstraints);
+        } else {
+            if (detectStoreChanges) {
+                clearTrustCacheOnChange(cache);
+            }
+            long generation = cache.getGeneration();
+            ByteBuffer cacheKey = cache.createKey(certs, enableRevocation, subjectCertConstraints);
+            if (cache.isVerified(cacheKey)) {
+                LOG.debug(
+                    "Cached trust for certificate with {}", certs[0].getSubjectX500Principal().getName()
+                );
+            } else {
+                verifyTrust(certs, enableRevocation, subjectCertConstraints);
+                try {
+                    cache.addVerified(cacheKey, certs, enableRevocation ? getCRLNextUpdate() : null, generation);
+                } catch (CertStoreException e) {
+                    LOG.debug("The certificate chain is not cached as the CRLs cannot be retrieved", e);
+                }
+            }
+        }
         if (!matchesIssuerDnPattern(certs[0], issuerCertConstraints)) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
         }
     }
 
+    /**
+     * Clear the cache of verified certificate chains if the keystore or truststore has been
+     * modified in place since the cache was last used, e.g. if a CA certificate was removed.
+     * This is only checked if setDetectStoreChanges is enabled, setKeyStore, setTrustStore and
+     * setCRLCertStore clear the cache themselves.
+     */
+    private void clearTrustCacheOnChange(CertificateTrustCache cache) throws WSSecurityException {
+        KeyStoreIndex currentKeystoreIndex = keystore == null ? null : getIndex(keystore);
+        KeyStoreIndex currentTruststoreIndex = truststore == null ? null : getIndex(truststore);
+        if (currentKeystoreIndex != trustCacheKeystoreIndex
+            || currentTruststoreIndex != trustCacheTruststoreIndex) {
+            trustCacheKeystoreIndex = currentKeystoreIndex;
+            trustCacheTruststoreIndex = currentTruststoreIndex;
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the earliest date at which one of the CRLs used for revocation checking is
+     * to be updated, or null if there are no CRLs (with a nextUpdate date).
+     */
+    private Date getCRLNextUpdate() throws CertStoreException {
+        Date nextUpdate = null;
+        if (crlCertStore != null) {
+            for (CRL crl : crlCertStore.getCRLs(new X509CRLSelector())) {
+                if (crl instanceof X509CRL) {
+                    Date crlNextUpdate = ((X509CRL)crl).getNextUpdate();
+                    if (crlNextUpdate != null && (nextUpdate == null || crlNextUpdate.before(nextUpdate))) {
+                        nextUpdate = crlNextUpdate;
+                    }
+                }
+            }
+        }
+        return nextUpdate;
+    }
+
+    /**
+     * Get the PKIXParameters with which to validate a certificate path. The trust anchors of
+     * the keystore and truststore, and the (template) parameters created from them via
+     * createPKIXParameters, are only built once, and are then reused until the keystore,
+     * truststore or CRL CertStore changes. A keystore or truststore is considered changed if
+     * it is replaced, or, if setDetectStoreChanges is enabled, if one of its entries is added,
+     * removed or replaced in place, as detected by its KeyStoreIndex.
+     *
+     * @param enableRevocation whether to enable CRL verification or not
+     * @return a copy of the template PKIXParameters, which may be modified by the caller
+     */
+    protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+        throws KeyStoreException, WSSecurityException, InvalidAlgorithmParameterException {
+        KeyStoreIndex currentKeystoreIndex = keystore == null ? null : getIndex(keystore);
+        KeyStoreIndex currentTruststoreIndex = truststore == null ? null : getIndex(truststore);
+
+        PKIXValidationState state = pkixValidationState;
+        if (state == null
+            || !state.isStateOf(currentKeystoreIndex, currentTruststoreIndex, crlCertStore, loadCACerts)) {
+            Set<TrustAnchor> set = new HashSet<>();
+            if (truststore != null) {
+                addTrustAnchors(set, truststore);
+            }
+
+            //
+            // Add certificates from the keystore - only if there is no TrustStore, apart from
+            // the case that the truststore is the JDK CA certs. This behaviour is preserved
+            // for backwards compatibility reasons
+            //
+            if (keystore != null && (truststore == null || loadCACerts)) {
+                addTrustAnchors(set, keystore);
+            }
+            LOG.debug("Built {} trust anchors for certificate path validation", set.size());
+
+            state = new PKIXValidationState(
+                currentKeystoreIndex, currentTruststoreIndex, crlCertStore, loadCACerts,
+                createPKIXParameters(set, false), createPKIXParameters(set, true)
+            );
+            pkixValidationState = state;
+        }
+
+        return state.getParameters(enableRevocation);
+    }
+
     // Separated out to allow subclasses to override it
     protected PKIXParameters createPKIXParameters(
         Set<TrustAnchor> trustAnchors, boolean enableRevocation
@@ -986,36 +1240,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert with issuer {} and serial {}", keystore, issuerRDN, serialNumber);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    LOG.debug("Keystore alias {} has issuer {} and serial {}", alias,
-                              x509cert.getIssuerX500Principal().getName(), x509cert.getSerialNumber());
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName =
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            LOG.debug("Issuer Serial match found using keystore alias {}", alias);
-                            return certs;
-                        }
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        KeyStoreIndex.Entry entry = getIndex(store).getByIssuerSerial(issuerRDN, serialNumber);
+        if (entry != null) {
+            LOG.debug("Issuer Serial match found using keystore alias {}", entry.getAlias());
+            return entry.getCertificates();
         }
 
         LOG.debug("No issuer serial match found in {}", keystore);
@@ -1030,23 +1258,14 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha, false);
+            certs = getCertificates(thumbprint, keystore, false);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha, true);
+            certs = getCertificates(thumbprint, truststore, true);
         }
 
         if (certs == null || certs.length == 0) {
@@ -1066,7 +1285,6 @@ public class Merlin extends CryptoBase {
     private Certificate[] getCertificates(
         byte[] thumbprint,
         KeyStore store,
-        MessageDigest sha,
         boolean truststore
     ) throws WSSecurityException {
         String keystore = "keystore";
@@ -1074,39 +1292,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert using a SHA-1 thumbprint", keystore);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        LOG.debug("Thumbprint match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        KeyStoreIndex.Entry entry = getIndex(store).getByThumbprint(thumbprint);
+        if (entry != null) {
+            LOG.debug("Thumbprint match found using keystore alias {}", entry.getAlias());
+            return entry.getCertificates();
         }
 
         LOG.debug("No thumbprint match found in {}", keystore);
@@ -1122,12 +1311,12 @@ public class Merlin extends CryptoBase {
     private X509Certificate[] getX509CertificatesSKI(byte[] skiBytes) throws WSSecurityException {
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(skiBytes, keystore, false);
+            certs = getCertificatesSKI(skiBytes, keystore, false);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(skiBytes, truststore, true);
+            certs = getCertificatesSKI(skiBytes, truststore, true);
         }
 
         if (certs == null || certs.length == 0) {
@@ -1144,7 +1333,7 @@ public class Merlin extends CryptoBase {
      * @return an X509 Certificate (chain)
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(
+    private Certificate[] getCertificatesSKI(
         byte[] skiBytes,
         KeyStore store,
         boolean truststore
@@ -1154,31 +1343,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert using Subject Key Identifier bytes", keystore);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        LOG.debug("SKI match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        KeyStoreIndex.Entry entry = getIndex(store).getBySKI(skiBytes);
+        if (entry != null) {
+            LOG.debug("SKI match found using keystore alias {}", entry.getAlias());
+            return entry.getCertificates();
         }
 
         LOG.debug("No SKI match found in {}", keystore);
@@ -1289,24 +1457,12 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for public key {}", keystore, publicKey);
         try {
-            for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = keyStoreToSearch.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = keyStoreToSearch.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate
-                    && publicKey.equals(((X509Certificate)certs[0]).getPublicKey())) {
-                    LOG.debug("PublicKey match found using keystore alias {}", alias);
-                    return true;
-                }
+            KeyStoreIndex.Entry entry = getIndex(keyStoreToSearch).getByPublicKey(publicKey);
+            if (entry != null) {
+                LOG.debug("PublicKey match found using keystore alias {}", entry.getAlias());
+                return true;
             }
-        } catch (KeyStoreException e) {
+        } catch (WSSecurityException e) {
             return false;
         }
 
@@ -1329,32 +1485,11 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert with Subject {}", keystore, subjectRDN);
-        List<Certificate[]> foundCerts = new ArrayList<>();
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate)certs[0]).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        LOG.debug("Subject certificate match found using keystore alias {}", alias);
-                        foundCerts.add(certs);
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        List<KeyStoreIndex.Entry> entries = getIndex(store).getBySubject(subjectRDN);
+        List<Certificate[]> foundCerts = new ArrayList<>(entries.size());
+        for (KeyStoreIndex.Entry entry : entries) {
+            LOG.debug("Subject certificate match found using keystore alias {}", entry.getAlias());
+            foundCerts.add(entry.getCertificates());
         }
 
         if (foundCerts.isEmpty()) {
@@ -1426,52 +1561,59 @@ public class Merlin extends CryptoBase {
      */
     private String getIdentifier(X509Certificate cert, KeyStore store)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0].equals(cert)) {
-                    return alias;
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
+        KeyStoreIndex.Entry entry = getIndex(store).getByCertificate(cert);
+        if (entry != null) {
+            return entry.getAlias();
         }
         return null;
     }
 
     private String getIdentifier(PublicKey publicKey, KeyStore store)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
+        KeyStoreIndex.Entry entry = getIndex(store).getByPublicKey(publicKey);
+        if (entry != null) {
+            return entry.getAlias();
+        }
+        return null;
+    }
 
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
+    /**
+     * Create an index of the certificate entries of the given KeyStore. If the KeyStore cannot
+     * be indexed yet (e.g. as it has not been initialized), the index is created on first use.
+     */
+    private KeyStoreIndex createIndex(KeyStore store) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            return new KeyStoreIndex(store, this);
+        } catch (KeyStoreException | WSSecurityException e) {
+            LOG.debug("The KeyStore could not be indexed: " + e.getMessage(), e);
+            return null;
+        }
+    }
 
-                if (certs != null && certs.length > 0 && certs[0].getPublicKey().equals(publicKey)) {
-                    return alias;
+    /**
+     * Get the index of the certificate entries of the given KeyStore, (re)building it if the
+     * KeyStore has been replaced since the index was built, or if it has been modified in place
+     * and setDetectStoreChanges is enabled.
+     */
+    private KeyStoreIndex getIndex(KeyStore store) throws WSSecurityException {
+        boolean isKeyStore = store == keystore;
+        KeyStoreIndex index = isKeyStore ? keystoreIndex : truststoreIndex;
+        try {
+            if (index == null || !index.isFor(store) || detectStoreChanges && !index.isIndexOf(store)) {
+                index = new KeyStoreIndex(store, this);
+                if (isKeyStore) {
+                    keystoreIndex = index;
+                } else {
+                    truststoreIndex = index;
                 }
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
         }
-        return null;
+        return index;
     }
 
     /**
@@ -1519,4 +1661,51 @@ public class Merlin extends CryptoBase {
     public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
         this.passwordEncryptor = passwordEncryptor;
     }
+
+    /**
+     * The trust anchors and template PKIXParameters built from a given keystore, truststore
+     * and CRL CertStore.
+     */
+    private static final class PKIXValidationState {
+        private final KeyStoreIndex keystoreIndex;
+        private final KeyStoreIndex truststoreIndex;
+        private final CertStore crlCertStore;
+        private final boolean loadCACerts;
+        private final PKIXParameters parameters;
+        private final PKIXParameters revocationParameters;
+
+        PKIXValidationState(
+            KeyStoreIndex keystoreIndex,
+            KeyStoreIndex truststoreIndex,
+            CertStore crlCertStore,
+            boolean loadCACerts,
+            PKIXParameters parameters,
+            PKIXParameters revocationParameters
+        ) {
+            this.keystoreIndex = keystoreIndex;
+            this.truststoreIndex = truststoreIndex;
+            this.crlCertStore = crlCertStore;
+            this.loadCACerts = loadCACerts;
+            this.parameters = parameters;
+            this.revocationParameters = revocationParameters;
+        }
+
+        boolean isStateOf(
+            KeyStoreIndex currentKeystoreIndex,
+            KeyStoreIndex currentTruststoreIndex,
+            CertStore currentCrlCertStore,
+            boolean currentLoadCACerts
+        ) {
+            return keystoreIndex == currentKeystoreIndex && truststoreIndex == currentTruststoreIndex
+                && crlCertStore == currentCrlCertStore && loadCACerts == currentLoadCACerts;
+        }
+
+        PKIXParameters getParameters(boolean enableRevocation) {
+            // PKIXParameters are mutable, so hand out a (shallow) copy of the template
+            if (enableRevocation) {
+                return (PKIXParameters)revocationParameters.clone();
+            }
+            return (PKIXParameters)parameters.clone();
+        }
+    }
 }
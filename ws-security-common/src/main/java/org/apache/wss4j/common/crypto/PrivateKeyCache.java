@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded (least-recently-used) cache of the PrivateKeys recovered from a given KeyStore,
+ * so that protected keys (e.g. in PKCS12 or JCEKS KeyStores) do not have to be decrypted for
+ * every message. A key is cached under its alias and a digest of the password that was used
+ * to recover it, so a cached key is only returned for the same password.
+ *
+ * A cached key is only returned while the KeyStore entry it was recovered from still has the
+ * same certificate and creation date, so that a key which is replaced in place (e.g. via
+ * KeyStore.setKeyEntry) is recovered again.
+ */
+final class PrivateKeyCache {
+
+    private final KeyStore keyStore;
+    private final Map<CacheKey, CachedKey> cache;
+
+    PrivateKeyCache(KeyStore keyStore, final int maxEntries) {
+        this.keyStore = keyStore;
+        this.cache = new LinkedHashMap<CacheKey, CachedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedKey> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return true if this cache holds keys of the given KeyStore
+     */
+    boolean isCacheOf(KeyStore store) {
+        return keyStore == store;
+    }
+
+    PrivateKey get(String alias, String password) throws NoSuchAlgorithmException, KeyStoreException {
+        CacheKey key = new CacheKey(alias, password);
+        CachedKey cachedKey;
+        synchronized (cache) {
+            cachedKey = cache.get(key);
+        }
+        if (cachedKey == null) {
+            return null;
+        }
+        if (!cachedKey.isCurrent(keyStore.getCertificate(alias), keyStore.getCreationDate(alias))) {
+            synchronized (cache) {
+                cache.remove(key);
+            }
+            return null;
+        }
+        return cachedKey.privateKey;
+    }
+
+    void put(String alias, String password, PrivateKey privateKey)
+        throws NoSuchAlgorithmException, KeyStoreException {
+        CacheKey key = new CacheKey(alias, password);
+        CachedKey cachedKey =
+            new CachedKey(privateKey, keyStore.getCertificate(alias), keyStore.getCreationDate(alias));
+        synchronized (cache) {
+            cache.put(key, cachedKey);
+        }
+    }
+
+    private static final class CachedKey {
+        private final PrivateKey privateKey;
+        private final Certificate certificate;
+        private final Date creationDate;
+
+        CachedKey(PrivateKey privateKey, Certificate certificate, Date creationDate) {
+            this.privateKey = privateKey;
+            this.certificate = certificate;
+            this.creationDate = creationDate;
+        }
+
+        boolean isCurrent(Certificate currentCertificate, Date currentCreationDate) {
+            return Objects.equals(certificate, currentCertificate) && Objects.equals(creationDate, currentCreationDate);
+        }
+    }
+
+    private static final class CacheKey {
+        private final String alias;
+        private final byte[] passwordDigest;
+
+        CacheKey(String alias, String password) throws NoSuchAlgorithmException {
+            this.alias = alias;
+            MessageDigest digest = JCAInstancePool.getMessageDigest("SHA-256");
+            try {
+                if (password != null) {
+                    digest.update(password.getBytes(StandardCharsets.UTF_8));
+                }
+                this.passwordDigest = digest.digest();
+            } finally {
+                JCAInstancePool.release(digest);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * alias.hashCode() + Arrays.hashCode(passwordDigest);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey)obj;
+            return alias.equals(other.alias) && MessageDigest.isEqual(passwordDigest, other.passwordDigest);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Merlin implementation that watches the configured keystore, truststore and CRL files, and
+ * reloads them when they change, without requiring the Crypto instance to be recreated (for
+ * example a Crypto instance that is cached by WSHandler).
+ *
+ * The keystore, truststore and CRLs are loaded into a separate Merlin "snapshot", which is fully
+ * built (including its certificate indexes and trust anchors) on a background thread, and then
+ * atomically swapped in. Each call on this Crypto instance runs against a single snapshot, and
+ * callers that need several calls to see the same key material can obtain it via getSnapshot().
+ * If a changed file cannot be loaded, the current snapshot is kept and the load is retried at the
+ * next check.
+ *
+ * The files are checked for changes every "org.apache.wss4j.crypto.merlin.reload.interval"
+ * seconds (60 by default). Files that are not on the file system (e.g. loaded from a jar)
+ * are not watched. The configuration that is set programmatically (including keystores and CRL
+ * stores) is applied to every new snapshot, and takes precedence over the files. The watcher
+ * thread is stopped by calling close().
+ */
+public class ReloadingMerlin extends Merlin implements Closeable {
+
+    public static final String RELOAD_INTERVAL = "reload.interval";
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReloadingMerlin.class);
+    private static final long DEFAULT_RELOAD_INTERVAL = 60L;
+
+    private volatile Merlin snapshot;
+    private ClassLoader loader;
+    private List<File> watchedFiles = Collections.emptyList();
+    private long[] lastModified = new long[0];
+    private ScheduledExecutorService reloadExecutor;
+
+    // The configuration that was set programmatically, which is applied to each new snapshot
+    private KeyStore configuredKeyStore;
+    private KeyStore configuredTrustStore;
+    private CertStore configuredCRLCertStore;
+    private Integer configuredPrivateKeyCacheSize;
+    private Boolean configuredDetectStoreChanges;
+    private String configuredCryptoProvider;
+    private String configuredTrustProvider;
+    private String configuredDefaultX509Identifier;
+    private CertificateFactory configuredCertificateFactory;
+
+    public ReloadingMerlin(Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor)
+        throws WSSecurityException, IOException {
+        super();
+        loadProperties(properties, loader, passwordEncryptor);
+    }
+
+    @Override
+    public synchronized void loadProperties(
+        Properties properties,
+        ClassLoader loader,
+        PasswordEncryptor passwordEncryptor
+    ) throws WSSecurityException, IOException {
+        if (properties == null) {
+            return;
+        }
+        this.properties = properties;
+        this.loader = loader;
+        this.passwordEncryptor = passwordEncryptor;
+
+        String prefix = PREFIX;
+        for (Object key : properties.keySet()) {
+            if (key instanceof String && ((String)key).startsWith(OLD_PREFIX)) {
+                prefix = OLD_PREFIX;
+                break;
+            }
+        }
+
+        watchedFiles = getWatchedFiles(properties, prefix, loader);
+        lastModified = getLastModified(watchedFiles);
+        snapshot = createSnapshot();
+
+        long interval = DEFAULT_RELOAD_INTERVAL;
+        String reloadInterval = properties.getProperty(prefix + RELOAD_INTERVAL);
+        if (reloadInterval != null) {
+            try {
+                interval = Long.parseLong(reloadInterval.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+            }
+        }
+
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
+        }
+        if (!watchedFiles.isEmpty() && interval > 0) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "wss4j-merlin-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reloadExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    reloadIfModified();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            LOG.debug("Watching {} for changes every {} seconds", watchedFiles, interval);
+        }
+    }
+
+    /**
+     * Reload the keystore, truststore and CRLs if any of the watched files has changed since
+     * they were last loaded.
+     * @return true if a new snapshot was loaded
+     */
+    public synchronized boolean reloadIfModified() {
+        long[] currentLastModified = getLastModified(watchedFiles);
+        for (int i = 0; i < currentLastModified.length; i++) {
+            if (currentLastModified[i] != lastModified[i]) {
+                try {
+                    snapshot = createSnapshot();
+                    lastModified = currentLastModified;
+                    LOG.info("Reloaded the keystore, truststore and CRLs after a change to {}",
+                             watchedFiles.get(i));
+                    return true;
+                } catch (WSSecurityException | IOException | RuntimeException e) {
+                    LOG.warn("The changed keystore, truststore or CRL files could not be loaded, "
+                             + "the previous ones are still in use: " + e.getMessage(), e);
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop watching the keystore, truststore and CRL files for changes
+     */
+    @Override
+    public synchronized void close() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
+        }
+    }
+
+    /**
+     * Get the Merlin instance holding the key material that is currently in use. It is not
+     * affected by subsequent reloads.
+     * @return the current snapshot
+     */
+    public Merlin getSnapshot() {
+        return snapshot;
+    }
+
+    private Merlin createSnapshot() throws WSSecurityException, IOException {
+        Merlin newSnapshot = new Merlin(properties, loader, passwordEncryptor);
+        // Apply any configuration that was set programmatically
+        if (configuredCryptoProvider != null) {
+            newSnapshot.setCryptoProvider(configuredCryptoProvider);
+        }
+        if (configuredTrustProvider != null) {
+            newSnapshot.setTrustProvider(configuredTrustProvider);
+        }
+        if (configuredCertificateFactory != null) {
+            newSnapshot.setCertificateFactory(configuredCertificateFactory);
+        }
+        if (configuredDefaultX509Identifier != null) {
+            newSnapshot.setDefaultX509Identifier(configuredDefaultX509Identifier);
+        }
+        if (configuredPrivateKeyCacheSize != null) {
+            newSnapshot.setPrivateKeyCacheSize(configuredPrivateKeyCacheSize);
+        }
+        if (configuredDetectStoreChanges != null) {
+            newSnapshot.setDetectStoreChanges(configuredDetectStoreChanges);
+        }
+        if (configuredKeyStore != null) {
+            newSnapshot.setKeyStore(configuredKeyStore);
+        }
+        if (configuredTrustStore != null) {
+            newSnapshot.setTrustStore(configuredTrustStore);
+        }
+        if (configuredCRLCertStore != null) {
+            newSnapshot.setCRLCertStore(configuredCRLCertStore);
+        }
+        Merlin oldSnapshot = snapshot;
+        if (oldSnapshot != null) {
+            CertificateTrustCache trustCache = oldSnapshot.getCertificateTrustCache();
+            if (trustCache != null && newSnapshot.getCertificateTrustCache() == null) {
+                trustCache.clear();
+                newSnapshot.setCertificateTrustCache(trustCache);
+            }
+        }
+
+        // Build the trust anchors up front, so that the first request does not have to
+        try {
+            newSnapshot.getPKIXParameters(false);
+        } catch (Exception e) {
+            LOG.debug("The trust anchors could not be built: " + e.getMessage(), e);
+        }
+        return newSnapshot;
+    }
+
+    private static List<File> getWatchedFiles(Properties properties, String prefix, ClassLoader loader) {
+        List<String> locations = new ArrayList<>();
+        String keyStoreLocation = properties.getProperty(prefix + KEYSTORE_FILE);
+        if (keyStoreLocation == null) {
+            keyStoreLocation = properties.getProperty(prefix + OLD_KEYSTORE_FILE);
+        }
+        if (keyStoreLocation != null) {
+            locations.add(keyStoreLocation.trim());
+        }
+        String trustStoreLocation = properties.getProperty(prefix + TRUSTSTORE_FILE);
+        if (trustStoreLocation != null) {
+            locations.add(trustStoreLocation.trim());
+        }
+        String crlLocations = properties.getProperty(prefix + X509_CRL_FILE);
+        if (crlLocations != null) {
+            for (String crlLocation : crlLocations.split(",")) {
+                locations.add(crlLocation.trim());
+            }
+        }
+
+        List<File> files = new ArrayList<>(locations.size());
+        for (String location : locations) {
+            File file = getFile(location, loader);
+            if (file == null) {
+                LOG.debug("{} is not a file on the file system and will not be watched for changes", location);
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Resolve a location to a File in the same order as Loader.loadInputStream
+     */
+    private static File getFile(String location, ClassLoader loader) {
+        URL url = null;
+        try {
+            url = new URL(location);
+        } catch (MalformedURLException ex) { //NOPMD
+            // skip
+        }
+        if (url == null) {
+            url = Loader.getResource(loader, location);
+        }
+        if (url != null) {
+            if (!"file".equals(url.getProtocol())) {
+                return null;
+            }
+            try {
+                return new File(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        File file = new File(location);
+        return file.exists() ? file : null;
+    }
+
+    private static long[] getLastModified(List<File> files) {
+        long[] lastModified = new long[files.size()];
+        for (int i = 0; i < lastModified.length; i++) {
+            File file = files.get(i);
+            // Include the length to pick up changes within the file system timestamp resolution
+            lastModified[i] = 31 * file.lastModified() + file.length();
+        }
+        return lastModified;
+    }
+
+    //
+    // Delegate everything to the current snapshot
+    //
+
+    @Override
+    public KeyStore getKeyStore() {
+        return snapshot.getKeyStore();
+    }
+
+    @Override
+    public synchronized void setKeyStore(KeyStore keyStore) {
+        configuredKeyStore = keyStore;
+        snapshot.setKeyStore(keyStore);
+    }
+
+    @Override
+    public KeyStore getTrustStore() {
+        return snapshot.getTrustStore();
+    }
+
+    @Override
+    public synchronized void setTrustStore(KeyStore trustStore) {
+        configuredTrustStore = trustStore;
+        snapshot.setTrustStore(trustStore);
+    }
+
+    @Override
+    public synchronized void setCRLCertStore(CertStore crlCertStore) {
+        configuredCRLCertStore = crlCertStore;
+        snapshot.setCRLCertStore(crlCertStore);
+    }
+
+    @Override
+    public CertStore getCRLCertStore() {
+        return snapshot.getCRLCertStore();
+    }
+
+    @Override
+    public void setCertificateTrustCache(CertificateTrustCache trustCache) {
+        snapshot.setCertificateTrustCache(trustCache);
+    }
+
+    @Override
+    public CertificateTrustCache getCertificateTrustCache() {
+        return snapshot.getCertificateTrustCache();
+    }
+
+    @Override
+    public synchronized void setPrivateKeyCacheSize(int privateKeyCacheSize) {
+        configuredPrivateKeyCacheSize = privateKeyCacheSize;
+        snapshot.setPrivateKeyCacheSize(privateKeyCacheSize);
+    }
+
+    @Override
+    public synchronized void setDetectStoreChanges(boolean detectStoreChanges) {
+        configuredDetectStoreChanges = detectStoreChanges;
+        snapshot.setDetectStoreChanges(detectStoreChanges);
+    }
+
+    @Override
+    public boolean isDetectStoreChanges() {
+        return snapshot.isDetectStoreChanges();
+    }
+
+    @Override
+    public synchronized void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
+        this.passwordEncryptor = passwordEncryptor;
+        snapshot.setPasswordEncryptor(passwordEncryptor);
+    }
+
+    @Override
+    public String getCryptoProvider() {
+        return snapshot.getCryptoProvider();
+    }
+
+    @Override
+    public synchronized void setCryptoProvider(String provider) {
+        configuredCryptoProvider = provider;
+        snapshot.setCryptoProvider(provider);
+    }
+
+    @Override
+    public String getTrustProvider() {
+        return snapshot.getTrustProvider();
+    }
+
+    @Override
+    public synchronized void setTrustProvider(String provider) {
+        configuredTrustProvider = provider;
+        snapshot.setTrustProvider(provider);
+    }
+
+    @Override
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return snapshot.getDefaultX509Identifier();
+    }
+
+    @Override
+    public synchronized void setDefaultX509Identifier(String identifier) {
+        configuredDefaultX509Identifier = identifier;
+        snapshot.setDefaultX509Identifier(identifier);
+    }
+
+    @Override
+    public synchronized void setCertificateFactory(CertificateFactory certFactory) {
+        configuredCertificateFactory = certFactory;
+        snapshot.setCertificateFactory(certFactory);
+    }
+
+    @Override
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return snapshot.getCertificateFactory();
+    }
+
+    @Override
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return snapshot.getX509Certificates(cryptoType);
+    }
+
+    @Override
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return snapshot.getX509Identifier(cert);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(X509Certificate certificate, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return snapshot.getPrivateKey(certificate, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(PublicKey publicKey, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return snapshot.getPrivateKey(publicKey, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String identifier, String password) throws WSSecurityException {
+        return snapshot.getPrivateKey(identifier, password);
+    }
+
+    @Override
+    protected void verifyTrust(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        snapshot.verifyTrust(certs, enableRevocation, subjectCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(X509Certificate[] certs, boolean enableRevocation,
+                            Collection<Pattern> subjectCertConstraints,
+                            Collection<Pattern> issuerCertConstraints) throws WSSecurityException {
+        snapshot.verifyTrust(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        snapshot.verifyTrust(publicKey);
+    }
+}
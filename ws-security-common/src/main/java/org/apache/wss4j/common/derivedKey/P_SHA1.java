@@ -43,6 +43,7 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.DestroyFailedException;
 
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSSecurityException;
 
 import java.security.InvalidKeyException;
@@ -57,8 +58,9 @@ public class P_SHA1 implements DerivationAlgorithm {
     public byte[] createKey(byte[] secret, byte[] seed, int offset, long length)
             throws WSSecurityException {
 
+        Mac mac = null;
         try {
-            Mac mac = Mac.getInstance("HmacSHA1");
+            mac = JCAInstancePool.getMac("HmacSHA1");
 
             byte[] tempBytes = pHash(secret, seed, mac, offset + (int) length);
 
@@ -69,6 +71,8 @@ public class P_SHA1 implements DerivationAlgorithm {
             return key;
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "errorInKeyDerivation");
+        } finally {
+            JCAInstancePool.release(mac);
         }
     }
 
@@ -19,6 +19,7 @@
 
 package org.apache.wss4j.common.util;
 
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.encryption.XMLCipher;
@@ -44,11 +45,6 @@ public final class KeyUtils {
 
     public static final String RSA_ECB_OAEPWITH_SHA1_AND_MGF1_PADDING = "RSA/ECB/OAEPWithSHA1AndMGF1Padding";
 
-    /**
-     * A cached MessageDigest object
-     */
-    private static MessageDigest digest;
-
     static {
         DEFAULT_DERIVED_KEY_LENGTHS.put(XMLSignature.ALGO_ID_MAC_HMAC_NOT_RECOMMENDED_MD5, 128);
         DEFAULT_DERIVED_KEY_LENGTHS.put(XMLSignature.ALGO_ID_MAC_HMAC_RIPEMD160, 160);
@@ -124,7 +120,7 @@ public final class KeyUtils {
             if (keyAlgorithm == null || "".equals(keyAlgorithm)) {
                 keyAlgorithm = JCEMapper.translateURItoJCEID(algorithm);
             }
-            KeyGenerator keyGen = KeyGenerator.getInstance(keyAlgorithm);
+            KeyGenerator keyGen = JCAInstancePool.getKeyGenerator(keyAlgorithm);
             if (algorithm.equalsIgnoreCase(XMLCipher.AES_128)
                 || algorithm.equalsIgnoreCase(XMLCipher.AES_128_GCM)) {
                 keyGen.init(128);
@@ -146,6 +142,8 @@ public final class KeyUtils {
     /**
      * Translate the "cipherAlgo" URI to a JCE ID, and return a javax.crypto.Cipher instance
      * of this type.
+     * The Cipher is obtained from the JCAInstancePool, and may be handed back to it with
+     * JCAInstancePool.release(Cipher) once it is no longer used.
      * @param cipherAlgo The cipher in it's WSS URI form,
      *                   ref. https://www.w3.org/TR/xmlenc-core1/#sec-Algorithms
      */
@@ -177,21 +175,13 @@ public final class KeyUtils {
         }
 
         try {
-            if (provider == null) {
-                return Cipher.getInstance(keyAlgorithm);
-            } else {
-                return Cipher.getInstance(keyAlgorithm, provider);
-            }
+            return JCAInstancePool.getCipher(keyAlgorithm, provider);
         } catch (NoSuchPaddingException | NoSuchAlgorithmException e) {
             if (XMLCipher.RSA_OAEP.equals(cipherAlgo)) {
                 // Check to see if an RSA OAEP MGF-1 with SHA-1 algorithm was requested
                 // Some JCE implementations don't support RSA/ECB/OAEPPadding (e.g. nCipherKM of Thales)
                 try {
-                    if (provider == null) {
-                        return Cipher.getInstance(RSA_ECB_OAEPWITH_SHA1_AND_MGF1_PADDING);
-                    } else {
-                        return Cipher.getInstance(RSA_ECB_OAEPWITH_SHA1_AND_MGF1_PADDING, provider);
-                    }
+                    return JCAInstancePool.getCipher(RSA_ECB_OAEPWITH_SHA1_AND_MGF1_PADDING, provider);
                 } catch (NoSuchProviderException ex1) {
                     throw new WSSecurityException(
                         WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex1, "unsupportedKeyTransp",
@@ -228,21 +218,22 @@ public final class KeyUtils {
 
     /**
      * Generate a (SHA1) digest of the input bytes. The MessageDigest instance that backs this
-     * method is cached for efficiency.
+     * method is pooled for efficiency.
      * @param inputBytes the bytes to digest
      * @return the digest of the input bytes
      * @throws WSSecurityException
      */
-    public static synchronized byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
+    public static byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
+        MessageDigest digest = null;
         try {
-            if (digest == null) {
-                digest = MessageDigest.getInstance("SHA-1");
-            }
+            digest = JCAInstancePool.getMessageDigest("SHA-1");
             return digest.digest(inputBytes);
         } catch (Exception e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
                                           new Object[] {"Error in generating digest"}
             );
+        } finally {
+            JCAInstancePool.release(digest);
         }
     }
 }
@@ -28,6 +28,7 @@ import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
@@ -64,28 +65,30 @@ public final class UsernameTokenUtil {
 
         MessageDigest sha = null;
         try {
-            sha = MessageDigest.getInstance("SHA1");
+            sha = JCAInstancePool.getMessageDigest("SHA1");
+            //
+            // Make the first hash round with start value
+            //
+            byte[] k = sha.digest(pwSalt);
+            //
+            // Perform the 1st up to iteration-1 hash rounds
+            //
+            int iter = iteration;
+            if (iter <= 0) {
+                iter = DEFAULT_ITERATION;
+            }
+            for (int i = 1; i < iter; i++) {
+                k = sha.digest(k);
+            }
+            return k;
         } catch (NoSuchAlgorithmException e) {
             LOG.debug(e.getMessage(), e);
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
             );
+        } finally {
+            JCAInstancePool.release(sha);
         }
-        //
-        // Make the first hash round with start value
-        //
-        byte[] k = sha.digest(pwSalt);
-        //
-        // Perform the 1st up to iteration-1 hash rounds
-        //
-        int iter = iteration;
-        if (iter <= 0) {
-            iter = DEFAULT_ITERATION;
-        }
-        for (int i = 1; i < iter; i++) {
-            k = sha.digest(k);
-        }
-        return k;
     }
 
     /**
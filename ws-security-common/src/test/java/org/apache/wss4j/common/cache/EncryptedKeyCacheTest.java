@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some unit tests for the EncryptedKeyCache
+ */
+public class EncryptedKeyCacheTest {
+
+    private static final String CONTEXT = "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p|key";
+
+    @Test
+    public void testGetAndPut() throws Exception {
+        try (EncryptedKeyCache cache = new EncryptedKeyCache()) {
+            byte[] encryptedKey = "encrypted-key".getBytes(StandardCharsets.UTF_8);
+            byte[] secretKey = new byte[] {1, 2, 3, 4};
+
+            assertNull(cache.get(encryptedKey, CONTEXT));
+            cache.put(encryptedKey, CONTEXT, secretKey);
+            assertEquals(1, cache.size());
+            assertArrayEquals(secretKey, cache.get(encryptedKey, CONTEXT));
+
+            // A key is only returned for the context it was unwrapped in
+            assertNull(cache.get(encryptedKey, "other-context"));
+            assertNull(cache.get("other-key".getBytes(StandardCharsets.UTF_8), CONTEXT));
+        }
+    }
+
+    @Test
+    public void testCopies() throws Exception {
+        try (EncryptedKeyCache cache = new EncryptedKeyCache()) {
+            byte[] encryptedKey = "encrypted-key".getBytes(StandardCharsets.UTF_8);
+            byte[] secretKey = new byte[] {1, 2, 3, 4};
+
+            cache.put(encryptedKey, CONTEXT, secretKey);
+            secretKey[0] = 0;
+            byte[] cachedKey = cache.get(encryptedKey, CONTEXT);
+            assertArrayEquals(new byte[] {1, 2, 3, 4}, cachedKey);
+
+            cachedKey[1] = 0;
+            assertArrayEquals(new byte[] {1, 2, 3, 4}, cache.get(encryptedKey, CONTEXT));
+        }
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        try (EncryptedKeyCache cache = new EncryptedKeyCache(2, EncryptedKeyCache.DEFAULT_TTL)) {
+            byte[] secretKey = new byte[] {1, 2, 3, 4};
+            cache.put(new byte[] {1}, CONTEXT, secretKey);
+            cache.put(new byte[] {2}, CONTEXT, secretKey);
+            cache.put(new byte[] {3}, CONTEXT, secretKey);
+
+            assertEquals(2, cache.size());
+            // The oldest entry is evicted
+            assertNull(cache.get(new byte[] {1}, CONTEXT));
+            assertArrayEquals(secretKey, cache.get(new byte[] {2}, CONTEXT));
+            assertArrayEquals(secretKey, cache.get(new byte[] {3}, CONTEXT));
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        try (EncryptedKeyCache cache = new EncryptedKeyCache(10, 1L)) {
+            byte[] encryptedKey = "encrypted-key".getBytes(StandardCharsets.UTF_8);
+            cache.put(encryptedKey, CONTEXT, new byte[] {1, 2, 3, 4});
+            assertEquals(1, cache.size());
+
+            Thread.sleep(1250L);
+
+            assertNull(cache.get(encryptedKey, CONTEXT));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache();
+        byte[] encryptedKey = "encrypted-key".getBytes(StandardCharsets.UTF_8);
+        cache.put(encryptedKey, CONTEXT, new byte[] {1, 2, 3, 4});
+        cache.close();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(encryptedKey, CONTEXT));
+    }
+
+    @Test
+    public void testInvalidConfiguration() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedKeyCache(0, EncryptedKeyCache.DEFAULT_TTL));
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedKeyCache(10, 0L));
+        assertThrows(IllegalArgumentException.class,
+            () -> new EncryptedKeyCache(10, EncryptedKeyCache.MAX_TTL + 1L));
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some unit tests for the EncryptedKeySessionCache
+ */
+public class EncryptedKeySessionCacheTest {
+
+    private static final String KEY_TRANSPORT = "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p";
+    private static final String AES_128 = "http://www.w3.org/2001/04/xmlenc#aes128-cbc";
+    private static final String AES_256 = "http://www.w3.org/2001/04/xmlenc#aes256-cbc";
+
+    private static final byte[] SECRET_KEY = new byte[] {1, 2, 3, 4};
+    private static final byte[] ENCRYPTED_KEY = new byte[] {5, 6, 7, 8};
+
+    @Test
+    public void testSession() throws Exception {
+        String context = getContext();
+        try (EncryptedKeySessionCache cache = new EncryptedKeySessionCache()) {
+            assertNull(cache.getSessionKey(context, AES_128));
+            cache.putSession(context, AES_128, SECRET_KEY, ENCRYPTED_KEY);
+            assertEquals(1, cache.size());
+
+            byte[] sessionKey = cache.getSessionKey(context, AES_128);
+            assertArrayEquals(SECRET_KEY, sessionKey);
+            assertArrayEquals(ENCRYPTED_KEY, cache.getEncryptedKey(context, sessionKey));
+
+            // The session is bound to the symmetric algorithm and the key
+            assertNull(cache.getSessionKey(context, AES_256));
+            assertNull(cache.getEncryptedKey(context, new byte[] {1, 2, 3, 5}));
+            assertNull(cache.getSessionKey(getContext(), AES_128));
+        }
+    }
+
+    @Test
+    public void testMaxMessages() throws Exception {
+        String context = getContext();
+        try (EncryptedKeySessionCache cache = new EncryptedKeySessionCache(3, EncryptedKeySessionCache.DEFAULT_TTL)) {
+            cache.putSession(context, AES_128, SECRET_KEY, ENCRYPTED_KEY);
+            assertNotNull(cache.getSessionKey(context, AES_128));
+            assertNotNull(cache.getSessionKey(context, AES_128));
+            // The key has been used for three messages
+            assertNull(cache.getSessionKey(context, AES_128));
+            // The EncryptedKey of the last message is still available
+            assertArrayEquals(ENCRYPTED_KEY, cache.getEncryptedKey(context, SECRET_KEY));
+
+            byte[] newSecretKey = new byte[] {9, 10, 11, 12};
+            cache.putSession(context, AES_128, newSecretKey, ENCRYPTED_KEY);
+            assertArrayEquals(newSecretKey, cache.getSessionKey(context, AES_128));
+            assertNull(cache.getEncryptedKey(context, SECRET_KEY));
+        }
+    }
+
+    @Test
+    public void testCurrentSessionNotReplaced() throws Exception {
+        String context = getContext();
+        try (EncryptedKeySessionCache cache = new EncryptedKeySessionCache(2, EncryptedKeySessionCache.DEFAULT_TTL)) {
+            cache.putSession(context, AES_128, SECRET_KEY, ENCRYPTED_KEY);
+            assertNotNull(cache.getSessionKey(context, AES_128));
+            assertNull(cache.getSessionKey(context, AES_128));
+
+            // Two threads rekey concurrently, only the first new key starts a session
+            byte[] newSecretKey = new byte[] {9, 10, 11, 12};
+            cache.putSession(context, AES_128, newSecretKey, ENCRYPTED_KEY);
+            cache.putSession(context, AES_128, new byte[] {13, 14, 15, 16}, ENCRYPTED_KEY);
+            assertArrayEquals(newSecretKey, cache.getSessionKey(context, AES_128));
+            assertArrayEquals(ENCRYPTED_KEY, cache.getEncryptedKey(context, newSecretKey));
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        String context = getContext();
+        try (EncryptedKeySessionCache cache = new EncryptedKeySessionCache(10, 1L)) {
+            cache.putSession(context, AES_128, SECRET_KEY, ENCRYPTED_KEY);
+            assertNotNull(cache.getSessionKey(context, AES_128));
+
+            Thread.sleep(1250L);
+
+            assertNull(cache.getSessionKey(context, AES_128));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        String context = getContext();
+        EncryptedKeySessionCache cache = new EncryptedKeySessionCache();
+        cache.putSession(context, AES_128, SECRET_KEY, ENCRYPTED_KEY);
+        cache.close();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.getSessionKey(context, AES_128));
+    }
+
+    @Test
+    public void testContext() throws Exception {
+        KeyPair keyPair = getKeyPair();
+        String context = EncryptedKeySessionCache.getContext(keyPair.getPublic(), KEY_TRANSPORT, null, null, null);
+        assertEquals(context,
+                     EncryptedKeySessionCache.getContext(keyPair.getPublic(), KEY_TRANSPORT, null, null, null));
+        assertNotEquals(context,
+                        EncryptedKeySessionCache.getContext(keyPair.getPublic(), KEY_TRANSPORT, null, null,
+                                                            new byte[] {1}));
+        // Empty OAEP parameters are the default
+        assertEquals(context,
+                     EncryptedKeySessionCache.getContext(keyPair.getPublic(), KEY_TRANSPORT, null, null,
+                                                         new byte[0]));
+        assertNull(EncryptedKeySessionCache.getContext(null, KEY_TRANSPORT, null, null, null));
+    }
+
+    private static String getContext() throws Exception {
+        return EncryptedKeySessionCache.getContext(getKeyPair().getPublic(), KEY_TRANSPORT, null, null, null);
+    }
+
+    private static KeyPair getKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+}
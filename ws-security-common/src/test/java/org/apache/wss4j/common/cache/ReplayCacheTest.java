@@ -19,15 +19,29 @@
 
 package org.apache.wss4j.common.cache;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 /**
  * Some unit tests for the ReplayCache implementations
@@ -43,6 +57,172 @@ public class ReplayCacheTest {
         replayCache.close();
     }
 
+    @Test
+    public void testHashedReplayCache() throws InterruptedException, IOException {
+        ReplayCache replayCache = new HashedReplayCache();
+
+        testReplayCacheInstance(replayCache);
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testHashedReplayCacheOverflow() throws Exception {
+        // Each of the 16 segments holds 10 identifiers
+        HashedReplayCache replayCache = new HashedReplayCache(160, HashedReplayCache.OverflowPolicy.REJECT);
+        List<String> ids = new ArrayList<>();
+        int added = 0;
+        for (int i = 0; i < 1024; i++) {
+            String id = UUID.randomUUID().toString();
+            if (replayCache.addIfAbsent(id)) {
+                ids.add(id);
+                added++;
+            }
+        }
+        assertEquals(160, added);
+        assertEquals(1024 - 160, replayCache.getOverflowCount());
+        // Stored identifiers are never dropped under the REJECT policy
+        for (String id : ids) {
+            assertTrue(replayCache.contains(id));
+        }
+
+        replayCache = new HashedReplayCache(160, HashedReplayCache.OverflowPolicy.EVICT);
+        for (int i = 0; i < 1024; i++) {
+            assertTrue(replayCache.addIfAbsent(UUID.randomUUID().toString()));
+        }
+        assertTrue(replayCache.getOverflowCount() > 0);
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.contains(id));
+    }
+
+    @Test
+    public void testHashedReplayCacheBelowCapacity() throws Exception {
+        // Fresh identifiers are not rejected while the cache is not full, even if the window of
+        // slots of an identifier is taken
+        HashedReplayCache replayCache = new HashedReplayCache(4096, HashedReplayCache.OverflowPolicy.REJECT);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3200; i++) {
+            String id = UUID.randomUUID().toString();
+            assertTrue(replayCache.addIfAbsent(id));
+            ids.add(id);
+        }
+        assertEquals(0, replayCache.getOverflowCount());
+        for (String id : ids) {
+            assertTrue(replayCache.contains(id));
+            assertFalse(replayCache.addIfAbsent(id));
+        }
+
+        // Expired identifiers no longer count towards the capacity
+        replayCache = new HashedReplayCache(160, HashedReplayCache.OverflowPolicy.REJECT);
+        int added = 0;
+        for (int i = 0; i < 1024; i++) {
+            if (replayCache.addIfAbsent(UUID.randomUUID().toString(), Instant.now().plusSeconds(1L))) {
+                added++;
+            }
+        }
+        assertEquals(160, added);
+        Thread.sleep(1250L);
+        added = 0;
+        for (int i = 0; i < 1024; i++) {
+            if (replayCache.addIfAbsent(UUID.randomUUID().toString())) {
+                added++;
+            }
+        }
+        assertEquals(160, added);
+        assertEquals(2 * (1024 - 160), replayCache.getOverflowCount());
+    }
+
+    @Test
+    public void testHashedReplayCacheFactory() throws Exception {
+        ReplayCacheFactory factory = new HashedReplayCacheFactory(1024, HashedReplayCache.OverflowPolicy.EVICT);
+        HashedReplayCache replayCache = (HashedReplayCache)factory.newReplayCache("xyz", null);
+        assertEquals(HashedReplayCache.OverflowPolicy.EVICT, replayCache.getOverflowPolicy());
+
+        replayCache = (HashedReplayCache)factory.newReplayCache("xyz", HashedReplayCache.OverflowPolicy.REJECT);
+        assertEquals(HashedReplayCache.OverflowPolicy.REJECT, replayCache.getOverflowPolicy());
+    }
+
+    @Test
+    public void testMappedFileReplayCache() throws Exception {
+        File file = File.createTempFile("replay", ".cache");
+        file.deleteOnExit();
+        ReplayCache replayCache = new MappedFileReplayCache(file);
+
+        testReplayCacheInstance(replayCache);
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testMappedFileReplayCacheRestart() throws Exception {
+        File file = File.createTempFile("replay", ".cache");
+        file.deleteOnExit();
+        String id = UUID.randomUUID().toString();
+        String expiredId = UUID.randomUUID().toString();
+
+        ReplayCache replayCache = new MappedFileReplayCache(file);
+        assertTrue(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.addIfAbsent(expiredId, Instant.now().plusSeconds(1L)));
+        replayCache.close();
+
+        // The identifiers survive in the file
+        replayCache = new MappedFileReplayCache(file);
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.addIfAbsent(id));
+        Thread.sleep(1250L);
+        assertFalse(replayCache.contains(expiredId));
+        replayCache.close();
+
+        // A file of a different capacity is not reinitialised
+        try {
+            new MappedFileReplayCache(file, 1024, HashedReplayCache.OverflowPolicy.REJECT);
+            fail("Failure expected on a capacity mismatch");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("slots"));
+        }
+        replayCache = new MappedFileReplayCache(file);
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
+    }
+
+    @Test
+    public void testMappedFileReplayCacheFactory() throws Exception {
+        File directory = Files.createTempDirectory("replay").toFile();
+        directory.deleteOnExit();
+        ReplayCacheFactory factory =
+            new MappedFileReplayCacheFactory(directory, 1024, HashedReplayCache.OverflowPolicy.REJECT);
+        MappedFileReplayCache replayCache = (MappedFileReplayCache)factory.newReplayCache("xyz", null);
+        replayCache.getFile().deleteOnExit();
+
+        // The open cache of a key is returned, rather than failing on the lock of the file
+        assertSame(replayCache, factory.newReplayCache("xyz", null));
+        assertSame(replayCache, factory.newReplayCache("xyz", directory.getPath()));
+
+        replayCache.close();
+        MappedFileReplayCache reopened = (MappedFileReplayCache)factory.newReplayCache("xyz", null);
+        assertNotSame(replayCache, reopened);
+        reopened.close();
+    }
+
+    @Test
+    public void testMappedFileReplayCacheLocked() throws Exception {
+        File file = File.createTempFile("replay", ".cache");
+        file.deleteOnExit();
+        MappedFileReplayCache replayCache = new MappedFileReplayCache(file);
+        try {
+            new MappedFileReplayCache(file);
+            fail("Failure expected as the file is in use");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("in use"));
+        }
+        replayCache.close();
+
+        // The lock is released when the cache is closed
+        replayCache = new MappedFileReplayCache(file);
+        replayCache.close();
+    }
+
     @Test
     public void testEhCacheReplayCache() throws InterruptedException, IOException {
         ReplayCache replayCache = new EHCacheReplayCache("xyz", (URL)null);
@@ -70,5 +250,52 @@ public class ReplayCacheTest {
         Thread.sleep(1250L);
         assertFalse(replayCache.contains(id));
 
+        // Test atomic check-and-add
+        id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertFalse(replayCache.addIfAbsent(id));
+        assertFalse(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+        assertTrue(replayCache.contains(id));
+
+        // An expired identifier can be added again
+        id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(1L)));
+        Thread.sleep(2250L);
+        assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+        assertTrue(replayCache.contains(id));
+    }
+
+    @Test
+    public void testMemoryReplayCacheConcurrentAddIfAbsent() throws Exception {
+        final ReplayCache replayCache = new MemoryReplayCache();
+        final String id = UUID.randomUUID().toString();
+        final AtomicInteger added = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < 1000; j++) {
+                        replayCache.addIfAbsent(UUID.randomUUID().toString());
+                        if (replayCache.addIfAbsent(id)) {
+                            added.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(1, added.get());
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests for caching the result of certificate path validation in Merlin.
+ */
+public class CertificateTrustCacheTest {
+
+    @Test
+    public void testCachedVerification() throws Exception {
+        Merlin crypto = loadCrypto("60");
+        CertificateTrustCache cache = crypto.getCertificateTrustCache();
+        assertNotNull(cache);
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // The revocation flag and the constraints are part of the cache key
+        crypto.verifyTrust(certs, true, null, null);
+        crypto.verifyTrust(certs, true, null, null);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        Pattern pattern = Pattern.compile(".*CN=Colm.*");
+        crypto.verifyTrust(certs, false, Collections.singletonList(pattern), null);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.size());
+
+        // The issuer constraints must still be applied to a cached chain
+        Pattern issuerPattern = Pattern.compile(".*CN=Unknown.*");
+        try {
+            crypto.verifyTrust(certs, false, null, Collections.singletonList(issuerPattern));
+            fail("Failure expected on a non-matching issuer constraint");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION, ex.getErrorCode());
+        }
+
+        // Changing the trust material clears the cache
+        crypto.setTrustStore(crypto.getTrustStore());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFailedVerificationNotCached() throws Exception {
+        Merlin crypto = loadCrypto("60");
+        CertificateTrustCache cache = crypto.getCertificateTrustCache();
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40rev.jks", "wss40rev")};
+        for (int i = 0; i < 2; i++) {
+            try {
+                crypto.verifyTrust(certs, true, null, null);
+                fail("Failure expected on a revoked certificate");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+            }
+        }
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInPlaceTrustStoreChange() throws Exception {
+        Merlin crypto = loadCrypto("60");
+        crypto.setDetectStoreChanges(true);
+        CertificateTrustCache cache = crypto.getCertificateTrustCache();
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(1, cache.size());
+
+        // Removing the CA from the truststore in place must not leave the chain trusted
+        crypto.getTrustStore().deleteEntry("wss40ca");
+        try {
+            crypto.verifyTrust(certs, false, null, null);
+            fail("Failure expected as the CA is no longer trusted");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReplacedTrustStore() throws Exception {
+        Merlin crypto = loadCrypto("60");
+        CertificateTrustCache cache = crypto.getCertificateTrustCache();
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        crypto.verifyTrust(certs, false, null, null);
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(1, cache.getHitCount());
+
+        // Setting a truststore without the CA must not leave the chain trusted
+        KeyStore trustStore = crypto.getTrustStore();
+        trustStore.deleteEntry("wss40ca");
+        crypto.setTrustStore(trustStore);
+        assertEquals(0, cache.size());
+        try {
+            crypto.verifyTrust(certs, false, null, null);
+            fail("Failure expected as the CA is no longer trusted");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testVerificationOfPreviousGenerationNotCached() throws Exception {
+        CertificateTrustCache cache = new CertificateTrustCache(60L);
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        ByteBuffer key = cache.createKey(certs, false, null);
+
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.addVerified(key, certs, null, generation);
+        assertEquals(0, cache.size());
+        assertFalse(cache.isVerified(key));
+
+        cache.addVerified(key, certs, null, cache.getGeneration());
+        assertTrue(cache.isVerified(key));
+    }
+
+    @Test
+    public void testOldestEntriesPurged() throws Exception {
+        CertificateTrustCache cache = new CertificateTrustCache(60L, 10L);
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        for (int i = 0; i < 10; i++) {
+            cache.addVerified(ByteBuffer.wrap(new byte[] {(byte)i}), certs, null, cache.getGeneration());
+        }
+        assertEquals(10, cache.size());
+
+        cache.addVerified(ByteBuffer.wrap(new byte[] {(byte)10}), certs, null, cache.getGeneration());
+        assertEquals(10, cache.size());
+        assertFalse(cache.isVerified(ByteBuffer.wrap(new byte[] {(byte)0})));
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(cache.isVerified(ByteBuffer.wrap(new byte[] {(byte)i})));
+        }
+    }
+
+    @Test
+    public void testCachingDisabledByDefault() throws Exception {
+        assertNull(loadCrypto(null).getCertificateTrustCache());
+        assertNull(loadCrypto("0").getCertificateTrustCache());
+    }
+
+    private static Merlin loadCrypto(String trustCacheTTL) throws Exception {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.Merlin");
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.file", "keys/wss40CA.jks");
+        properties.put("org.apache.wss4j.crypto.merlin.x509crl.file", "keys/wss40CACRL.pem");
+        if (trustCacheTTL != null) {
+            properties.put("org.apache.wss4j.crypto.merlin.trust.cache.ttl", trustCacheTTL);
+        }
+        return (Merlin)CryptoFactory.getInstance(properties);
+    }
+
+    private static X509Certificate getCertificate(String location, String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(CertificateTrustCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return (X509Certificate)keyStore.getCertificate(alias);
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for the pooling of JCA primitive instances.
+ */
+public class JCAInstancePoolTest {
+
+    @AfterEach
+    public void clearPool() {
+        JCAInstancePool.clear();
+    }
+
+    @Test
+    public void testMessageDigestReuse() throws Exception {
+        byte[] data = "Hello World".getBytes(StandardCharsets.UTF_8);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+
+        MessageDigest digest = JCAInstancePool.getMessageDigest("SHA-256");
+        // A partially used instance is reset when it is released
+        digest.update(data);
+        JCAInstancePool.release(digest);
+        assertEquals(1, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+
+        MessageDigest pooledDigest = JCAInstancePool.getMessageDigest("SHA-256");
+        assertSame(digest, pooledDigest);
+        assertEquals(0, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+        assertArrayEquals(expected, pooledDigest.digest(data));
+
+        // Instances are pooled per algorithm
+        MessageDigest sha1Digest = JCAInstancePool.getMessageDigest("SHA-1");
+        assertNotSame(pooledDigest, sha1Digest);
+        assertEquals("SHA-1", sha1Digest.getAlgorithm());
+    }
+
+    @Test
+    public void testMacReuse() throws Exception {
+        byte[] data = "Hello World".getBytes(StandardCharsets.UTF_8);
+        SecretKeySpec key = new SecretKeySpec(new byte[20], "HmacSHA1");
+        Mac expectedMac = Mac.getInstance("HmacSHA1");
+        expectedMac.init(key);
+
+        Mac mac = JCAInstancePool.getMac("HmacSHA1");
+        mac.init(key);
+        mac.update(data);
+        JCAInstancePool.release(mac);
+
+        Mac pooledMac = JCAInstancePool.getMac("HmacSHA1");
+        assertSame(mac, pooledMac);
+        pooledMac.init(key);
+        assertArrayEquals(expectedMac.doFinal(data), pooledMac.doFinal(data));
+    }
+
+    @Test
+    public void testCipherWithProvider() throws Exception {
+        Cipher cipher = JCAInstancePool.getCipher("AES/CBC/PKCS5Padding");
+        String provider = cipher.getProvider().getName();
+        JCAInstancePool.release(cipher);
+
+        // The instance is pooled for the provider that created it
+        assertSame(cipher, JCAInstancePool.getCipher("AES/CBC/PKCS5Padding", provider));
+        JCAInstancePool.release(cipher);
+        assertSame(cipher, JCAInstancePool.getCipher("AES/CBC/PKCS5Padding", null));
+    }
+
+    @Test
+    public void testPoolDiscardedOnClear() throws Exception {
+        MessageDigest digest = JCAInstancePool.getMessageDigest("SHA-256");
+        JCAInstancePool.release(digest);
+        assertEquals(1, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+
+        JCAInstancePool.clear();
+        assertEquals(0, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+        assertNotSame(digest, JCAInstancePool.getMessageDigest("SHA-256"));
+    }
+
+    @Test
+    public void testContentKeyClearedOnRelease() throws Exception {
+        byte[] data = "Hello World".getBytes(StandardCharsets.UTF_8);
+        SecretKeySpec contentKey = new SecretKeySpec("0123456789abcdef".getBytes(StandardCharsets.UTF_8), "AES");
+
+        Cipher cipher = JCAInstancePool.getCipher("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, contentKey);
+        cipher.doFinal(data);
+        JCAInstancePool.release(cipher);
+
+        // The pooled instance no longer holds the content key
+        Cipher pooledCipher = JCAInstancePool.getCipher("AES/CBC/PKCS5Padding");
+        assertSame(cipher, pooledCipher);
+        byte[] encryptedData = pooledCipher.doFinal(data);
+        Cipher expectedCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        expectedCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"),
+                            new IvParameterSpec(pooledCipher.getIV()));
+        assertArrayEquals(expectedCipher.doFinal(data), encryptedData);
+    }
+
+    @Test
+    public void testKeyWrapCipherNotPooled() throws Exception {
+        Cipher cipher = JCAInstancePool.getCipher("RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
+        JCAInstancePool.release(cipher);
+        assertEquals(0, JCAInstancePool.getIdleCount("Cipher", "RSA/ECB/OAEPWithSHA-1AndMGF1Padding"));
+        assertNotSame(cipher, JCAInstancePool.getCipher("RSA/ECB/OAEPWithSHA-1AndMGF1Padding"));
+    }
+
+    @Test
+    public void testPoolDiscardedOnProviderChange() throws Exception {
+        MessageDigest digest = JCAInstancePool.getMessageDigest("SHA-256");
+        JCAInstancePool.release(digest);
+
+        Provider provider = new Provider("JCAInstancePoolTest", 1.0, "Test provider") {
+            private static final long serialVersionUID = 1L;
+        };
+        Security.insertProviderAt(provider, 1);
+        try {
+            // The providers are checked for changes periodically
+            Thread.sleep(JCAInstancePool.PROVIDER_CHECK_INTERVAL + 100L);
+            assertNotSame(digest, JCAInstancePool.getMessageDigest("SHA-256"));
+            assertEquals(0, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+        } finally {
+            Security.removeProvider(provider.getName());
+        }
+    }
+
+    @Test
+    public void testBoundedPool() throws Exception {
+        List<MessageDigest> digests = new ArrayList<>();
+        for (int i = 0; i < JCAInstancePool.MAX_IDLE_INSTANCES + 5; i++) {
+            digests.add(JCAInstancePool.getMessageDigest("SHA-256"));
+        }
+        for (MessageDigest digest : digests) {
+            JCAInstancePool.release(digest);
+        }
+        assertEquals(JCAInstancePool.MAX_IDLE_INSTANCES, JCAInstancePool.getIdleCount("MessageDigest", "SHA-256"));
+    }
+}
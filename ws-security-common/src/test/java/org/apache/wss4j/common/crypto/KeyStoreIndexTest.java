@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests for the indexed certificate lookups of Merlin.
+ */
+public class KeyStoreIndexTest {
+
+    @Test
+    public void testIndexedLookups() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40_server.jks"));
+        crypto.setTrustStore(loadKeyStore("keys/wss40.jks"));
+
+        // The "wss40" cert is only in the truststore
+        X509Certificate cert = getCertificate(crypto, "wss40");
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(cert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        X509Certificate[] subjectCerts = crypto.getX509Certificates(cryptoType);
+        assertEquals(cert.getSubjectX500Principal(), subjectCerts[0].getSubjectX500Principal());
+
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+        crypto.verifyTrust(cert.getPublicKey());
+
+        X509Certificate serverCert = getCertificate(crypto, "wss40_server");
+        assertEquals("wss40_server", crypto.getX509Identifier(serverCert));
+
+        cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), BigInteger.valueOf(-1L));
+        assertNull(crypto.getX509Certificates(cryptoType));
+    }
+
+    @Test
+    public void testModifiedKeyStore() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setDetectStoreChanges(true);
+        KeyStore keyStore = loadKeyStore("keys/wss40_server.jks");
+        keyStore.deleteEntry("wss40ca");
+        crypto.setKeyStore(keyStore);
+
+        X509Certificate caCert = (X509Certificate)loadKeyStore("keys/wss40CA.jks").getCertificate("wss40ca");
+        assertNull(crypto.getX509Identifier(caCert));
+
+        // The index must pick up entries added or removed after the KeyStore was set
+        keyStore.setCertificateEntry("wss40ca", caCert);
+        assertEquals("wss40ca", crypto.getX509Identifier(caCert));
+
+        keyStore.deleteEntry("wss40ca");
+        assertNull(crypto.getX509Identifier(caCert));
+    }
+
+    @Test
+    public void testModifiedKeyStoreNotDetectedByDefault() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore keyStore = loadKeyStore("keys/wss40_server.jks");
+        keyStore.deleteEntry("wss40ca");
+        crypto.setKeyStore(keyStore);
+
+        X509Certificate caCert = (X509Certificate)loadKeyStore("keys/wss40CA.jks").getCertificate("wss40ca");
+        keyStore.setCertificateEntry("wss40ca", caCert);
+        assertNull(crypto.getX509Identifier(caCert));
+
+        // Setting the KeyStore again rebuilds the index
+        crypto.setKeyStore(keyStore);
+        assertEquals("wss40ca", crypto.getX509Identifier(caCert));
+    }
+
+    @Test
+    public void testReplacedKeyStoreEntry() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setDetectStoreChanges(true);
+        KeyStore keyStore = loadKeyStore("keys/wss40_server.jks");
+        crypto.setKeyStore(keyStore);
+
+        X509Certificate caCert = (X509Certificate)keyStore.getCertificate("wss40ca");
+        assertEquals("wss40ca", crypto.getX509Identifier(caCert));
+
+        // Replace the entry under the same alias, so that the size of the KeyStore is unchanged
+        X509Certificate cert = (X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40");
+        keyStore.deleteEntry("wss40ca");
+        keyStore.setCertificateEntry("wss40ca", cert);
+
+        assertNull(crypto.getX509Identifier(caCert));
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(caCert.getIssuerX500Principal().getName(), caCert.getSerialNumber());
+        assertNull(crypto.getX509Certificates(cryptoType));
+
+        assertEquals("wss40ca", crypto.getX509Identifier(cert));
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+    }
+
+    @Test
+    public void testTrustAnchorsRebuiltOnChange() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setDetectStoreChanges(true);
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        X509Certificate caCert = (X509Certificate)trustStore.getCertificate("wss40ca");
+        trustStore.deleteEntry("wss40ca");
+        KeyStore serverKeyStore = loadKeyStore("keys/wss40_server.jks");
+        trustStore.setCertificateEntry("wss40_server", serverKeyStore.getCertificate("wss40_server"));
+        crypto.setTrustStore(trustStore);
+
+        X509Certificate cert = (X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40");
+        X509Certificate[] certs = new X509Certificate[] {cert, caCert};
+        try {
+            crypto.verifyTrust(certs, false, null, null);
+            fail("Failure expected as the CA is not trusted");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+
+        // The trust anchors must pick up the new CA cert
+        trustStore.setCertificateEntry("wss40ca", caCert);
+        crypto.verifyTrust(certs, false, null, null);
+    }
+
+    @Test
+    public void testTrustAnchorReplacedInPlace() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setDetectStoreChanges(true);
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        X509Certificate caCert = (X509Certificate)trustStore.getCertificate("wss40ca");
+        crypto.setTrustStore(trustStore);
+
+        X509Certificate cert = (X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40");
+        X509Certificate[] certs = new X509Certificate[] {cert, caCert};
+        crypto.verifyTrust(certs, false, null, null);
+
+        // Replace the CA cert under the same alias, the old CA must no longer be a trust anchor
+        KeyStore serverKeyStore = loadKeyStore("keys/wss40_server.jks");
+        trustStore.deleteEntry("wss40ca");
+        trustStore.setCertificateEntry("wss40ca", serverKeyStore.getCertificate("wss40_server"));
+        try {
+            crypto.verifyTrust(certs, false, null, null);
+            fail("Failure expected as the CA is no longer trusted");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    private static X509Certificate getCertificate(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        X509Certificate[] certs = crypto.getX509Certificates(cryptoType);
+        assertNotNull(certs);
+        return certs[0];
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(KeyStoreIndexTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
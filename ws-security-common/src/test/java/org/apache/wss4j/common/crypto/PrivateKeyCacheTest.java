@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests for the caching of PrivateKeys recovered from the keystore in Merlin.
+ */
+public class PrivateKeyCacheTest {
+
+    @Test
+    public void testCachedPrivateKey() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        crypto.setPrivateKeyCacheSize(10);
+
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertNotNull(privateKey);
+        assertSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+
+        // A cached key must not be returned for the wrong password
+        try {
+            crypto.getPrivateKey("wss40", "wrongpassword");
+            fail("Failure expected on a wrong password");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+
+        // Replacing the keystore invalidates the cache
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        assertNotSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+    }
+
+    @Test
+    public void testKeyReplacedInPlace() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore keyStore = loadKeyStore("keys/wss40.jks");
+        crypto.setKeyStore(keyStore);
+        crypto.setPrivateKeyCacheSize(10);
+
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+
+        // Rotate the key under the same alias, so that the size of the keystore is unchanged
+        KeyStore serverKeyStore = loadKeyStore("keys/wss40_server.jks");
+        PrivateKey newKey = (PrivateKey)serverKeyStore.getKey("wss40_server", "security".toCharArray());
+        keyStore.setKeyEntry("wss40", newKey, "security".toCharArray(),
+                             serverKeyStore.getCertificateChain("wss40_server"));
+
+        assertEquals(newKey, crypto.getPrivateKey("wss40", "security"));
+        assertNotEquals(privateKey, crypto.getPrivateKey("wss40", "security"));
+    }
+
+    @Test
+    public void testCacheDisabledByDefault() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertNotSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(PrivateKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests for reloading the truststore of ReloadingMerlin when the file changes.
+ */
+public class ReloadingMerlinTest {
+
+    @Test
+    public void testReloadTrustStore() throws Exception {
+        KeyStore caStore = loadKeyStore("keys/wss40CA.jks");
+        KeyStore serverStore = loadKeyStore("keys/wss40_server.jks");
+        X509Certificate cert = (X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40");
+
+        File trustStoreFile = File.createTempFile("truststore", ".jks");
+        trustStoreFile.deleteOnExit();
+        writeTrustStore(trustStoreFile, serverStore.getCertificate("wss40_server"));
+
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.ReloadingMerlin");
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.file", trustStoreFile.getAbsolutePath());
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.reload.interval", "0");
+
+        try (ReloadingMerlin crypto = (ReloadingMerlin)CryptoFactory.getInstance(properties)) {
+            X509Certificate[] certs = new X509Certificate[] {cert};
+            try {
+                crypto.verifyTrust(certs, false, null, null);
+                fail("Failure expected as the CA is not trusted");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+            }
+            assertFalse(crypto.reloadIfModified());
+
+            Merlin oldSnapshot = crypto.getSnapshot();
+            writeTrustStore(trustStoreFile, caStore.getCertificate("wss40ca"),
+                            serverStore.getCertificate("wss40_server"));
+            assertTrue(crypto.reloadIfModified());
+            assertNotSame(oldSnapshot, crypto.getSnapshot());
+
+            crypto.verifyTrust(certs, false, null, null);
+            assertEquals(2, crypto.getTrustStore().size());
+
+            // The old snapshot is unaffected by the reload
+            assertEquals(1, oldSnapshot.getTrustStore().size());
+
+            // A broken file does not replace the current snapshot
+            Files.write(trustStoreFile.toPath(), new byte[] {1, 2, 3});
+            assertFalse(crypto.reloadIfModified());
+            crypto.verifyTrust(certs, false, null, null);
+        }
+    }
+
+    @Test
+    public void testReloadKeepsConfiguration() throws Exception {
+        KeyStore caStore = loadKeyStore("keys/wss40CA.jks");
+        KeyStore serverStore = loadKeyStore("keys/wss40_server.jks");
+
+        File trustStoreFile = File.createTempFile("truststore", ".jks");
+        trustStoreFile.deleteOnExit();
+        writeTrustStore(trustStoreFile, serverStore.getCertificate("wss40_server"));
+
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.ReloadingMerlin");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", "keys/wss40.jks");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.file", trustStoreFile.getAbsolutePath());
+        properties.put("org.apache.wss4j.crypto.merlin.truststore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.reload.interval", "0");
+
+        try (ReloadingMerlin crypto = (ReloadingMerlin)CryptoFactory.getInstance(properties)) {
+            KeyStore keyStore = loadKeyStore("keys/wss40.jks");
+            crypto.setKeyStore(keyStore);
+            crypto.setDefaultX509Identifier("wss40");
+            crypto.setDetectStoreChanges(true);
+
+            writeTrustStore(trustStoreFile, caStore.getCertificate("wss40ca"),
+                            serverStore.getCertificate("wss40_server"));
+            assertTrue(crypto.reloadIfModified());
+
+            // The programmatic configuration survives the reload, the truststore file is reloaded
+            assertSame(keyStore, crypto.getKeyStore());
+            assertEquals("wss40", crypto.getDefaultX509Identifier());
+            assertTrue(crypto.isDetectStoreChanges());
+            assertEquals(2, crypto.getTrustStore().size());
+        }
+    }
+
+    private static void writeTrustStore(File file, Certificate... certs) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        for (int i = 0; i < certs.length; i++) {
+            trustStore.setCertificateEntry("cert" + i, certs[i]);
+        }
+        try (OutputStream output = Files.newOutputStream(file.toPath())) {
+            trustStore.store(output, "security".toCharArray());
+        }
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(ReloadingMerlinTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
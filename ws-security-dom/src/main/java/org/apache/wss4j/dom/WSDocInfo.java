@@ -33,7 +33,6 @@ package org.apache.wss4j.dom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -57,8 +56,14 @@ public class WSDocInfo {
     // creation or validation
     private final Map<String, TokenValue> tokens = new HashMap<>();
 
-    private final List<WSSecurityEngineResult> results = new LinkedList<>();
+    private final List<WSSecurityEngineResult> results = new ArrayList<>();
     private final Map<Integer, List<WSSecurityEngineResult>> actionResults = new HashMap<>();
+
+    // Indexes of the results by their Id, and by their action and Id, so that the results for
+    // a reference can be found without scanning all of the results. The first result stored for
+    // an Id is the one that is indexed.
+    private final Map<String, WSSecurityEngineResult> resultsById = new HashMap<>();
+    private final Map<Integer, Map<String, WSSecurityEngineResult>> actionResultsById = new HashMap<>();
     private CallbackLookup callbackLookup;
     private Element securityHeader;
 
@@ -86,6 +91,8 @@ public class WSDocInfo {
         tokens.clear();
         results.clear();
         actionResults.clear();
+        resultsById.clear();
+        actionResultsById.clear();
     }
 
     /**
@@ -212,14 +219,29 @@ public class WSDocInfo {
      */
     public void addResult(WSSecurityEngineResult result) {
         results.add(result);
+        String id = (String)result.get(WSSecurityEngineResult.TAG_ID);
+        if (id != null && !resultsById.containsKey(id)) {
+            resultsById.put(id, result);
+        }
         Integer resultTag = (Integer)result.get(WSSecurityEngineResult.TAG_ACTION);
         if (resultTag != null) {
             List<WSSecurityEngineResult> storedResults = actionResults.get(resultTag);
             if (storedResults == null) {
                 storedResults = new ArrayList<>();
+                actionResults.put(resultTag, storedResults);
             }
             storedResults.add(result);
-            actionResults.put(resultTag, storedResults);
+
+            if (id != null) {
+                Map<String, WSSecurityEngineResult> storedResultsById = actionResultsById.get(resultTag);
+                if (storedResultsById == null) {
+                    storedResultsById = new HashMap<>();
+                    actionResultsById.put(resultTag, storedResultsById);
+                }
+                if (!storedResultsById.containsKey(id)) {
+                    storedResultsById.put(id, result);
+                }
+            }
         }
     }
 
@@ -256,15 +278,7 @@ public class WSDocInfo {
             return null;
         }
 
-        if (!results.isEmpty()) {
-            for (WSSecurityEngineResult result : results) {
-                String cId = (String)result.get(WSSecurityEngineResult.TAG_ID);
-                if (id.equals(cId)) {
-                    return result;
-                }
-            }
-        }
-        return null;
+        return resultsById.get(id);
     }
 
     /**
@@ -287,16 +301,8 @@ public class WSDocInfo {
             return false;
         }
 
-        if (!actionResults.isEmpty() && actionResults.containsKey(tag)) {
-            for (WSSecurityEngineResult result : actionResults.get(tag)) {
-                String cId = (String)result.get(WSSecurityEngineResult.TAG_ID);
-                if (id.equals(cId)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
+        Map<String, WSSecurityEngineResult> storedResultsById = actionResultsById.get(tag);
+        return storedResultsById != null && storedResultsById.containsKey(id);
     }
 
     /**
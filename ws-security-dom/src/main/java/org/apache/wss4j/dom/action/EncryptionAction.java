@@ -30,6 +30,7 @@ import org.apache.wss4j.common.EncryptionActionToken;
 import org.apache.wss4j.common.SecurityActionToken;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.KeyUtils;
@@ -116,8 +117,13 @@ public class EncryptionAction implements Action {
         if (ephemeralKey != null) {
             symmetricKey = KeyUtils.prepareSecretKey(wsEncrypt.getSymmetricEncAlgorithm(), ephemeralKey);
         } else {
-            KeyGenerator keyGen = KeyUtils.getKeyGenerator(wsEncrypt.getSymmetricEncAlgorithm());
-            symmetricKey = keyGen.generateKey();
+            wsEncrypt.setEncryptedKeySessionCache(reqData.getEncryptedKeySessionCache());
+            symmetricKey = wsEncrypt.getSessionKey(encryptionToken.getCrypto());
+            if (symmetricKey == null) {
+                KeyGenerator keyGen = KeyUtils.getKeyGenerator(wsEncrypt.getSymmetricEncAlgorithm());
+                symmetricKey = keyGen.generateKey();
+                JCAInstancePool.release(keyGen);
+            }
         }
 
         if (encryptionToken.getTokenId() != null) {
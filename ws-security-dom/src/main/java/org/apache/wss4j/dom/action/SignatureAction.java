@@ -63,6 +63,8 @@ public class SignatureAction implements Action {
         wsSign.setWsDocInfo(reqData.getWsDocInfo());
         wsSign.setExpandXopInclude(reqData.isExpandXopInclude());
         wsSign.setSignatureProvider(reqData.getSignatureProvider());
+        wsSign.setParallelDigests(reqData.isParallelSignatureDigests());
+        wsSign.setExecutor(reqData.getExecutor());
 
         if (signatureToken.getKeyIdentifierId() != 0) {
             wsSign.setKeyIdentifierType(signatureToken.getKeyIdentifierId());
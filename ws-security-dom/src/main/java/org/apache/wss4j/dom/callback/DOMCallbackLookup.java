@@ -19,8 +19,11 @@
 
 package org.apache.wss4j.dom.callback;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.crypto.dom.DOMCryptoContext;
 
@@ -28,18 +31,53 @@ import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 /**
  * This class uses a DOM-based approach to locate Elements that are referenced via an Id.
+ *
+ * By default, each lookup searches the whole document. If Id indexing is enabled, the wsu:Id,
+ * Id, SAML ID and SAML AssertionID attributes of the document are instead indexed in a single
+ * traversal on the first lookup, together with any duplicates, and subsequent lookups use the
+ * index. The index must be told about changes to the document via addToIndex/removeFromIndex
+ * (as is done when EncryptedData is decrypted), or be invalidated. A stale entry (an Element
+ * that was removed from the document, or whose Id was changed) is detected on lookup, and
+ * causes the index to be rebuilt.
  */
 public class DOMCallbackLookup implements CallbackLookup {
 
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(DOMCallbackLookup.class);
+
     private Document doc;
+    private final boolean indexIds;
+
+    /**
+     * The Elements with a wsu:Id or Id attribute, keyed by the attribute value
+     */
+    private Map<String, List<Element>> idIndex;
+
+    /**
+     * The Elements with a SAML ID or AssertionID attribute, keyed by the attribute value
+     */
+    private Map<String, List<Element>> samlIdIndex;
 
     public DOMCallbackLookup(Document doc) {
+        this(doc, false);
+    }
+
+    /**
+     * @param doc The Document to locate Elements in
+     * @param indexIds Whether to index the Ids of the Document, instead of searching the
+     *        Document on each lookup
+     */
+    public DOMCallbackLookup(Document doc, boolean indexIds) {
         this.doc = doc;
+        this.indexIds = indexIds;
     }
 
     /**
@@ -93,8 +131,13 @@ public class DOMCallbackLookup implements CallbackLookup {
             }
         }
         // Otherwise do a general search
-        Element foundElement =
-            XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, checkMultipleElements);
+        Element foundElement = null;
+        if (indexIds) {
+            foundElement = findIndexedElement(idToMatch, checkMultipleElements, false);
+        } else {
+            foundElement =
+                XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, checkMultipleElements);
+        }
         if (foundElement != null) {
             if (context != null) {
                 if (foundElement.hasAttributeNS(WSConstants.WSU_NS, "Id")
@@ -117,10 +160,14 @@ public class DOMCallbackLookup implements CallbackLookup {
             || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
             || "".equals(valueType)
             || valueType == null) {
-            foundElement =
-                XMLUtils.findSAMLAssertionElementById(
-                    doc.getDocumentElement(), idToMatch
-                );
+            if (indexIds) {
+                foundElement = findIndexedElement(idToMatch, true, true);
+            } else {
+                foundElement =
+                    XMLUtils.findSAMLAssertionElementById(
+                        doc.getDocumentElement(), idToMatch
+                    );
+            }
             if (foundElement != null) {
                 if (context != null) {
                     if (foundElement.hasAttributeNS(null, "ID")
@@ -166,4 +213,188 @@ public class DOMCallbackLookup implements CallbackLookup {
     public Element getSOAPBody() {
         return WSSecurityUtil.findBodyElement(doc);
     }
+
+    /**
+     * @return whether the Ids of the Document are indexed
+     */
+    public boolean isIndexIds() {
+        return indexIds;
+    }
+
+    /**
+     * Add the Ids of the given Node and its descendants to the index, if it has been built. This
+     * must be called when Elements are added to the Document, for example after decryption.
+     * @param node The Node that was added to the Document
+     */
+    public void addToIndex(Node node) {
+        if (idIndex != null && node != null) {
+            indexSubtree(node, true);
+        }
+    }
+
+    /**
+     * Remove the Ids of the given Node and its descendants from the index, if it has been
+     * built. This should be called before Elements are removed from the Document.
+     * @param node The Node that is to be removed from the Document
+     */
+    public void removeFromIndex(Node node) {
+        if (idIndex != null && node != null) {
+            indexSubtree(node, false);
+        }
+    }
+
+    /**
+     * Discard the index, so that it is rebuilt on the next lookup. This must be called if the
+     * Document was changed without calling addToIndex/removeFromIndex.
+     */
+    public void invalidateIndex() {
+        idIndex = null;
+        samlIdIndex = null;
+    }
+
+    private Element findIndexedElement(String id, boolean checkMultipleElements, boolean saml) {
+        if (idIndex == null) {
+            buildIndex();
+        }
+        List<Element> elements = saml ? samlIdIndex.get(id) : idIndex.get(id);
+        if (elements == null || elements.isEmpty()) {
+            return null;
+        }
+        if (!isValid(elements, id, saml)) {
+            LOG.debug("The Id index is stale, rebuilding it");
+            buildIndex();
+            elements = saml ? samlIdIndex.get(id) : idIndex.get(id);
+            if (elements == null || elements.isEmpty()) {
+                return null;
+            }
+        }
+
+        if (elements.size() == 1) {
+            return elements.get(0);
+        }
+        if (saml) {
+            LOG.warn("Multiple elements with the same 'ID' attribute value!");
+            return null;
+        } else if (checkMultipleElements) {
+            LOG.warn("Multiple elements with the same 'Id' attribute value!");
+            return null;
+        }
+        // Return the first Element in document order, as a search of the Document would
+        Element firstElement = elements.get(0);
+        for (int i = 1; i < elements.size(); i++) {
+            Element element = elements.get(i);
+            if ((element.compareDocumentPosition(firstElement) & Node.DOCUMENT_POSITION_FOLLOWING) != 0) {
+                firstElement = element;
+            }
+        }
+        return firstElement;
+    }
+
+    private boolean isValid(List<Element> elements, String id, boolean saml) {
+        for (Element element : elements) {
+            if (saml) {
+                if (!id.equals(element.getAttributeNS(null, "ID"))
+                    && !id.equals(element.getAttributeNS(null, "AssertionID"))) {
+                    return false;
+                }
+            } else if (!id.equals(element.getAttributeNS(WSConstants.WSU_NS, "Id"))
+                && !id.equals(element.getAttributeNS(null, "Id"))) {
+                return false;
+            }
+
+            Node parent = element.getParentNode();
+            while (parent != null && parent != doc) {
+                parent = parent.getParentNode();
+            }
+            if (parent == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void buildIndex() {
+        idIndex = new HashMap<>();
+        samlIdIndex = new HashMap<>();
+        indexSubtree(doc.getDocumentElement(), true);
+    }
+
+    private void indexSubtree(Node startNode, boolean add) {
+        if (startNode == null) {
+            return;
+        }
+        Node node = startNode;
+        while (node != null) {
+            if (Node.ELEMENT_NODE == node.getNodeType()) {
+                indexElement((Element)node, add);
+            }
+
+            // Depth-first traversal of the descendants of the start node
+            Node nextNode = node.getFirstChild();
+            while (nextNode == null && node != startNode) {
+                nextNode = node.getNextSibling();
+                if (nextNode == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = nextNode;
+        }
+    }
+
+    private void indexElement(Element element, boolean add) {
+        NamedNodeMap attributes = element.getAttributes();
+        if (attributes == null) {
+            return;
+        }
+        String wsuId = null;
+        String samlId = null;
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attr = (Attr)attributes.item(i);
+            String name = attr.getLocalName() == null ? attr.getName() : attr.getLocalName();
+            String namespace = attr.getNamespaceURI();
+            String value = attr.getValue();
+            if (value == null || "".equals(value)) {
+                continue;
+            }
+            if ("Id".equals(name) && (namespace == null || WSConstants.WSU_NS.equals(namespace))) {
+                if (!value.equals(wsuId)) {
+                    updateIndex(idIndex, value, element, add);
+                    wsuId = value;
+                }
+            } else if (("ID".equals(name) || "AssertionID".equals(name)) && namespace == null
+                && !value.equals(samlId)) {
+                updateIndex(samlIdIndex, value, element, add);
+                samlId = value;
+            }
+        }
+    }
+
+    private static void updateIndex(
+        Map<String, List<Element>> index, String id, Element element, boolean add
+    ) {
+        List<Element> elements = index.get(id);
+        if (add) {
+            if (elements == null) {
+                elements = new ArrayList<>(1);
+                index.put(id, elements);
+            } else {
+                for (Element indexedElement : elements) {
+                    if (indexedElement == element) {
+                        return;
+                    }
+                }
+            }
+            elements.add(element);
+        } else if (elements != null) {
+            for (int i = 0; i < elements.size(); i++) {
+                if (elements.get(i) == element) {
+                    elements.remove(i);
+                    break;
+                }
+            }
+            if (elements.isEmpty()) {
+                index.remove(id);
+            }
+        }
+    }
 }
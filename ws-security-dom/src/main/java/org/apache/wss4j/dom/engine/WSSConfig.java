@@ -24,6 +24,7 @@ import java.security.PrivilegedAction;
 import java.security.Security;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -298,6 +299,17 @@ public final class WSSConfig {
      */
     private final Map<QName, Object> validatorMap = new HashMap<>(DEFAULT_VALIDATORS);
 
+    /**
+     * Whether the actions, processors and validators that are configured as a Class are
+     * instantiated once and then shared, instead of being instantiated on every lookup.
+     */
+    private boolean cacheInstances;
+
+    /**
+     * The shared instances of the configured classes, if cacheInstances is enabled
+     */
+    private final Map<Class<?>, Object> instanceCache = new ConcurrentHashMap<>();
+
     static {
         try {
             Transform.register(WSConstants.SWA_ATTACHMENT_CIPHERTEXT_TRANS,
@@ -423,13 +435,7 @@ public final class WSSConfig {
         final Object actionObject = actionMap.get(action);
 
         if (actionObject instanceof Class<?>) {
-            try {
-                return (Action)((Class<?>)actionObject).newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)actionObject).getName()});
-            }
+            return (Action)getInstance((Class<?>)actionObject);
         } else if (actionObject instanceof Action) {
             return (Action)actionObject;
         }
@@ -513,13 +519,7 @@ public final class WSSConfig {
         final Object validatorObject = validatorMap.get(el);
 
         if (validatorObject instanceof Class<?>) {
-            try {
-                return (Validator)((Class<?>)validatorObject).newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                    "unableToLoadClass", new Object[] {((Class<?>)validatorObject).getName()});
-            }
+            return (Validator)getInstance((Class<?>)validatorObject);
         } else if (validatorObject instanceof Validator) {
             return (Validator)validatorObject;
         }
@@ -537,19 +537,64 @@ public final class WSSConfig {
         final Object processorObject = processorMap.get(el);
 
         if (processorObject instanceof Class<?>) {
-            try {
-                return (Processor)((Class<?>)processorObject).newInstance();
-            } catch (Exception ex) {
-                LOG.debug(ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)processorObject).getName()});
-            }
+            return (Processor)getInstance((Class<?>)processorObject);
         } else if (processorObject instanceof Processor) {
             return (Processor)processorObject;
         }
         return null;
     }
 
+    /**
+     * @return whether the actions, processors and validators that are configured as a Class
+     *         are instantiated once and then shared
+     */
+    public boolean isCacheInstances() {
+        return cacheInstances;
+    }
+
+    /**
+     * Set whether the actions, processors and validators that are configured as a Class
+     * (which includes the defaults) are instantiated once per WSSConfig and then shared,
+     * instead of being instantiated every time they are looked up. The default is false.
+     *
+     * Enable this only if all of the configured classes are thread-safe, as is the case for
+     * the default actions, processors and validators. Note that a shared instance must not be
+     * reconfigured after it has been looked up, use setAction/setProcessor/setValidator with a
+     * configured instance instead.
+     */
+    public void setCacheInstances(boolean cacheInstances) {
+        this.cacheInstances = cacheInstances;
+        if (!cacheInstances) {
+            instanceCache.clear();
+        }
+    }
+
+    private Object getInstance(Class<?> clazz) throws WSSecurityException {
+        if (cacheInstances) {
+            Object instance = instanceCache.get(clazz);
+            if (instance != null) {
+                return instance;
+            }
+        }
+
+        Object instance = null;
+        try {
+            instance = clazz.newInstance();
+        } catch (Exception ex) {
+            LOG.debug(ex.getMessage(), ex);
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
+                    "unableToLoadClass", new Object[] {clazz.getName()});
+        }
+
+        if (cacheInstances) {
+            Object existingInstance = instanceCache.putIfAbsent(clazz, instance);
+            if (existingInstance != null) {
+                return existingInstance;
+            }
+        }
+        return instance;
+    }
+
     public WSTimeSource getCurrentTime() {
         if (currentTime != null) {
             return currentTime;
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+
+/**
+ * The decoded configuration of a receiver, as created by WSHandler#compileReceiverProfile. A
+ * profile is immutable, and can be used by any number of threads to process messages, without
+ * having to decode the handler options for each message. It holds the configuration (including
+ * the Crypto instances and the BSP rules) and the expected actions of the receiver.
+ *
+ * The configuration of each message is a copy of the configuration of the profile, see
+ * {@link #createRequestData(Object)}, which can be changed for that message before it is
+ * processed. The Crypto, cache and CallbackHandler instances of the profile are shared by
+ * all messages, whereas each message gets its own BSPEnforcer.
+ */
+public final class ReceiverProfile {
+
+    private final RequestData requestData;
+    private final List<Integer> actions;
+    private final int[] expectedActions;
+    private final int[] sortedExpectedActions;
+
+    ReceiverProfile(RequestData requestData, List<Integer> actions) {
+        this.requestData = new RequestData(requestData);
+        this.actions = Collections.unmodifiableList(new ArrayList<>(actions));
+        expectedActions = new int[actions.size()];
+        for (int i = 0; i < expectedActions.length; i++) {
+            expectedActions[i] = actions.get(i);
+        }
+        sortedExpectedActions = expectedActions.clone();
+        Arrays.sort(sortedExpectedActions);
+    }
+
+    /**
+     * Create the RequestData to process a message with
+     * @param msgContext the message context of the message
+     * @return a copy of the configuration of the profile for the message
+     */
+    public RequestData createRequestData(Object msgContext) {
+        RequestData reqData = new RequestData(requestData);
+        reqData.setMsgContext(msgContext);
+        return reqData;
+    }
+
+    /**
+     * @return the expected actions of the profile
+     */
+    public List<Integer> getActions() {
+        return actions;
+    }
+
+    /**
+     * Check that the results of processing a message match the expected actions, in the
+     * same order. This has the same semantics as WSHandler#checkReceiverResults.
+     */
+    public boolean checkResults(List<WSSecurityEngineResult> wsResult) {
+        int ai = 0;
+        for (WSSecurityEngineResult result : wsResult) {
+            final Integer actInt = (Integer) result.get(WSSecurityEngineResult.TAG_ACTION);
+            if (actInt != null) {
+                int act = actInt;
+                if (act == WSConstants.SC || act == WSConstants.BST) {
+                    continue;
+                }
+
+                if (ai >= expectedActions.length || expectedActions[ai++] != act) {
+                    return false;
+                }
+            }
+        }
+
+        return ai == expectedActions.length;
+    }
+
+    /**
+     * Check that the results of processing a message match the expected actions, in any
+     * order. This has the same semantics as WSHandler#checkReceiverResultsAnyOrder.
+     */
+    public boolean checkResultsAnyOrder(List<WSSecurityEngineResult> wsResult) {
+        int[] recordedActions = new int[wsResult.size()];
+        int size = 0;
+        for (WSSecurityEngineResult result : wsResult) {
+            final Integer actInt = (Integer) result.get(WSSecurityEngineResult.TAG_ACTION);
+            if (actInt != null) {
+                int act = actInt;
+                if (act == WSConstants.SC || act == WSConstants.BST) {
+                    continue;
+                } else if (act == WSConstants.ENCR
+                    && (result.get(WSSecurityEngineResult.TAG_DATA_REF_URIS) == null
+                        || ((List<?>)result.get(WSSecurityEngineResult.TAG_DATA_REF_URIS)).isEmpty())) {
+                    continue;
+                }
+
+                if (size == sortedExpectedActions.length) {
+                    return false;
+                }
+                recordedActions[size++] = act;
+            }
+        }
+
+        if (size != sortedExpectedActions.length) {
+            return false;
+        }
+        Arrays.sort(recordedActions, 0, size);
+        for (int i = 0; i < size; i++) {
+            if (recordedActions[i] != sortedExpectedActions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
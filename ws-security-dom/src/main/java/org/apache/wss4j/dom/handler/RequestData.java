@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -36,6 +37,8 @@ import org.apache.wss4j.common.EncryptionActionToken;
 import org.apache.wss4j.common.SignatureActionToken;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -75,9 +78,12 @@ public class RequestData {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private EncryptedKeyCache encryptedKeyCache;
+    private EncryptedKeySessionCache encryptedKeySessionCache;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
     private final List<BSPRule> ignoredBSPRules = new LinkedList<>();
+    private BSPEnforcer bspEnforcer;
     private boolean appendSignatureAfterTimestamp;
     private int originalSignatureActionPosition;
     private AlgorithmSuite algorithmSuite;
@@ -197,6 +203,111 @@ public class RequestData {
 
     private boolean expandXopInclude;
 
+    /**
+     * Whether to validate the References of a Signature in parallel
+     */
+    private boolean parallelSignatureVerification;
+
+    /**
+     * Whether to compute the digests of the References of a Signature in parallel
+     */
+    private boolean parallelSignatureDigests;
+
+    /**
+     * Whether to decrypt the EncryptedData elements of a ReferenceList or EncryptedKey in parallel
+     */
+    private boolean parallelDecryption;
+
+    /**
+     * Whether to index the Ids of the message, rather than searching the message for each Id
+     */
+    private boolean indexElementIds;
+
+    /**
+     * The Executor used to perform the work of a message in parallel
+     */
+    private Executor executor;
+
+    public RequestData() {
+        // complete
+    }
+
+    /**
+     * Create a copy of the configuration held by the given RequestData. The state that is
+     * built up while a message is secured or processed (the security header, the WSDocInfo,
+     * the SOAPConstants, the signature values and the TLS certificates) is not copied. The
+     * action tokens and the collections are copied, the Crypto, cache and callback instances
+     * are shared.
+     * @param requestData the RequestData to copy
+     */
+    public RequestData(RequestData requestData) {
+        msgContext = requestData.msgContext;
+        actor = requestData.actor;
+        username = requestData.username;
+        pwType = requestData.pwType;
+        sigVerCrypto = requestData.sigVerCrypto;
+        decCrypto = requestData.decCrypto;
+        if (requestData.signatureToken != null) {
+            signatureToken = new SignatureActionToken(requestData.signatureToken);
+        }
+        if (requestData.encryptionToken != null) {
+            encryptionToken = new EncryptionActionToken(requestData.encryptionToken);
+        }
+        wssConfig = requestData.wssConfig;
+        derivedKeyIterations = requestData.derivedKeyIterations;
+        useDerivedKeyForMAC = requestData.useDerivedKeyForMAC;
+        callback = requestData.callback;
+        attachmentCallbackHandler = requestData.attachmentCallbackHandler;
+        enableRevocation = requestData.enableRevocation;
+        requireSignedEncryptedDataElements = requestData.requireSignedEncryptedDataElements;
+        timestampReplayCache = requestData.timestampReplayCache;
+        nonceReplayCache = requestData.nonceReplayCache;
+        samlOneTimeUseReplayCache = requestData.samlOneTimeUseReplayCache;
+        encryptedKeyCache = requestData.encryptedKeyCache;
+        encryptedKeySessionCache = requestData.encryptedKeySessionCache;
+        if (requestData.subjectDNPatterns != null) {
+            subjectDNPatterns = new ArrayList<>(requestData.subjectDNPatterns);
+        }
+        if (requestData.issuerDNPatterns != null) {
+            issuerDNPatterns = new ArrayList<>(requestData.issuerDNPatterns);
+        }
+        ignoredBSPRules.addAll(requestData.ignoredBSPRules);
+        algorithmSuite = requestData.algorithmSuite;
+        samlAlgorithmSuite = requestData.samlAlgorithmSuite;
+        disableBSPEnforcement = requestData.disableBSPEnforcement;
+        allowRSA15KeyTransportAlgorithm = requestData.allowRSA15KeyTransportAlgorithm;
+        addUsernameTokenNonce = requestData.addUsernameTokenNonce;
+        addUsernameTokenCreated = requestData.addUsernameTokenCreated;
+        passwordEncryptor = requestData.passwordEncryptor;
+        derivedKeyTokenReference = requestData.derivedKeyTokenReference;
+        use200512Namespace = requestData.use200512Namespace;
+        audienceRestrictions.addAll(requestData.audienceRestrictions);
+        requireTimestampExpires = requestData.requireTimestampExpires;
+        storeBytesInAttachment = requestData.storeBytesInAttachment;
+        encryptionSerializer = requestData.encryptionSerializer;
+        signatureProvider = requestData.signatureProvider;
+        addInclusivePrefixes = requestData.addInclusivePrefixes;
+        precisionInMilliSeconds = requestData.precisionInMilliSeconds;
+        enableSignatureConfirmation = requestData.enableSignatureConfirmation;
+        timeStampStrict = requestData.timeStampStrict;
+        requiredPasswordType = requestData.requiredPasswordType;
+        allowUsernameTokenNoPassword = requestData.allowUsernameTokenNoPassword;
+        timeStampTTL = requestData.timeStampTTL;
+        timeStampFutureTTL = requestData.timeStampFutureTTL;
+        utTTL = requestData.utTTL;
+        utFutureTTL = requestData.utFutureTTL;
+        handleCustomPasswordTypes = requestData.handleCustomPasswordTypes;
+        allowNamespaceQualifiedPasswordTypes = requestData.allowNamespaceQualifiedPasswordTypes;
+        encodePasswords = requestData.encodePasswords;
+        validateSamlSubjectConfirmation = requestData.validateSamlSubjectConfirmation;
+        expandXopInclude = requestData.expandXopInclude;
+        parallelSignatureVerification = requestData.parallelSignatureVerification;
+        parallelSignatureDigests = requestData.parallelSignatureDigests;
+        parallelDecryption = requestData.parallelDecryption;
+        indexElementIds = requestData.indexElementIds;
+        executor = requestData.executor;
+    }
+
     public Object getMsgContext() {
         return msgContext;
     }
@@ -446,6 +557,36 @@ public class RequestData {
         return samlOneTimeUseReplayCache;
     }
 
+    /**
+     * Set the cache for the secret keys unwrapped from EncryptedKeys. It is not used by default.
+     */
+    public void setEncryptedKeyCache(EncryptedKeyCache encryptedKeyCache) {
+        this.encryptedKeyCache = encryptedKeyCache;
+    }
+
+    /**
+     * Get the cache for the secret keys unwrapped from EncryptedKeys
+     */
+    public EncryptedKeyCache getEncryptedKeyCache() {
+        return encryptedKeyCache;
+    }
+
+    /**
+     * Set the cache of outbound symmetric key sessions, which allows a symmetric key and the
+     * EncryptedKey that wraps it to be reused for several messages to the same recipient.
+     * It is not used by default.
+     */
+    public void setEncryptedKeySessionCache(EncryptedKeySessionCache encryptedKeySessionCache) {
+        this.encryptedKeySessionCache = encryptedKeySessionCache;
+    }
+
+    /**
+     * Get the cache of outbound symmetric key sessions
+     */
+    public EncryptedKeySessionCache getEncryptedKeySessionCache() {
+        return encryptedKeySessionCache;
+    }
+
     /**
      * Set the Signature Subject Cert Constraints
      */
@@ -496,13 +637,22 @@ public class RequestData {
     public void setIgnoredBSPRules(List<BSPRule> bspRules) {
         ignoredBSPRules.clear();
         ignoredBSPRules.addAll(bspRules);
+        bspEnforcer = null;
     }
 
+    /**
+     * Get the BSPEnforcer for the BSP rules of this RequestData. It is created once for this
+     * RequestData, each copy of the RequestData creates its own BSPEnforcer.
+     */
     public BSPEnforcer getBSPEnforcer() {
-        if (disableBSPEnforcement) {
-            return new BSPEnforcer(true);
+        if (bspEnforcer == null) {
+            if (disableBSPEnforcement) {
+                bspEnforcer = new BSPEnforcer(true);
+            } else {
+                bspEnforcer = new BSPEnforcer(ignoredBSPRules);
+            }
         }
-        return new BSPEnforcer(ignoredBSPRules);
+        return bspEnforcer;
     }
 
     public boolean isAppendSignatureAfterTimestamp() {
@@ -543,6 +693,7 @@ public class RequestData {
 
     public void setDisableBSPEnforcement(boolean disableBSPEnforcement) {
         this.disableBSPEnforcement = disableBSPEnforcement;
+        bspEnforcer = null;
     }
 
     public boolean isAllowRSA15KeyTransportAlgorithm() {
@@ -779,4 +930,65 @@ public class RequestData {
     public void setSignatureProvider(Provider signatureProvider) {
         this.signatureProvider = signatureProvider;
     }
+
+    public boolean isParallelSignatureVerification() {
+        return parallelSignatureVerification;
+    }
+
+    /**
+     * Set whether to validate the same-document References of a Signature in parallel, using the
+     * configured Executor. References to attachments are still validated on the calling thread.
+     */
+    public void setParallelSignatureVerification(boolean parallelSignatureVerification) {
+        this.parallelSignatureVerification = parallelSignatureVerification;
+    }
+
+    public boolean isParallelSignatureDigests() {
+        return parallelSignatureDigests;
+    }
+
+    /**
+     * Set whether to compute the digests of the References of a Signature in parallel, using the
+     * configured Executor. Note that the attachment CallbackHandler must be thread-safe in this case.
+     */
+    public void setParallelSignatureDigests(boolean parallelSignatureDigests) {
+        this.parallelSignatureDigests = parallelSignatureDigests;
+    }
+
+    public boolean isParallelDecryption() {
+        return parallelDecryption;
+    }
+
+    /**
+     * Set whether to decrypt the EncryptedData elements of a ReferenceList or EncryptedKey in
+     * parallel, using the configured Executor.
+     */
+    public void setParallelDecryption(boolean parallelDecryption) {
+        this.parallelDecryption = parallelDecryption;
+    }
+
+    public boolean isIndexElementIds() {
+        return indexElementIds;
+    }
+
+    /**
+     * Set whether to index the Ids of the message in a single traversal, rather than searching the
+     * message for each referenced Id. Custom Processors that modify the document must then register
+     * their changes with the DOMCallbackLookup, as otherwise duplicate Ids are not detected.
+     */
+    public void setIndexElementIds(boolean indexElementIds) {
+        this.indexElementIds = indexElementIds;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the Executor used to perform the work of a message in parallel, if this is enabled.
+     * The default is the common ForkJoinPool.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
 }
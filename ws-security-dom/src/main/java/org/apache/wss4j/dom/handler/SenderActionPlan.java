@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wss4j.common.EncryptionActionToken;
+import org.apache.wss4j.common.SecurityActionToken;
+import org.apache.wss4j.common.SignatureActionToken;
+import org.apache.wss4j.dom.SOAPConstants;
+
+/**
+ * The decoded configuration of the security actions of a sender, as created by
+ * WSHandler#compileSenderActionPlan. A plan is immutable, and can be used by any number of
+ * threads to secure messages, without having to decode the handler options for each message.
+ *
+ * The configuration of each message is a copy of the configuration of the plan, see
+ * {@link #createRequestData(Object)}, which can be changed for that message before it is
+ * secured. Likewise each message is secured with a copy of the signature and encryption
+ * action tokens of the plan, see {@link #createActionsToPerform()}. The Crypto, cache and
+ * CallbackHandler instances of the plan are shared by all messages, as are any other action
+ * tokens that are set on the HandlerActions of the plan.
+ */
+public final class SenderActionPlan {
+
+    private final RequestData requestData;
+    private final List<HandlerAction> actions;
+    private final List<HandlerAction> actionsToPerform;
+    private final boolean appendSignatureAfterTimestamp;
+    private final int originalSignatureActionPosition;
+    private final boolean mustUnderstand;
+
+    SenderActionPlan(
+        RequestData requestData,
+        List<HandlerAction> actions,
+        List<HandlerAction> actionsToPerform,
+        boolean mustUnderstand
+    ) {
+        this.requestData = new RequestData(requestData);
+        this.requestData.setSoapConstants(requestData.getSoapConstants());
+        this.actions = Collections.unmodifiableList(new ArrayList<>(actions));
+        this.actionsToPerform = Collections.unmodifiableList(new ArrayList<>(actionsToPerform));
+        this.appendSignatureAfterTimestamp = requestData.isAppendSignatureAfterTimestamp();
+        this.originalSignatureActionPosition = requestData.getOriginalSignatureActionPosition();
+        this.mustUnderstand = mustUnderstand;
+    }
+
+    /**
+     * Create the RequestData to secure a message with
+     * @param msgContext the message context of the message
+     * @return a copy of the configuration of the plan for the message
+     */
+    public RequestData createRequestData(Object msgContext) {
+        RequestData reqData = new RequestData(requestData);
+        reqData.setMsgContext(msgContext);
+        return reqData;
+    }
+
+    /**
+     * @return the actions of the plan, in the order they were defined
+     */
+    public List<HandlerAction> getActions() {
+        return actions;
+    }
+
+    /**
+     * @return the actions of the plan, in the order they are performed
+     */
+    public List<HandlerAction> getActionsToPerform() {
+        return actionsToPerform;
+    }
+
+    /**
+     * Create the actions to perform on a message. The SignatureActionToken and
+     * EncryptionActionToken of the actions are copied, as the parts they hold are updated
+     * while the message is secured.
+     * @return a copy of the actions of the plan, in the order they are performed
+     */
+    public List<HandlerAction> createActionsToPerform() {
+        List<HandlerAction> copy = new ArrayList<>(actionsToPerform.size());
+        for (HandlerAction handlerAction : actionsToPerform) {
+            SecurityActionToken actionToken = handlerAction.getActionToken();
+            if (actionToken instanceof SignatureActionToken) {
+                actionToken = new SignatureActionToken((SignatureActionToken)actionToken);
+            } else if (actionToken instanceof EncryptionActionToken) {
+                actionToken = new EncryptionActionToken((EncryptionActionToken)actionToken);
+            }
+            copy.add(new HandlerAction(handlerAction.getAction(), actionToken));
+        }
+        return copy;
+    }
+
+    public SOAPConstants getSoapConstants() {
+        return requestData.getSoapConstants();
+    }
+
+    public boolean isAppendSignatureAfterTimestamp() {
+        return appendSignatureAfterTimestamp;
+    }
+
+    public int getOriginalSignatureActionPosition() {
+        return originalSignatureActionPosition;
+    }
+
+    public boolean isMustUnderstand() {
+        return mustUnderstand;
+    }
+
+}
@@ -36,6 +36,7 @@ import java.util.regex.PatternSyntaxException;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 
+import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.engine.WSSConfig;
@@ -44,6 +45,8 @@ import org.apache.wss4j.common.EncryptionActionToken;
 import org.apache.wss4j.common.SignatureActionToken;
 import org.apache.wss4j.common.SignatureEncryptionActionToken;
 import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
@@ -82,16 +85,81 @@ public abstract class WSHandler {
             List<HandlerAction> actions,
             boolean isRequest
     ) throws WSSecurityException {
+        reqData.setSoapConstants(WSSecurityUtil.getSOAPConstants(doc.getDocumentElement()));
+        decodeSenderParameters(reqData, actions);
 
-        WSSConfig wssConfig = reqData.getWssConfig();
-        if (wssConfig == null) {
-            wssConfig = WSSConfig.getNewInstance();
-            reqData.setWssConfig(wssConfig);
+        boolean mu =
+            decodeBooleanConfigValue(reqData.getMsgContext(), WSHandlerConstants.MUST_UNDERSTAND, true);
+        List<HandlerAction> actionsToPerform = getActionsToPerform(actions, reqData);
+        performSenderActions(doc, reqData, actionsToPerform, mu, isRequest);
+    }
+
+    /**
+     * Performs all defined security actions to set-up the SOAP request, using a
+     * SenderActionPlan that holds the decoded configuration of the actions.
+     *
+     * @param doc   the request as DOM document
+     * @param reqData the RequestData of the message, as created by
+     *                {@link SenderActionPlan#createRequestData(Object)}
+     * @param plan the SenderActionPlan to perform
+     * @throws WSSecurityException
+     */
+    protected void doSenderAction(
+            Document doc,
+            RequestData reqData,
+            SenderActionPlan plan,
+            boolean isRequest
+    ) throws WSSecurityException {
+        SOAPConstants soapConstants = WSSecurityUtil.getSOAPConstants(doc.getDocumentElement());
+        if (!soapConstants.getEnvelopeURI().equals(plan.getSoapConstants().getEnvelopeURI())) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty",
+                new Object[] {"WSHandler: the SOAP version of the message does not match the action plan"});
         }
+        reqData.setSoapConstants(soapConstants);
+        reqData.setAppendSignatureAfterTimestamp(plan.isAppendSignatureAfterTimestamp());
+        reqData.setOriginalSignatureActionPosition(plan.getOriginalSignatureActionPosition());
+        // The certificate of the request signature is specific to the message
+        handleSpecialUser(reqData);
 
-        if (reqData.getWsDocInfo() == null) {
-            WSDocInfo wsDocInfo = new WSDocInfo(doc);
-            reqData.setWsDocInfo(wsDocInfo);
+        performSenderActions(doc, reqData, plan.createActionsToPerform(), plan.isMustUnderstand(), isRequest);
+    }
+
+    /**
+     * Decode the configuration of the given actions once, and return it as a SenderActionPlan,
+     * which can be used to secure any number of messages with
+     * {@link #doSenderAction(Document, RequestData, SenderActionPlan, boolean)}. The options are
+     * read via the message context of the given RequestData, which may be null.
+     *
+     * @param reqData the RequestData to decode the configuration into
+     * @param actions a list holding the actions to do, as for
+     *                {@link #doSenderAction(Document, RequestData, List, boolean)}
+     * @param soapConstants the SOAP version of the messages to secure
+     * @return the SenderActionPlan
+     * @throws WSSecurityException
+     */
+    protected SenderActionPlan compileSenderActionPlan(
+            RequestData reqData,
+            List<HandlerAction> actions,
+            SOAPConstants soapConstants
+    ) throws WSSecurityException {
+        reqData.setSoapConstants(soapConstants);
+        decodeSenderParameters(reqData, actions);
+
+        boolean mu =
+            decodeBooleanConfigValue(reqData.getMsgContext(), WSHandlerConstants.MUST_UNDERSTAND, true);
+        List<HandlerAction> actionsToPerform = getActionsToPerform(actions, reqData);
+        return new SenderActionPlan(reqData, actions, actionsToPerform, mu);
+    }
+
+    /**
+     * Decode the configuration of the given actions into the RequestData
+     */
+    private void decodeSenderParameters(
+            RequestData reqData,
+            List<HandlerAction> actions
+    ) throws WSSecurityException {
+        if (reqData.getWssConfig() == null) {
+            reqData.setWssConfig(WSSConfig.getNewInstance());
         }
 
         Object mc = reqData.getMsgContext();
@@ -112,12 +180,6 @@ public abstract class WSHandler {
         String actor = getString(WSHandlerConstants.ACTOR, mc);
         reqData.setActor(actor);
 
-        boolean mu = decodeBooleanConfigValue(mc, WSHandlerConstants.MUST_UNDERSTAND, true);
-        WSSecHeader secHeader = new WSSecHeader(actor, mu, doc);
-        secHeader.insertSecurityHeader();
-        reqData.setSecHeader(secHeader);
-        reqData.setSoapConstants(WSSecurityUtil.getSOAPConstants(doc.getDocumentElement()));
-
         // Load CallbackHandler
         if (reqData.getCallbackHandler() == null) {
             CallbackHandler passwordCallbackHandler = getPasswordCallbackHandler(reqData);
@@ -182,6 +244,57 @@ public abstract class WSHandler {
             }
         }
 
+        if (reqData.getSignatureToken() == null) {
+            reqData.setSignatureToken(new SignatureActionToken());
+        }
+    }
+
+    /**
+     * See if the Signature and Timestamp actions (in that order) are defined, and if
+     * the Timestamp is to be signed. In this case we need to swap the actions, as the
+     * Timestamp must appear in the security header first for signature creation to work.
+     */
+    private List<HandlerAction> getActionsToPerform(
+            List<HandlerAction> actions,
+            RequestData reqData
+    ) {
+        List<HandlerAction> actionsToPerform = actions;
+        HandlerAction signingAction = getSignatureActionThatSignsATimestamp(actions, reqData);
+
+        if (signingAction != null) {
+            actionsToPerform = new ArrayList<>(actions);
+            Collections.copy(actionsToPerform, actions);
+
+            int signatureIndex = actions.indexOf(signingAction);
+            actionsToPerform.remove(signingAction);
+            actionsToPerform.add(signingAction);
+            reqData.setAppendSignatureAfterTimestamp(true);
+            reqData.setOriginalSignatureActionPosition(signatureIndex);
+        }
+        return actionsToPerform;
+    }
+
+    /**
+     * Perform the given actions on a message, using the decoded configuration of the RequestData
+     */
+    private void performSenderActions(
+            Document doc,
+            RequestData reqData,
+            List<HandlerAction> actionsToPerform,
+            boolean mu,
+            boolean isRequest
+    ) throws WSSecurityException {
+        WSSConfig wssConfig = reqData.getWssConfig();
+
+        if (reqData.getWsDocInfo() == null) {
+            WSDocInfo wsDocInfo = new WSDocInfo(doc);
+            reqData.setWsDocInfo(wsDocInfo);
+        }
+
+        WSSecHeader secHeader = new WSSecHeader(reqData.getActor(), mu, doc);
+        secHeader.insertSecurityHeader();
+        reqData.setSecHeader(secHeader);
+
         /*
          * If after all the parsing no Signature parts defined, set here a
          * default set. This is necessary because we add SignatureConfirmation
@@ -189,10 +302,6 @@ public abstract class WSHandler {
          * in WSSignEnvelope doesn't work because the vector is not empty anymore.
          */
         SignatureActionToken signatureToken = reqData.getSignatureToken();
-        if (signatureToken == null) {
-            signatureToken = new SignatureActionToken();
-            reqData.setSignatureToken(signatureToken);
-        }
         if (signatureToken.getParts().isEmpty()) {
             signatureToken.getParts().add(WSSecurityUtil.getDefaultEncryptionPart(doc));
         }
@@ -210,23 +319,6 @@ public abstract class WSHandler {
             }
         }
 
-        // See if the Signature and Timestamp actions (in that order) are defined, and if
-        // the Timestamp is to be signed. In this case we need to swap the actions, as the
-        // Timestamp must appear in the security header first for signature creation to work.
-        List<HandlerAction> actionsToPerform = actions;
-        HandlerAction signingAction = getSignatureActionThatSignsATimestamp(actions, reqData);
-
-        if (signingAction != null) {
-            actionsToPerform = new ArrayList<>(actions);
-            Collections.copy(actionsToPerform, actions);
-
-            int signatureIndex = actions.indexOf(signingAction);
-            actionsToPerform.remove(signingAction);
-            actionsToPerform.add(signingAction);
-            reqData.setAppendSignatureAfterTimestamp(true);
-            reqData.setOriginalSignatureActionPosition(signatureIndex);
-        }
-
         /*
          * Here we have all necessary information to perform the requested
          * action(s).
@@ -332,6 +424,9 @@ public abstract class WSHandler {
         reqData.setValidateSamlSubjectConfirmation(
             decodeBooleanConfigValue(mc, WSHandlerConstants.VALIDATE_SAML_SUBJECT_CONFIRMATION, true)
         );
+        reqData.setIndexElementIds(
+            decodeBooleanConfigValue(mc, WSHandlerConstants.INDEX_ELEMENT_IDS, false)
+        );
 
         boolean bspCompliant =
             decodeBooleanConfigValue(mc, WSHandlerConstants.IS_BSP_COMPLIANT, true);
@@ -363,6 +458,22 @@ public abstract class WSHandler {
         );
     }
 
+    /**
+     * Decode the receiver configuration for the given actions once, and return it as a
+     * ReceiverProfile, which can be used to process any number of messages. The options are
+     * read via the message context of the given RequestData, which may be null.
+     *
+     * @param actions the expected actions
+     * @param reqData the RequestData to decode the configuration into
+     * @return the ReceiverProfile
+     * @throws WSSecurityException
+     */
+    protected ReceiverProfile compileReceiverProfile(List<Integer> actions, RequestData reqData)
+        throws WSSecurityException {
+        doReceiverAction(actions, reqData);
+        return new ReceiverProfile(reqData, actions);
+    }
+
     protected boolean checkReceiverResults(
         List<WSSecurityEngineResult> wsResult, List<Integer> actions
     ) {
@@ -626,6 +737,10 @@ public abstract class WSHandler {
             decodeBooleanConfigValue(mc, WSHandlerConstants.INCLUDE_SIGNATURE_TOKEN, false);
         actionToken.setIncludeToken(includeToken);
 
+        boolean parallelDigests =
+            decodeBooleanConfigValue(mc, WSHandlerConstants.PARALLEL_SIGNATURE_DIGESTS, false);
+        reqData.setParallelSignatureDigests(parallelDigests);
+
         if (!reqData.isExpandXopInclude()) {
             boolean expandXOP =
                 decodeBooleanConfigValue(
@@ -776,6 +891,12 @@ public abstract class WSHandler {
         boolean includeToken =
             decodeBooleanConfigValue(mc, WSHandlerConstants.INCLUDE_ENCRYPTION_TOKEN, false);
         actionToken.setIncludeToken(includeToken);
+
+        Object encryptedKeySessionCache =
+            getProperty(mc, WSHandlerConstants.ENCRYPTED_KEY_SESSION_CACHE_INSTANCE);
+        if (encryptedKeySessionCache instanceof EncryptedKeySessionCache) {
+            reqData.setEncryptedKeySessionCache((EncryptedKeySessionCache)encryptedKeySessionCache);
+        }
     }
 
     /**
@@ -1368,6 +1489,12 @@ public abstract class WSHandler {
             );
         }
         reqData.setExpandXopInclude(expandXOP);
+
+        boolean parallelSignatureVerification =
+            decodeBooleanConfigValue(
+                reqData.getMsgContext(), WSHandlerConstants.PARALLEL_SIGNATURE_VERIFICATION, false
+            );
+        reqData.setParallelSignatureVerification(parallelSignatureVerification);
     }
 
     private Collection<Pattern> getCertConstraints(String certConstraints, String separator) throws WSSecurityException {
@@ -1405,6 +1532,18 @@ public abstract class WSHandler {
                 false
             );
         reqData.setAllowRSA15KeyTransportAlgorithm(allowRsa15);
+
+        boolean parallelDecryption =
+            decodeBooleanConfigValue(
+                reqData.getMsgContext(), WSHandlerConstants.PARALLEL_DECRYPTION, false
+            );
+        reqData.setParallelDecryption(parallelDecryption);
+
+        Object encryptedKeyCache =
+            getProperty(reqData.getMsgContext(), WSHandlerConstants.ENCRYPTED_KEY_CACHE_INSTANCE);
+        if (encryptedKeyCache instanceof EncryptedKeyCache) {
+            reqData.setEncryptedKeyCache((EncryptedKeyCache)encryptedKeyCache);
+        }
     }
 
     /**
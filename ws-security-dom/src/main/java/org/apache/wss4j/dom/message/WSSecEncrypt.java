@@ -19,18 +19,23 @@
 
 package org.apache.wss4j.dom.message;
 
+import java.security.MessageDigest;
+import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.crypto.SecretKey;
+import javax.crypto.spec.PSource;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.DestroyFailedException;
 
 import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.Reference;
 import org.apache.wss4j.common.token.SecurityTokenReference;
+import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.message.token.KerberosSecurity;
@@ -81,6 +86,13 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
      */
     private String symEncAlgo = WSConstants.AES_128;
 
+    private EncryptedKeySessionCache encryptedKeySessionCache;
+
+    /**
+     * The symmetric key that was obtained from the EncryptedKeySessionCache, if any
+     */
+    private byte[] sessionKey;
+
     public WSSecEncrypt(WSSecHeader securityHeader) {
         super(securityHeader);
     }
@@ -114,6 +126,58 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
     }
 
 
+    /**
+     * Get the symmetric key of the current session with the recipient from the
+     * EncryptedKeySessionCache, if one is set. The key must then be passed to
+     * <code>prepare()</code> or <code>build()</code>, so that the EncryptedKey
+     * of the session is reused instead of wrapping the key again.
+     *
+     * @param crypto An instance of the Crypto API to handle keystore and certificates
+     * @return the symmetric key of the session, or null if a new key must be generated
+     * @throws WSSecurityException
+     */
+    public SecretKey getSessionKey(Crypto crypto) throws WSSecurityException {
+        if (encryptedKeySessionCache == null || !encryptSymmKey) {
+            return null;
+        }
+        sessionKey =
+            encryptedKeySessionCache.getSessionKey(getSessionContext(getEncryptingKey(crypto)), symEncAlgo);
+        if (sessionKey == null) {
+            return null;
+        }
+        return KeyUtils.prepareSecretKey(symEncAlgo, sessionKey);
+    }
+
+    @Override
+    protected byte[] encryptSymmetricKey(PublicKey encryptingKey, SecretKey keyToBeEncrypted)
+        throws WSSecurityException {
+        if (encryptedKeySessionCache == null) {
+            return super.encryptSymmetricKey(encryptingKey, keyToBeEncrypted);
+        }
+        String context = getSessionContext(encryptingKey);
+        byte[] secretKey = keyToBeEncrypted.getEncoded();
+        if (sessionKey != null && MessageDigest.isEqual(sessionKey, secretKey)) {
+            byte[] encryptedEphemeralKey = encryptedKeySessionCache.getEncryptedKey(context, secretKey);
+            if (encryptedEphemeralKey != null) {
+                LOG.debug("Reusing the EncryptedKey of the current key session");
+                return encryptedEphemeralKey;
+            }
+            // The session was replaced in the meantime, so the key is wrapped again for this
+            // message only
+            return super.encryptSymmetricKey(encryptingKey, keyToBeEncrypted);
+        }
+
+        byte[] encryptedEphemeralKey = super.encryptSymmetricKey(encryptingKey, keyToBeEncrypted);
+        encryptedKeySessionCache.putSession(context, symEncAlgo, secretKey, encryptedEphemeralKey);
+        return encryptedEphemeralKey;
+    }
+
+    private String getSessionContext(PublicKey encryptingKey) {
+        // The key is always wrapped with the default (empty) OAEP parameters, see encryptSymmetricKey
+        return EncryptedKeySessionCache.getContext(encryptingKey, getKeyEncAlgo(), getDigestAlgorithm(),
+                                                   getMGFAlgorithm(), PSource.PSpecified.DEFAULT.getValue());
+    }
+
     /**
      * Builds the SOAP envelope with encrypted Body and adds encrypted key.
      *
@@ -454,6 +518,19 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         this.encryptionSerializer = encryptionSerializer;
     }
 
+    public EncryptedKeySessionCache getEncryptedKeySessionCache() {
+        return encryptedKeySessionCache;
+    }
+
+    /**
+     * Set the cache of symmetric key sessions, so that a symmetric key and the EncryptedKey
+     * that wraps it are reused for several messages to the same recipient. See
+     * {@link #getSessionKey(Crypto)}.
+     */
+    public void setEncryptedKeySessionCache(EncryptedKeySessionCache encryptedKeySessionCache) {
+        this.encryptedKeySessionCache = encryptedKeySessionCache;
+    }
+
     /**
      * Set the name of the symmetric encryption algorithm to use.
      *
@@ -42,6 +42,7 @@ import javax.xml.crypto.dsig.keyinfo.KeyValue;
 
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.BinarySecurity;
 import org.apache.wss4j.common.token.DOMX509Data;
@@ -184,29 +185,7 @@ public class WSSecEncryptedKey extends WSSecBase {
             byte[] encryptedEphemeralKey = encryptSymmetricKey(useThisPublicKey, symmetricKey);
             addCipherValueElement(encryptedEphemeralKey);
         } else {
-            //
-            // Get the certificate that contains the public key for the public key
-            // algorithm that will encrypt the generated symmetric (session) key.
-            //
-            X509Certificate remoteCert = useThisCert;
-            if (remoteCert == null) {
-                CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
-                cryptoType.setAlias(user);
-                if (crypto == null) {
-                    throw new WSSecurityException(
-                                                  WSSecurityException.ErrorCode.FAILURE,
-                                                  "noUserCertsFound",
-                                                  new Object[] {user, "encryption"});
-                }
-                X509Certificate[] certs = crypto.getX509Certificates(cryptoType);
-                if (certs == null || certs.length <= 0) {
-                    throw new WSSecurityException(
-                                                  WSSecurityException.ErrorCode.FAILURE,
-                                                  "noUserCertsFound",
-                                                  new Object[] {user, "encryption"});
-                }
-                remoteCert = certs[0];
-            }
+            X509Certificate remoteCert = getRemoteCert(crypto);
 
             createEncryptedKeyElement(remoteCert, crypto);
             byte[] encryptedEphemeralKey = encryptSymmetricKey(remoteCert.getPublicKey(), symmetricKey);
@@ -214,6 +193,44 @@ public class WSSecEncryptedKey extends WSSecBase {
         }
     }
 
+    /**
+     * Get the public key that is used to encrypt the symmetric key, either the public key or the
+     * public key of the certificate that is set on the class, or else the public key of the
+     * certificate of the user from the Crypto instance.
+     */
+    protected PublicKey getEncryptingKey(Crypto crypto) throws WSSecurityException {
+        if (useThisPublicKey != null) {
+            return useThisPublicKey;
+        }
+        return getRemoteCert(crypto).getPublicKey();
+    }
+
+    /**
+     * Get the certificate that contains the public key for the public key
+     * algorithm that will encrypt the generated symmetric (session) key.
+     */
+    private X509Certificate getRemoteCert(Crypto crypto) throws WSSecurityException {
+        if (useThisCert != null) {
+            return useThisCert;
+        }
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(user);
+        if (crypto == null) {
+            throw new WSSecurityException(
+                                          WSSecurityException.ErrorCode.FAILURE,
+                                          "noUserCertsFound",
+                                          new Object[] {user, "encryption"});
+        }
+        X509Certificate[] certs = crypto.getX509Certificates(cryptoType);
+        if (certs == null || certs.length <= 0) {
+            throw new WSSecurityException(
+                                          WSSecurityException.ErrorCode.FAILURE,
+                                          "noUserCertsFound",
+                                          new Object[] {user, "encryption"});
+        }
+        return certs[0];
+    }
+
     /**
      * Create and add the CipherValue Element to the EncryptedKey Element.
      */
@@ -546,6 +563,8 @@ public class WSSecEncryptedKey extends WSSecBase {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILED_ENCRYPTION, ex
             );
+        } finally {
+            JCAInstancePool.release(cipher);
         }
     }
 
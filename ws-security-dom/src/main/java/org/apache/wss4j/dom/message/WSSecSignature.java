@@ -26,7 +26,10 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
+import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.Destroyable;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.XMLStructure;
@@ -63,6 +66,7 @@ import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.message.token.KerberosSecurity;
 import org.apache.wss4j.dom.transform.STRTransform;
+import org.apache.wss4j.dom.util.ParallelUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -111,6 +115,8 @@ public class WSSecSignature extends WSSecSignatureBase {
     private boolean addInclusivePrefixes = true;
     private Element customKeyInfoElement;
     private Provider signatureProvider;
+    private boolean parallelDigests;
+    private Executor executor;
 
     public WSSecSignature(WSSecHeader securityHeader) {
         super(securityHeader);
@@ -567,10 +573,14 @@ public class WSSecSignature extends WSSecSignatureBase {
             } else {
                 key = KeyUtils.prepareSecretKey(sigAlgo, secretKey);
             }
+            List<javax.xml.crypto.dsig.Reference> references = referenceList;
+            if (parallelDigests) {
+                references = digestReferencesInParallel(referenceList);
+            }
             SignatureMethod signatureMethod =
                 signatureFactory.newSignatureMethod(sigAlgo, null);
             SignedInfo signedInfo =
-                signatureFactory.newSignedInfo(c14nMethod, signatureMethod, referenceList);
+                signatureFactory.newSignedInfo(c14nMethod, signatureMethod, references);
 
             sig = signatureFactory.newXMLSignature(
                     signedInfo,
@@ -638,6 +648,92 @@ public class WSSecSignature extends WSSecSignatureBase {
         }
     }
 
+    /**
+     * Compute the digests of the References that only read the referenced data in parallel.
+     * Each Reference is digested by signing a throwaway SignedInfo that only contains a copy of
+     * it with an (unused) HMAC key, in a separate context and document. The References are then
+     * replaced by References with the precomputed digest values, in the original order, which
+     * XMLSignature.sign does not digest again.
+     *
+     * @param referenceList The list of references to sign
+     * @return the list of references, with precomputed digest values where possible
+     */
+    private List<javax.xml.crypto.dsig.Reference> digestReferencesInParallel(
+        List<javax.xml.crypto.dsig.Reference> referenceList
+    ) throws Exception {
+        List<Integer> indexes = new ArrayList<>();
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int i = 0; i < referenceList.size(); i++) {
+            final javax.xml.crypto.dsig.Reference reference = referenceList.get(i);
+            if (!ParallelUtils.isParallelReference(reference, true)) {
+                continue;
+            }
+            String uri = reference.getURI();
+            if (uri.charAt(0) == '#') {
+                Element element = getWsDocInfo().getTokenElement(uri);
+                if (element == null) {
+                    continue;
+                }
+                // Make sure that the referenced Nodes exist before they are read concurrently
+                ParallelUtils.expandNodes(element);
+            }
+            // The throwaway Signature is created in a separate document, so that the tasks do
+            // not modify the document that is signed
+            final Document scratchDoc =
+                getDocument().getImplementation().createDocument(null, null, null);
+            indexes.add(i);
+            tasks.add(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return digestReference(reference, scratchDoc);
+                }
+            });
+        }
+
+        if (tasks.size() < 2) {
+            return referenceList;
+        }
+        LOG.debug("Digesting {} References in parallel", tasks.size());
+        List<byte[]> digestValues = ParallelUtils.invokeAll(tasks, executor);
+
+        List<javax.xml.crypto.dsig.Reference> references = new ArrayList<>(referenceList);
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            javax.xml.crypto.dsig.Reference reference = referenceList.get(index);
+            references.set(index,
+                signatureFactory.newReference(
+                    reference.getURI(), reference.getDigestMethod(), reference.getTransforms(),
+                    reference.getType(), reference.getId(), digestValues.get(i)
+                )
+            );
+        }
+        return references;
+    }
+
+    private byte[] digestReference(
+        javax.xml.crypto.dsig.Reference reference, Document scratchDoc
+    ) throws Exception {
+        javax.xml.crypto.dsig.Reference copy =
+            signatureFactory.newReference(
+                reference.getURI(), reference.getDigestMethod(), reference.getTransforms(),
+                reference.getType(), reference.getId()
+            );
+        SignedInfo signedInfo =
+            signatureFactory.newSignedInfo(
+                signatureFactory.newCanonicalizationMethod(
+                    CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec)null
+                ),
+                signatureFactory.newSignatureMethod(SignatureMethod.HMAC_SHA1, null),
+                Collections.singletonList(copy)
+            );
+        Element parent = scratchDoc.createElementNS(null, "Digest");
+        scratchDoc.appendChild(parent);
+
+        DOMSignContext signContext = new DOMSignContext(new SecretKeySpec(new byte[20], "HmacSHA1"), parent);
+        getWsDocInfo().setTokenOnContext(reference.getURI(), signContext);
+        signatureFactory.newXMLSignature(signedInfo, null).sign(signContext);
+        return copy.getDigestValue();
+    }
+
     /**
      * Set the single cert flag.
      *
@@ -949,4 +1045,29 @@ public class WSSecSignature extends WSSecSignatureBase {
     public void setSignatureProvider(Provider signatureProvider) {
         this.signatureProvider = signatureProvider;
     }
+
+    public boolean isParallelDigests() {
+        return parallelDigests;
+    }
+
+    /**
+     * Set whether to compute the digests of the References in parallel, using the configured
+     * Executor. The References of the SignedInfo are kept in their original order. Note that the
+     * attachment CallbackHandler must be thread-safe in this case.
+     */
+    public void setParallelDigests(boolean parallelDigests) {
+        this.parallelDigests = parallelDigests;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the Executor used to compute the digests in parallel, if this is enabled. The default
+     * is the common ForkJoinPool.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
 }
@@ -45,9 +45,12 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
+import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.SecurityTokenReference;
@@ -222,10 +225,24 @@ public class EncryptedKeyProcessor implements Processor {
         if (symmetricKeyWrap) {
             decryptedBytes = getSymmetricDecryptedBytes(data, data.getWsDocInfo(), keyInfoChildElement, refList);
         } else {
+            if (data.getDecCrypto() == null) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noDecCryptoFile");
+            }
+            // The private key must be available to this endpoint, even if the key is cached
             PrivateKey privateKey = getPrivateKey(data, certs, publicKey);
-            decryptedBytes = getAsymmetricDecryptedBytes(data, data.getWsDocInfo(), encryptedKeyTransportMethod,
-                                                         encryptedEphemeralKey, refList,
-                                                         elem, privateKey);
+
+            EncryptedKeyCache encryptedKeyCache = data.getEncryptedKeyCache();
+            String cacheContext = null;
+            if (encryptedKeyCache != null) {
+                cacheContext = getCacheContext(encryptedKeyTransportMethod, elem, publicKey, data.getDecCrypto());
+                decryptedBytes = encryptedKeyCache.get(encryptedEphemeralKey, cacheContext);
+            }
+
+            if (decryptedBytes == null) {
+                decryptedBytes = getAsymmetricDecryptedBytes(data, data.getWsDocInfo(), encryptedKeyTransportMethod,
+                                                             encryptedEphemeralKey, refList,
+                                                             elem, privateKey, cacheContext);
+            }
 
             // Clean the private key from memory
             try {
@@ -302,11 +319,9 @@ public class EncryptedKeyProcessor implements Processor {
         byte[] encryptedEphemeralKey,
         Element refList,
         Element encryptedKeyElement,
-        PrivateKey privateKey
+        PrivateKey privateKey,
+        String cacheContext
     ) throws WSSecurityException {
-        if (data.getDecCrypto() == null) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noDecCryptoFile");
-        }
         String cryptoProvider = data.getDecCrypto().getCryptoProvider();
         Cipher cipher = KeyUtils.getCipherInstance(encryptedKeyTransportMethod, cryptoProvider);
         try {
@@ -357,14 +372,48 @@ public class EncryptedKeyProcessor implements Processor {
 
         try {
             String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
-            return cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+            byte[] decryptedBytes =
+                cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+            // Only keys that were unwrapped successfully are cached, never the random key below
+            if (cacheContext != null) {
+                data.getEncryptedKeyCache().put(encryptedEphemeralKey, cacheContext, decryptedBytes);
+            }
+            return decryptedBytes;
         } catch (IllegalStateException ex) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
         } catch (Exception ex) {
             return getRandomKey(refList, wsDocInfo);
+        } finally {
+            JCAInstancePool.release(cipher);
         }
     }
 
+    /**
+     * Get the context that a key unwrapped from the EncryptedKey is cached in. It consists of the
+     * decryption Crypto, the key transport algorithm, its parameters and the public key, so that
+     * a cached key is only used for an EncryptedKey that would be unwrapped with the same private
+     * key of the same Crypto in the same way, if the cache is shared between endpoints.
+     */
+    private static String getCacheContext(
+        String encryptedKeyTransportMethod,
+        Element encryptedKeyElement,
+        PublicKey publicKey,
+        Crypto decCrypto
+    ) throws WSSecurityException {
+        StringBuilder context = new StringBuilder(decCrypto.getClass().getName());
+        context.append('@').append(Integer.toHexString(System.identityHashCode(decCrypto)));
+        context.append('|').append(encryptedKeyTransportMethod);
+        context.append('|').append(EncryptionUtils.getDigestAlgorithm(encryptedKeyElement));
+        context.append('|').append(EncryptionUtils.getMGFAlgorithm(encryptedKeyElement));
+        byte[] pSourceBytes = EncryptionUtils.getPSource(encryptedKeyElement);
+        if (pSourceBytes != null) {
+            context.append('|').append(org.apache.xml.security.utils.XMLUtils.encodeToString(pSourceBytes));
+        }
+        byte[] publicKeyDigest = KeyUtils.generateDigest(publicKey.getEncoded());
+        context.append('|').append(org.apache.xml.security.utils.XMLUtils.encodeToString(publicKeyDigest));
+        return context.toString();
+    }
+
     private static boolean isSymmetricKeyWrap(String transportAlgorithm) {
         return XMLCipher.AES_128_KeyWrap.equals(transportAlgorithm)
             || XMLCipher.AES_192_KeyWrap.equals(transportAlgorithm)
@@ -394,16 +443,18 @@ public class EncryptedKeyProcessor implements Processor {
                 alg = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
                 size = KeyUtils.getKeyLength(algorithmURI);
             }
-            KeyGenerator kgen = KeyGenerator.getInstance(alg);
+            KeyGenerator kgen = JCAInstancePool.getKeyGenerator(alg);
             kgen.init(size * 8);
             SecretKey k = kgen.generateKey();
+            JCAInstancePool.release(kgen);
             return k.getEncoded();
         } catch (Throwable ex) {
             // Fallback to just using AES to avoid attacks on EncryptedData algorithms
             try {
-                KeyGenerator kgen = KeyGenerator.getInstance("AES");
+                KeyGenerator kgen = JCAInstancePool.getKeyGenerator("AES");
                 kgen.init(128);
                 SecretKey k = kgen.generateKey();
+                JCAInstancePool.release(kgen);
                 return k.getEncoded();
             } catch (NoSuchAlgorithmException e) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, e);
@@ -526,6 +577,12 @@ public class EncryptedKeyProcessor implements Processor {
         }
 
         List<WSDataRef> dataRefs = new ArrayList<>();
+        // The EncryptedData elements that are decrypted in parallel
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs = null;
+        if (data.isParallelDecryption()) {
+            encryptedDataRefs = new ArrayList<>();
+        }
+        Document doc = refList.getOwnerDocument();
         for (Node node = refList.getFirstChild(); node != null; node = node.getNextSibling()) {
             if (Node.ELEMENT_NODE == node.getNodeType()
                     && WSConstants.ENC_NS.equals(node.getNamespaceURI())
@@ -533,15 +590,69 @@ public class EncryptedKeyProcessor implements Processor {
                 String dataRefURI = ((Element) node).getAttributeNS(null, "URI");
                 dataRefURI = XMLUtils.getIDFromReference(dataRefURI);
 
+                if (encryptedDataRefs != null) {
+                    EncryptionUtils.EncryptedDataRef encryptedDataRef =
+                        prepareParallelDecryption(doc, dataRefURI, docInfo, decryptedBytes, encryptedDataRefs, data);
+                    if (encryptedDataRef != null) {
+                        encryptedDataRefs.add(encryptedDataRef);
+                        continue;
+                    }
+                    // Decrypt the EncryptedData elements found so far, and the remaining ones
+                    // one after another
+                    dataRefs.addAll(decryptInParallel(doc, encryptedDataRefs, data));
+                    encryptedDataRefs = null;
+                }
                 WSDataRef dataRef =
-                    decryptDataRef(refList.getOwnerDocument(), dataRefURI, docInfo, decryptedBytes, data);
+                    decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data);
                 dataRefs.add(dataRef);
             }
         }
+        if (encryptedDataRefs != null) {
+            dataRefs.addAll(decryptInParallel(doc, encryptedDataRefs, data));
+        }
 
         return dataRefs;
     }
 
+    /**
+     * Prepare the decryption of the EncryptedData element referenced by dataRefURI in parallel
+     * with the given ones. Null is returned if it cannot be decrypted in parallel, because it
+     * is not in the document yet (as it is part of another EncryptedData element), or because
+     * it is referenced twice.
+     */
+    private EncryptionUtils.EncryptedDataRef prepareParallelDecryption(
+        Document doc,
+        String dataRefURI,
+        WSDocInfo docInfo,
+        byte[] decryptedData,
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs,
+        RequestData data
+    ) throws WSSecurityException {
+        if (docInfo.getCallbackLookup().getElement(dataRefURI, null, true) == null) {
+            return null;
+        }
+        EncryptionUtils.EncryptedDataRef encryptedDataRef =
+            prepareDataRef(doc, dataRefURI, docInfo, decryptedData, data);
+        for (EncryptionUtils.EncryptedDataRef previousDataRef : encryptedDataRefs) {
+            if (previousDataRef.getEncryptedElement() == encryptedDataRef.getEncryptedElement()) {
+                return null;
+            }
+        }
+        return encryptedDataRef;
+    }
+
+    private List<WSDataRef> decryptInParallel(
+        Document doc,
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs,
+        RequestData data
+    ) throws WSSecurityException {
+        return
+            EncryptionUtils.decryptEncryptedData(
+                doc, encryptedDataRefs, data.getAttachmentCallbackHandler(), data.getEncryptionSerializer(),
+                data.getWsDocInfo().getCallbackLookup(), data.getExecutor()
+            );
+    }
+
     /**
      * Decrypt an EncryptedData element referenced by dataRefURI
      */
@@ -551,6 +662,26 @@ public class EncryptedKeyProcessor implements Processor {
         WSDocInfo docInfo,
         byte[] decryptedData,
         RequestData data
+    ) throws WSSecurityException {
+        EncryptionUtils.EncryptedDataRef encryptedDataRef =
+            prepareDataRef(doc, dataRefURI, docInfo, decryptedData, data);
+        return EncryptionUtils.decryptEncryptedData(
+            doc, dataRefURI, encryptedDataRef.getEncryptedElement(), encryptedDataRef.getSymmetricKey(),
+            encryptedDataRef.getAlgorithm(), data.getAttachmentCallbackHandler(),
+            data.getEncryptionSerializer(), data.getWsDocInfo().getCallbackLookup()
+        );
+    }
+
+    /**
+     * Find the EncryptedData element referenced by dataRefURI, and prepare the SecretKey to
+     * decrypt it with
+     */
+    private EncryptionUtils.EncryptedDataRef prepareDataRef(
+        Document doc,
+        String dataRefURI,
+        WSDocInfo docInfo,
+        byte[] decryptedData,
+        RequestData data
     ) throws WSSecurityException {
         LOG.debug("found data reference: {}", dataRefURI);
         //
@@ -603,10 +734,7 @@ public class EncryptedKeyProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return EncryptionUtils.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-            data.getEncryptionSerializer()
-        );
+        return new EncryptionUtils.EncryptedDataRef(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
     }
 
     /**
@@ -83,6 +83,11 @@ public class ReferenceListProcessor implements Processor {
         RequestData data
     ) throws WSSecurityException {
         List<WSDataRef> dataRefs = new ArrayList<>();
+        // The EncryptedData elements that are decrypted in parallel
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs = null;
+        if (data.isParallelDecryption()) {
+            encryptedDataRefs = new ArrayList<>();
+        }
         for (Node node = elem.getFirstChild();
             node != null;
             node = node.getNextSibling()
@@ -94,17 +99,69 @@ public class ReferenceListProcessor implements Processor {
                 dataRefURI = XMLUtils.getIDFromReference(dataRefURI);
 
                 // See whether we have already processed the encrypted node
-                if (!data.getWsDocInfo().hasResult(WSConstants.ENCR, dataRefURI)) {
-                    WSDataRef dataRef =
-                        decryptDataRefEmbedded(elem.getOwnerDocument(), dataRefURI, data);
-                    dataRefs.add(dataRef);
+                if (data.getWsDocInfo().hasResult(WSConstants.ENCR, dataRefURI)) {
+                    continue;
+                }
+                if (encryptedDataRefs != null) {
+                    EncryptionUtils.EncryptedDataRef encryptedDataRef =
+                        prepareParallelDecryption(elem.getOwnerDocument(), dataRefURI, encryptedDataRefs, data);
+                    if (encryptedDataRef != null) {
+                        encryptedDataRefs.add(encryptedDataRef);
+                        continue;
+                    }
+                    // Decrypt the EncryptedData elements found so far, and the remaining ones
+                    // one after another
+                    dataRefs.addAll(decryptInParallel(elem.getOwnerDocument(), encryptedDataRefs, data));
+                    encryptedDataRefs = null;
                 }
+                WSDataRef dataRef =
+                    decryptDataRefEmbedded(elem.getOwnerDocument(), dataRefURI, data);
+                dataRefs.add(dataRef);
             }
         }
+        if (encryptedDataRefs != null) {
+            dataRefs.addAll(decryptInParallel(elem.getOwnerDocument(), encryptedDataRefs, data));
+        }
 
         return dataRefs;
     }
 
+    /**
+     * Prepare the decryption of the EncryptedData element referenced by dataRefURI in parallel
+     * with the given ones. Null is returned if it cannot be decrypted in parallel, because it
+     * is not in the document yet (as it is part of another EncryptedData element), or because
+     * it is referenced twice.
+     */
+    private EncryptionUtils.EncryptedDataRef prepareParallelDecryption(
+        Document doc,
+        String dataRefURI,
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs,
+        RequestData data
+    ) throws WSSecurityException {
+        if (data.getWsDocInfo().getCallbackLookup().getElement(dataRefURI, null, true) == null) {
+            return null;
+        }
+        EncryptionUtils.EncryptedDataRef encryptedDataRef = prepareDataRefEmbedded(doc, dataRefURI, data);
+        for (EncryptionUtils.EncryptedDataRef previousDataRef : encryptedDataRefs) {
+            if (previousDataRef.getEncryptedElement() == encryptedDataRef.getEncryptedElement()) {
+                return null;
+            }
+        }
+        return encryptedDataRef;
+    }
+
+    private List<WSDataRef> decryptInParallel(
+        Document doc,
+        List<EncryptionUtils.EncryptedDataRef> encryptedDataRefs,
+        RequestData data
+    ) throws WSSecurityException {
+        return
+            EncryptionUtils.decryptEncryptedData(
+                doc, encryptedDataRefs, data.getAttachmentCallbackHandler(), data.getEncryptionSerializer(),
+                data.getWsDocInfo().getCallbackLookup(), data.getExecutor()
+            );
+    }
+
 
     /**
      * Decrypt an (embedded) EncryptedData element referenced by dataRefURI.
@@ -113,6 +170,24 @@ public class ReferenceListProcessor implements Processor {
         Document doc,
         String dataRefURI,
         RequestData data
+    ) throws WSSecurityException {
+        EncryptionUtils.EncryptedDataRef encryptedDataRef = prepareDataRefEmbedded(doc, dataRefURI, data);
+        return
+            EncryptionUtils.decryptEncryptedData(
+                doc, dataRefURI, encryptedDataRef.getEncryptedElement(), encryptedDataRef.getSymmetricKey(),
+                encryptedDataRef.getAlgorithm(), data.getAttachmentCallbackHandler(),
+                data.getEncryptionSerializer(), data.getWsDocInfo().getCallbackLookup()
+            );
+    }
+
+    /**
+     * Find the (embedded) EncryptedData element referenced by dataRefURI, and the SecretKey to
+     * decrypt it with.
+     */
+    private EncryptionUtils.EncryptedDataRef prepareDataRefEmbedded(
+        Document doc,
+        String dataRefURI,
+        RequestData data
     ) throws WSSecurityException {
         LOG.debug("Found data reference: {}", dataRefURI);
         //
@@ -189,11 +264,7 @@ public class ReferenceListProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return
-            EncryptionUtils.decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data.getAttachmentCallbackHandler(),
-                data.getEncryptionSerializer()
-            );
+        return new EncryptionUtils.EncryptedDataRef(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
     }
 
     /**
@@ -28,8 +28,10 @@ import java.security.cert.X509Certificate;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.xml.crypto.Data;
 import javax.xml.crypto.NodeSetData;
@@ -77,12 +79,15 @@ import org.apache.wss4j.dom.transform.AttachmentContentSignatureTransform;
 import org.apache.wss4j.dom.transform.STRTransform;
 import org.apache.wss4j.dom.transform.STRTransformUtil;
 import org.apache.wss4j.dom.util.EncryptionUtils;
+import org.apache.wss4j.dom.util.ParallelUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.apache.wss4j.dom.util.X509Util;
 import org.apache.wss4j.dom.validate.Credential;
 import org.apache.wss4j.dom.validate.Validator;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 public class SignatureProcessor implements Processor {
@@ -265,7 +270,7 @@ public class SignatureProcessor implements Processor {
         }
         data.getWsDocInfo().addResult(result);
         data.getWsDocInfo().addTokenElement(elem);
-        return java.util.Collections.singletonList(result);
+        return Collections.singletonList(result);
     }
 
     /**
@@ -342,17 +347,7 @@ public class SignatureProcessor implements Processor {
             key = KeyUtils.prepareSecretKey(signatureMethod, secretKey);
         }
 
-        XMLValidateContext context = new DOMValidateContext(key, elem);
-        context.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
-        context.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
-        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
-        context.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
-        if (data.getSignatureProvider() != null) {
-            context.setProperty("org.jcp.xml.dsig.internal.dom.SignatureProvider", data.getSignatureProvider());
-        }
-
-        context.setProperty(AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER,
-                            data.getAttachmentCallbackHandler());
+        XMLValidateContext context = createValidateContext(key, elem, data, wsDocInfo);
 
         try {
             XMLSignature xmlSignature = signatureFactory.unmarshalXMLSignature(context);
@@ -370,6 +365,11 @@ public class SignatureProcessor implements Processor {
             testMessageReplay(elem, xmlSignature.getSignatureValue().getValue(), key, data, wsDocInfo);
 
             setElementsOnContext(xmlSignature, (DOMValidateContext)context, data, wsDocInfo);
+            if (data.isParallelSignatureVerification()) {
+                validateReferencesInParallel(
+                    xmlSignature, (DOMValidateContext)context, key, elem, data, wsDocInfo
+                );
+            }
             boolean signatureOk = xmlSignature.validate(context);
             if (signatureOk) {
                 return xmlSignature;
@@ -404,6 +404,23 @@ public class SignatureProcessor implements Processor {
         throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
     }
 
+    private static DOMValidateContext createValidateContext(
+        Key key, Element elem, RequestData data, WSDocInfo wsDocInfo
+    ) {
+        DOMValidateContext context = new DOMValidateContext(key, elem);
+        context.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
+        context.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+        context.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
+        if (data.getSignatureProvider() != null) {
+            context.setProperty("org.jcp.xml.dsig.internal.dom.SignatureProvider", data.getSignatureProvider());
+        }
+
+        context.setProperty(AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER,
+                            data.getAttachmentCallbackHandler());
+        return context;
+    }
+
     /**
      * Retrieve the Reference elements and set them on the ValidateContext
      * @param xmlSignature the XMLSignature object to get the references from
@@ -442,6 +459,72 @@ public class SignatureProcessor implements Processor {
         }
     }
 
+    /**
+     * Validate the References that only read the referenced data in parallel, before the
+     * SignatureValue is validated. The result of a Reference validation is cached, so
+     * XMLSignature.validate only validates the remaining References afterwards. A
+     * DOMValidateContext is not thread-safe, so each Reference is validated with its own
+     * context, on which only the referenced Element is registered. With secure validation, the
+     * dereferencing of each Reference searches the whole document for duplicate Ids, so all of
+     * the Nodes of the document are created before the References are validated concurrently.
+     * @param xmlSignature the XMLSignature object to get the references from
+     * @param context the ValidateContext, on which the referenced Elements are already set
+     * @param key the key of the ValidateContext
+     * @param elem the Signature element
+     * @param data The RequestData object
+     * @param wsDocInfo the WSDocInfo object where tokens are stored
+     * @throws Exception
+     */
+    private void validateReferencesInParallel(
+        XMLSignature xmlSignature,
+        DOMValidateContext context,
+        Key key,
+        Element elem,
+        RequestData data,
+        WSDocInfo wsDocInfo
+    ) throws Exception {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Object object : xmlSignature.getSignedInfo().getReferences()) {
+            final Reference reference = (Reference)object;
+            // The dereferencing of an attachment may not be thread-safe
+            if (ParallelUtils.isParallelReference(reference, false)) {
+                String id = reference.getURI().substring(1);
+                Element element = context.getElementById(id);
+                final DOMValidateContext referenceContext = createValidateContext(key, elem, data, wsDocInfo);
+                if (element != null && registerElement(element, id, referenceContext)) {
+                    tasks.add(new Callable<Boolean>() {
+                        public Boolean call() throws Exception {
+                            return reference.validate(referenceContext);
+                        }
+                    });
+                }
+            }
+        }
+
+        if (tasks.size() > 1) {
+            LOG.debug("Validating {} References in parallel", tasks.size());
+            // Make sure that the Nodes of the document exist before they are read concurrently
+            ParallelUtils.expandNodes(elem.getOwnerDocument());
+            ParallelUtils.invokeAll(tasks, data.getExecutor());
+        }
+    }
+
+    /**
+     * Register the Id attribute of the given Element, with the given value, on the context
+     * @return true if the Element has such an Id attribute
+     */
+    private static boolean registerElement(Element element, String id, DOMValidateContext context) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr)attributes.item(i);
+            if (id.equals(attribute.getValue())) {
+                context.setIdAttributeNS(element, attribute.getNamespaceURI(), attribute.getLocalName());
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isXopInclude(Element element) {
         Element elementChild =
             XMLUtils.getDirectChildElement(element, "Include", WSConstants.XOP_NS);
@@ -664,19 +747,14 @@ public class SignatureProcessor implements Processor {
         String identifier = timeStamp.getCreatedString() + "" + Arrays.hashCode(signatureValue)
             + "" + Arrays.hashCode(key.getEncoded());
 
-        if (replayCache.contains(identifier)) {
+        // Store the Timestamp/SignatureValue/Key combination in the cache, unless it is
+        // already there
+        if (!replayCache.addIfAbsent(identifier, timeStamp.getExpires())) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.INVALID_SECURITY,
                 "invalidTimestamp",
                 new Object[] {"A replay attack has been detected"});
         }
-
-        // Store the Timestamp/SignatureValue/Key combination in the cache
-        if (timeStamp.getExpires() != null) {
-            replayCache.add(identifier, timeStamp.getExpires());
-        } else {
-            replayCache.add(identifier);
-        }
     }
 
     /**
@@ -19,6 +19,7 @@
 
 package org.apache.wss4j.dom.util;
 
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
@@ -29,7 +30,9 @@ import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.callback.CallbackLookup;
+import org.apache.wss4j.dom.callback.DOMCallbackLookup;
 import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.DocumentSerializer;
 import org.apache.xml.security.encryption.Serializer;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.encryption.XMLEncryptionException;
@@ -53,7 +56,10 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public final class EncryptionUtils {
 
@@ -140,6 +146,197 @@ public final class EncryptionUtils {
         CallbackHandler attachmentCallbackHandler,
         Serializer encryptionSerializer
     ) throws WSSecurityException {
+        return decryptEncryptedData(doc, dataRefURI, encData, symmetricKey, symEncAlgo,
+                                    attachmentCallbackHandler, encryptionSerializer, null);
+    }
+
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param attachmentCallbackHandler The CallbackHandler from which to get attachments
+     * @param encryptionSerializer The Serializer to use for decryption (can be null)
+     * @param callbackLookup The CallbackLookup of the document, which is kept up to date with
+     *        the decrypted Elements if it indexes Ids (can be null)
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        CallbackHandler attachmentCallbackHandler,
+        Serializer encryptionSerializer,
+        CallbackLookup callbackLookup
+    ) throws WSSecurityException {
+        return decryptEncryptedData(doc, dataRefURI, encData, symmetricKey, symEncAlgo,
+                                    attachmentCallbackHandler, encryptionSerializer, callbackLookup, null);
+    }
+
+    /**
+     * Decrypt the EncryptedData elements of the given list. The cipher data of the EncryptedData
+     * elements is decrypted and parsed in parallel on the given Executor. The decrypted data
+     * then replaces the EncryptedData elements one after another on the calling thread, in the
+     * order of the list. The EncryptedData elements must not contain each other.
+     * @param doc The (document) owner of EncryptedData
+     * @param encryptedDataRefs The EncryptedData elements to decrypt, with their keys
+     * @param attachmentCallbackHandler The CallbackHandler from which to get attachments
+     * @param encryptionSerializer The Serializer to use for decryption (can be null)
+     * @param callbackLookup The CallbackLookup of the document, which is kept up to date with
+     *        the decrypted Elements if it indexes Ids (can be null)
+     * @param executor The Executor to decrypt on, or null to use the common ForkJoinPool
+     * @return the WSDataRefs of the decrypted EncryptedData elements, in the order of the list
+     * @throws WSSecurityException
+     */
+    public static List<WSDataRef>
+    decryptEncryptedData(
+        Document doc,
+        List<EncryptedDataRef> encryptedDataRefs,
+        CallbackHandler attachmentCallbackHandler,
+        final Serializer encryptionSerializer,
+        CallbackLookup callbackLookup,
+        Executor executor
+    ) throws WSSecurityException {
+        List<Node> decryptedFragments = null;
+        if (encryptedDataRefs.size() > 1) {
+            List<Callable<Node>> tasks = new ArrayList<>(encryptedDataRefs.size());
+            for (final EncryptedDataRef encryptedDataRef : encryptedDataRefs) {
+                // Make sure that the Nodes exist before they are read concurrently
+                ParallelUtils.expandNodes(encryptedDataRef.getEncryptedElement());
+                tasks.add(new Callable<Node>() {
+                    public Node call() throws Exception {
+                        return decryptToFragment(
+                            encryptedDataRef.getEncryptedElement(), encryptedDataRef.getSymmetricKey(),
+                            encryptedDataRef.getAlgorithm(), encryptionSerializer
+                        );
+                    }
+                });
+            }
+            try {
+                decryptedFragments = ParallelUtils.invokeAll(tasks, executor);
+            } catch (WSSecurityException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+            }
+        }
+
+        List<WSDataRef> dataRefs = new ArrayList<>(encryptedDataRefs.size());
+        for (int i = 0; i < encryptedDataRefs.size(); i++) {
+            EncryptedDataRef encryptedDataRef = encryptedDataRefs.get(i);
+            Node decryptedFragment = decryptedFragments == null ? null : decryptedFragments.get(i);
+            dataRefs.add(
+                decryptEncryptedData(
+                    doc, encryptedDataRef.getDataRefURI(), encryptedDataRef.getEncryptedElement(),
+                    encryptedDataRef.getSymmetricKey(), encryptedDataRef.getAlgorithm(),
+                    attachmentCallbackHandler, encryptionSerializer, callbackLookup, decryptedFragment
+                )
+            );
+        }
+        return dataRefs;
+    }
+
+    /**
+     * Decrypt the cipher data of the EncryptedData argument and parse it, without modifying the
+     * document of EncryptedData, so that several EncryptedData elements of a document can be
+     * decrypted concurrently. The decrypted Nodes are owned by a separate Document.
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param encryptionSerializer The Serializer to use for decryption (can be null)
+     * @return a DocumentFragment with the decrypted Nodes, or null if EncryptedData refers to an
+     *         attachment, which is decrypted by decryptEncryptedData instead
+     * @throws WSSecurityException
+     */
+    public static Node decryptToFragment(
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        Serializer encryptionSerializer
+    ) throws WSSecurityException {
+        String typeStr = encData.getAttributeNS(null, "Type");
+        if (WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_CONTENT_ONLY.equals(typeStr)
+            || WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_COMPLETE.equals(typeStr)
+            || getXOPURIFromEncryptedData(encData) != null) {
+            return null;
+        }
+
+        XMLCipher xmlCipher = createXMLCipher(symmetricKey, symEncAlgo, encryptionSerializer);
+        try {
+            byte[] octets = xmlCipher.decryptToByteArray(encData);
+
+            Serializer serializer = encryptionSerializer;
+            if (serializer == null) {
+                serializer = new DocumentSerializer(true);
+            }
+            // Parse the decrypted data in the context of a copy of the namespace declarations
+            // that are in scope for EncryptedData, which is owned by a separate Document
+            Document contextDoc =
+                encData.getOwnerDocument().getImplementation().createDocument(null, null, null);
+            Element context = contextDoc.createElementNS(null, "context");
+            contextDoc.appendChild(context);
+            for (Node node = encData.getParentNode();
+                node != null && Node.ELEMENT_NODE == node.getNodeType();
+                node = node.getParentNode()) {
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    if (WSConstants.XMLNS_NS.equals(attribute.getNamespaceURI())
+                        && !context.hasAttributeNS(WSConstants.XMLNS_NS, attribute.getLocalName())) {
+                        context.setAttributeNS(
+                            WSConstants.XMLNS_NS, attribute.getNodeName(), attribute.getNodeValue()
+                        );
+                    }
+                }
+            }
+            return serializer.deserialize(octets, context);
+        } catch (Exception ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        }
+    }
+
+    private static XMLCipher createXMLCipher(
+        SecretKey symmetricKey, String symEncAlgo, Serializer encryptionSerializer
+    ) throws WSSecurityException {
+        try {
+            XMLCipher xmlCipher = null;
+            if (encryptionSerializer != null) {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo, encryptionSerializer);
+            } else {
+                xmlCipher = XMLCipher.getInstance(symEncAlgo);
+            }
+            xmlCipher.setSecureValidation(true);
+            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
+            return xmlCipher;
+        } catch (XMLEncryptionException ex) {
+            throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+            );
+        }
+    }
+
+    private static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        CallbackHandler attachmentCallbackHandler,
+        Serializer encryptionSerializer,
+        CallbackLookup callbackLookup,
+        Node decryptedFragment
+    ) throws WSSecurityException {
+        DOMCallbackLookup idIndex = null;
+        if (callbackLookup instanceof DOMCallbackLookup
+            && ((DOMCallbackLookup)callbackLookup).isIndexIds()) {
+            idIndex = (DOMCallbackLookup)callbackLookup;
+        }
 
         // See if it is an attachment, and handle that differently
         String typeStr = encData.getAttributeNS(null, "Type");
@@ -158,6 +355,9 @@ public final class EncryptionUtils {
             }
             String uri = cipherReference.getAttributeNS(null, "URI");
 
+            if (idIndex != null) {
+                idIndex.removeFromIndex(encData);
+            }
             return decryptAttachment(dataRefURI, uri, encData, symmetricKey, symEncAlgo, attachmentCallbackHandler);
         }
 
@@ -177,19 +377,24 @@ public final class EncryptionUtils {
             parent = encData.getParentNode();
         }
 
+        // The Node that is replaced with the decrypted data, and its position in the document
+        Node replacedNode = encData;
+        if (content) {
+            replacedNode = encDataOrig;
+        } else if (isEncryptedHeaderOrAssertion(parent)) {
+            replacedNode = parent;
+        }
+        Node replacedParent = replacedNode.getParentNode();
+        Node replacedPreviousSibling = replacedNode.getPreviousSibling();
+        Node replacedNextSibling = replacedNode.getNextSibling();
+
         XMLCipher xmlCipher = null;
-        try {
-            if (encryptionSerializer != null) {
-                xmlCipher = XMLCipher.getInstance(symEncAlgo, encryptionSerializer);
-            } else {
-                xmlCipher = XMLCipher.getInstance(symEncAlgo);
-            }
-            xmlCipher.setSecureValidation(true);
-            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
-        } catch (XMLEncryptionException ex) {
-            throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
-            );
+        if (decryptedFragment == null) {
+            xmlCipher = createXMLCipher(symmetricKey, symEncAlgo, encryptionSerializer);
+        }
+
+        if (idIndex != null) {
+            idIndex.removeFromIndex(replacedNode);
         }
 
         Node decryptedNode = null;
@@ -206,19 +411,27 @@ public final class EncryptionUtils {
                 }
                 decryptedNode = decryptXopAttachment(symmetricKey, symEncAlgo, attachmentCallbackHandler,
                                                      xopURI, tempEncData);
+            } else if (decryptedFragment != null) {
+                // The data was already decrypted, it replaces the EncryptedData element itself
+                // as in XMLCipher
+                Node adoptedFragment = doc.adoptNode(decryptedFragment);
+                if (adoptedFragment == null) {
+                    adoptedFragment = doc.importNode(decryptedFragment, true);
+                }
+                encDataOrig.getParentNode().replaceChild(adoptedFragment, encDataOrig);
             } else {
                 //in this case, the XMLCipher knows how to handle encData when it's the parent node
                 // (i.e., when content == true)
                 xmlCipher.doFinal(doc, encData, content);
             }
         } catch (Exception ex) {
+            if (idIndex != null) {
+                idIndex.invalidateIndex();
+            }
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
         }
 
-        if (parent.getLocalName().equals(WSConstants.ENCRYPTED_HEADER)
-            && parent.getNamespaceURI().equals(WSConstants.WSSE11_NS)
-            || parent.getLocalName().equals(WSConstants.ENCRYPED_ASSERTION_LN)
-            && parent.getNamespaceURI().equals(WSConstants.SAML2_NS)) {
+        if (isEncryptedHeaderOrAssertion(parent)) {
 
             Node decryptedHeader = parent.getFirstChild();
             Node soapHeader = parent.getParentNode();
@@ -243,9 +456,42 @@ public final class EncryptionUtils {
             dataRef.setXpath(getXPath(decryptedNode));
         }
 
+        if (idIndex != null) {
+            Node attachmentNode = xopURI != null ? decryptedNode : null;
+            addDecryptedNodesToIndex(
+                idIndex, attachmentNode, replacedParent, replacedPreviousSibling, replacedNextSibling
+            );
+        }
+
         return dataRef;
     }
 
+    private static void addDecryptedNodesToIndex(
+        DOMCallbackLookup idIndex, Node attachmentNode, Node parent, Node previousSibling, Node nextSibling
+    ) {
+        if (attachmentNode != null) {
+            // The decrypted attachment data was appended to the parent
+            idIndex.addToIndex(attachmentNode);
+        } else if (previousSibling != null && previousSibling.getParentNode() != parent) {
+            // The siblings were replaced as well
+            idIndex.addToIndex(parent);
+        } else {
+            // The decrypted data replaced the Node between the siblings
+            Node addedNode = previousSibling == null ? parent.getFirstChild() : previousSibling.getNextSibling();
+            while (addedNode != null && addedNode != nextSibling) {
+                idIndex.addToIndex(addedNode);
+                addedNode = addedNode.getNextSibling();
+            }
+        }
+    }
+
+    private static boolean isEncryptedHeaderOrAssertion(Node node) {
+        return node.getLocalName().equals(WSConstants.ENCRYPTED_HEADER)
+            && node.getNamespaceURI().equals(WSConstants.WSSE11_NS)
+            || node.getLocalName().equals(WSConstants.ENCRYPED_ASSERTION_LN)
+            && node.getNamespaceURI().equals(WSConstants.SAML2_NS);
+    }
+
     private static String getXOPURIFromEncryptedData(Element encData) {
         Element cipherValue = getCipherValueFromEncryptedData(encData);
         if (cipherValue != null) {
@@ -382,15 +628,19 @@ public final class EncryptionUtils {
 
         final String jceAlgorithm =
                 JCEMapper.translateURItoJCEID(symEncAlgo);
-        final Cipher cipher = Cipher.getInstance(jceAlgorithm);
-
-        InputStream attachmentInputStream =
-                AttachmentUtils.setupAttachmentDecryptionStream(
-                        symEncAlgo, cipher, symmetricKey, attachment.getSourceStream());
+        final Cipher cipher = JCAInstancePool.getCipher(jceAlgorithm);
 
         // For the xop:Include case, we need to replace the xop:Include Element with the
         // decrypted Element
-        byte[] bytes = JavaUtils.getBytesFromStream(attachmentInputStream);
+        byte[] bytes;
+        try {
+            InputStream attachmentInputStream =
+                    AttachmentUtils.setupAttachmentDecryptionStream(
+                            symEncAlgo, cipher, symmetricKey, attachment.getSourceStream());
+            bytes = JavaUtils.getBytesFromStream(attachmentInputStream);
+        } finally {
+            JCAInstancePool.release(cipher);
+        }
 
         Document document = null;
         try {
@@ -551,4 +801,39 @@ public final class EncryptionUtils {
         }
         return org.apache.xml.security.utils.XMLUtils.decode(text);
     }
+
+    /**
+     * An EncryptedData element to decrypt, together with the key to decrypt it with
+     */
+    public static final class EncryptedDataRef {
+        private final String dataRefURI;
+        private final Element encryptedElement;
+        private final SecretKey symmetricKey;
+        private final String algorithm;
+
+        public EncryptedDataRef(
+            String dataRefURI, Element encryptedElement, SecretKey symmetricKey, String algorithm
+        ) {
+            this.dataRefURI = dataRefURI;
+            this.encryptedElement = encryptedElement;
+            this.symmetricKey = symmetricKey;
+            this.algorithm = algorithm;
+        }
+
+        public String getDataRefURI() {
+            return dataRefURI;
+        }
+
+        public Element getEncryptedElement() {
+            return encryptedElement;
+        }
+
+        public SecretKey getSymmetricKey() {
+            return symmetricKey;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.Transform;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Some utility methods to perform independent (cryptographic) tasks of a message in parallel.
+ */
+public final class ParallelUtils {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ParallelUtils.class);
+
+    /**
+     * The Transforms that only read the referenced data, with which a Reference can be digested
+     * or validated concurrently with the other References of a Signature
+     */
+    private static final Set<String> PARALLEL_TRANSFORMS;
+
+    /**
+     * The Transforms of a Reference to an attachment, which only read the attachment
+     */
+    private static final Set<String> ATTACHMENT_TRANSFORMS;
+
+    static {
+        Set<String> transforms = new HashSet<>();
+        transforms.add(Transform.ENVELOPED);
+        transforms.add(CanonicalizationMethod.INCLUSIVE);
+        transforms.add(CanonicalizationMethod.INCLUSIVE_WITH_COMMENTS);
+        transforms.add(CanonicalizationMethod.EXCLUSIVE);
+        transforms.add(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS);
+        PARALLEL_TRANSFORMS = Collections.unmodifiableSet(transforms);
+
+        transforms = new HashSet<>();
+        transforms.add(WSConstants.SWA_ATTACHMENT_CONTENT_SIG_TRANS);
+        transforms.add(WSConstants.SWA_ATTACHMENT_COMPLETE_SIG_TRANS);
+        ATTACHMENT_TRANSFORMS = Collections.unmodifiableSet(transforms);
+    }
+
+    private ParallelUtils() {
+        // complete
+    }
+
+    /**
+     * Run the given tasks in parallel and wait for all of them to complete. The calling thread
+     * runs any task that has not been started by the Executor yet, so that the tasks complete
+     * even if the Executor is saturated, or is the pool that the calling thread belongs to.
+     *
+     * @param tasks the tasks to run
+     * @param executor the Executor to run the tasks on, or null to use the common ForkJoinPool
+     * @return the results of the tasks, in the order of the tasks
+     * @throws Exception the exception thrown by the first task (in the order of the tasks) that
+     *         failed. It is only thrown once all of the tasks have completed.
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, Executor executor)
+        throws Exception {
+        Executor executorToUse = executor;
+        if (executorToUse == null) {
+            executorToUse = ForkJoinPool.commonPool();
+        }
+
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<>(task));
+        }
+        // The calling thread runs the first task in any case
+        for (int i = 1; i < futures.size(); i++) {
+            try {
+                executorToUse.execute(futures.get(i));
+            } catch (RejectedExecutionException ex) {
+                LOG.debug("A task was rejected by the Executor and is run by the calling thread");
+                break;
+            }
+        }
+        // Running a task that was already started or completed is a no-op
+        for (FutureTask<T> future : futures) {
+            future.run();
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (FutureTask<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException ex) {
+                    // The tasks are not cancelled, as the caller must not continue while they
+                    // still access the message
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+                    results.add(null);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof Exception) {
+            throw (Exception)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return results;
+    }
+
+    /**
+     * Check whether the given Reference only reads the referenced data, so that it can be digested
+     * or validated concurrently with the other References of a Signature. This is the case for a
+     * same-document Reference to an Id that only has canonicalization or enveloped signature
+     * Transforms. A Reference to an attachment only qualifies if attachments are allowed, as the
+     * retrieval of an attachment may not be thread-safe on every side.
+     *
+     * @param reference the Reference to check
+     * @param allowAttachments whether "cid:" References to an attachment qualify
+     * @return true if the Reference can be digested or validated in parallel
+     */
+    public static boolean isParallelReference(Reference reference, boolean allowAttachments) {
+        String uri = reference.getURI();
+        if (uri == null) {
+            return false;
+        }
+        boolean attachment = uri.startsWith("cid:");
+        if (attachment && !allowAttachments
+            || !attachment && (uri.length() < 2 || uri.charAt(0) != '#' || uri.indexOf('(') >= 0)) {
+            return false;
+        }
+        for (Object transform : reference.getTransforms()) {
+            String algorithm = ((Transform)transform).getAlgorithm();
+            if (!PARALLEL_TRANSFORMS.contains(algorithm)
+                && !(attachment && ATTACHMENT_TRANSFORMS.contains(algorithm))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visit every Node of the given subtree, and the attributes of its ancestors. A DOM
+     * implementation may create Nodes lazily when they are first accessed (e.g. the "deferred
+     * node expansion" of Xerces), which is not thread-safe. Calling this method before the
+     * subtree is read by several threads concurrently makes sure that all of its Nodes exist.
+     * Pass the Document to expand all of the Nodes of a document.
+     *
+     * @param startNode the root of the subtree
+     */
+    public static void expandNodes(Node startNode) {
+        if (startNode == null) {
+            return;
+        }
+        Node ancestor = startNode.getParentNode();
+        while (ancestor != null) {
+            expandAttributes(ancestor);
+            ancestor = ancestor.getParentNode();
+        }
+
+        Node node = startNode;
+        while (node != null) {
+            expandAttributes(node);
+            Node nextNode = node.getFirstChild();
+            while (nextNode == null && node != startNode) {
+                nextNode = node.getNextSibling();
+                if (nextNode == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = nextNode;
+        }
+    }
+
+    private static void expandAttributes(Node node) {
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                attributes.item(i).getNodeValue();
+            }
+        }
+        node.getNodeValue();
+    }
+}
@@ -22,10 +22,15 @@ package org.apache.wss4j.dom.validate;
 import java.security.Key;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
+import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.Subject;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.kerberos.KerberosTicket;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
@@ -43,6 +48,23 @@ import org.apache.wss4j.dom.message.token.KerberosSecurity;
  */
 public class KerberosTokenValidator implements Validator {
 
+    /**
+     * The default time in seconds for which a logged in service Subject is cached
+     */
+    public static final long DEFAULT_SUBJECT_CACHE_TTL = 60L * 60L;
+
+    /**
+     * The time in milliseconds before the end time of a ticket of a cached Subject at which
+     * the Subject is refreshed
+     */
+    private static final long TICKET_REFRESH_MARGIN = 60L * 1000L;
+
+    /**
+     * The minimum time in milliseconds for which a Subject is cached, even if its tickets expire
+     * within the refresh margin
+     */
+    private static final long MIN_SUBJECT_CACHE_TIME = 1000L;
+
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(KerberosTokenValidator.class);
 
@@ -52,6 +74,10 @@ public class KerberosTokenValidator implements Validator {
     private KerberosTokenDecoder kerberosTokenDecoder;
     private boolean isUsernameServiceNameForm;
     private boolean spnego;
+    private boolean cacheSubject;
+    private long subjectCacheTTL = DEFAULT_SUBJECT_CACHE_TTL;
+    private final Map<String, CachedSubject> subjectCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> subjectCacheLocks = new ConcurrentHashMap<>();
 
     /**
      * Get the JAAS Login context name to use.
@@ -149,31 +175,11 @@ public class KerberosTokenValidator implements Validator {
             }
         }
 
-        // Get a TGT from the KDC using JAAS
-        LoginContext loginContext = null;
-        try {
-            if (callbackHandler != null) {
-                loginContext = new LoginContext(getContextName(), callbackHandler);
-            } else if (data.getCallbackHandler() != null) {
-                loginContext = new LoginContext(getContextName(), data.getCallbackHandler());
-            } else {
-                loginContext = new LoginContext(getContextName());
-            }
-            loginContext.login();
-        } catch (LoginException ex) {
-            LOG.debug(ex.getMessage(), ex);
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, ex,
-                "kerberosLoginError",
-                new Object[] {ex.getMessage()}
-            );
-        }
-        LOG.debug("Successfully authenticated to the TGT");
+        Subject subject = getSubject(data);
 
         byte[] token = binarySecurity.getToken();
 
         // Get the service name to use - fall back on the principal
-        Subject subject = loginContext.getSubject();
         String service = serviceName;
         if (service == null) {
             Set<Principal> principals = subject.getPrincipals();
@@ -245,6 +251,134 @@ public class KerberosTokenValidator implements Validator {
         return credential;
     }
 
+    /**
+     * Get the service Subject to validate a ticket with, either from the cache, or by logging in
+     * to the KDC using JAAS
+     */
+    private Subject getSubject(RequestData data) throws WSSecurityException {
+        if (!cacheSubject) {
+            return login(data).getSubject();
+        }
+
+        String cacheKey = getContextName() + "|" + serviceName;
+        CachedSubject cachedSubject = subjectCache.get(cacheKey);
+        if (cachedSubject != null && cachedSubject.expiry > System.currentTimeMillis()) {
+            return cachedSubject.subject;
+        }
+
+        // Only log in once for a context when the cached Subject is missing or expired
+        Object lock = new Object();
+        Object existingLock = subjectCacheLocks.putIfAbsent(cacheKey, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            cachedSubject = subjectCache.get(cacheKey);
+            if (cachedSubject != null && cachedSubject.expiry > now) {
+                return cachedSubject.subject;
+            }
+
+            // The previous Subject is not logged out, as other threads may still be using it
+            Subject subject = login(data).getSubject();
+            subjectCache.put(cacheKey, new CachedSubject(subject, getSubjectExpiry(subject, now)));
+            return subject;
+        }
+    }
+
+    private LoginContext login(RequestData data) throws WSSecurityException {
+        // Get a TGT from the KDC using JAAS
+        LoginContext loginContext = null;
+        try {
+            if (callbackHandler != null) {
+                loginContext = new LoginContext(getContextName(), callbackHandler);
+            } else if (data.getCallbackHandler() != null) {
+                loginContext = new LoginContext(getContextName(), data.getCallbackHandler());
+            } else {
+                loginContext = new LoginContext(getContextName());
+            }
+            loginContext.login();
+        } catch (LoginException ex) {
+            LOG.debug(ex.getMessage(), ex);
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, ex,
+                "kerberosLoginError",
+                new Object[] {ex.getMessage()}
+            );
+        }
+        LOG.debug("Successfully authenticated to the TGT");
+        return loginContext;
+    }
+
+    /**
+     * A Subject is refreshed after the cache TTL, so that a new keytab is picked up, or
+     * before any of its tickets expire, whichever is first. A ticket that already expires within
+     * the refresh margin (i.e. the KDC issues short-lived tickets) is refreshed halfway through
+     * its remaining lifetime instead, so that the Subject is not logged in again for every request.
+     */
+    private long getSubjectExpiry(Subject subject, long now) {
+        long expiry = now + subjectCacheTTL * 1000L;
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            Date endTime = ticket.getEndTime();
+            if (endTime != null) {
+                long ticketExpiry = endTime.getTime() - TICKET_REFRESH_MARGIN;
+                if (ticketExpiry <= now) {
+                    ticketExpiry = now + Math.max((endTime.getTime() - now) / 2, MIN_SUBJECT_CACHE_TIME);
+                }
+                expiry = Math.min(expiry, ticketExpiry);
+            }
+        }
+        return expiry;
+    }
+
+    /**
+     * Remove all of the cached Subjects, so that the next ticket is validated with a Subject
+     * that is logged in again
+     */
+    public void clearSubjectCache() {
+        subjectCache.clear();
+    }
+
+    /**
+     * Get whether the logged in service Subject is cached and shared by requests, instead of
+     * logging in for each request. The default is false.
+     * @return whether the logged in service Subject is cached
+     */
+    public boolean isCacheSubject() {
+        return cacheSubject;
+    }
+
+    /**
+     * Set whether the logged in service Subject is cached and shared by requests, instead of
+     * logging in for each request. A Subject is cached per JAAS Login context name and service
+     * name, and so the CallbackHandler of the first request is used to log it in if no
+     * CallbackHandler is set on this Validator. The default is false.
+     * @param cacheSubject whether the logged in service Subject is cached
+     */
+    public void setCacheSubject(boolean cacheSubject) {
+        this.cacheSubject = cacheSubject;
+    }
+
+    /**
+     * Get the time in seconds after which a cached Subject is logged in again
+     * @return the time in seconds after which a cached Subject is logged in again
+     */
+    public long getSubjectCacheTTL() {
+        return subjectCacheTTL;
+    }
+
+    /**
+     * Set the time in seconds after which a cached Subject is logged in again. A Subject is
+     * also logged in again shortly before any of its tickets expire. The default is one hour.
+     * @param subjectCacheTTL the time in seconds after which a cached Subject is logged in again
+     */
+    public void setSubjectCacheTTL(long subjectCacheTTL) {
+        if (subjectCacheTTL <= 0L) {
+            throw new IllegalArgumentException("The Subject cache TTL must be positive");
+        }
+        this.subjectCacheTTL = subjectCacheTTL;
+    }
+
     /**
      * SPN can be configured to be in either <b>"hostbased"</b> or <b>"username"</b> form.<br/>
      *     - <b>"hostbased"</b> - specifies that the service principal name should be interpreted as a "host-based" name as specified in GSS API Rfc, section "4.1: Host-Based Service Name Form" - The service name, as it is specified in LDAP/AD, as it is listed in the KDC.<br/>
@@ -277,4 +411,14 @@ public class KerberosTokenValidator implements Validator {
     public void setSpnego(boolean spnego) {
         this.spnego = spnego;
     }
+
+    private static final class CachedSubject {
+        private final Subject subject;
+        private final long expiry;
+
+        CachedSubject(Subject subject, long expiry) {
+            this.subject = subject;
+            this.expiry = expiry;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.callback;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Some tests for locating Elements by Id, with and without an Id index.
+ */
+public class DOMCallbackLookupTest {
+
+    private static final String MSG =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<SOAP-ENV:Envelope "
+        +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        +   "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+        +   "<SOAP-ENV:Header>"
+        +       "<a wsu:Id=\"a1\"/>"
+        +       "<b Id=\"b1\"/>"
+        +       "<dup wsu:Id=\"d1\"/>"
+        +       "<saml2:Assertion xmlns:saml2=\"" + WSConstants.SAML2_NS + "\" ID=\"s1\"/>"
+        +   "</SOAP-ENV:Header>"
+        +   "<SOAP-ENV:Body wsu:Id=\"body\">"
+        +       "<c><dup Id=\"d1\"/></c>"
+        +   "</SOAP-ENV:Body>"
+        + "</SOAP-ENV:Envelope>";
+
+    @Test
+    public void testLookup() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(MSG);
+        DOMCallbackLookup lookup = new DOMCallbackLookup(doc);
+        DOMCallbackLookup indexedLookup = new DOMCallbackLookup(doc, true);
+
+        for (String id : new String[] {"#a1", "b1", "#body", "#s1", "#d1", "#unknown"}) {
+            assertSame(lookup.getElement(id, null, true), indexedLookup.getElement(id, null, true));
+            assertSame(lookup.getElement(id, null, false), indexedLookup.getElement(id, null, false));
+        }
+
+        assertEquals("a", indexedLookup.getElement("#a1", null, true).getLocalName());
+        assertEquals("Assertion", indexedLookup.getElement("#s1", null, true).getLocalName());
+        // Duplicate Ids are detected, otherwise the first Element in document order is returned
+        assertNull(indexedLookup.getElement("#d1", null, true));
+        Element firstDuplicate = indexedLookup.getElement("#d1", null, false);
+        assertEquals("Header", firstDuplicate.getParentNode().getLocalName());
+    }
+
+    @Test
+    public void testIndexUpdates() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(MSG);
+        DOMCallbackLookup indexedLookup = new DOMCallbackLookup(doc, true);
+        Element a = indexedLookup.getElement("#a1", null, true);
+
+        // An Element that is added and indexed is found
+        Element e = doc.createElementNS(null, "e");
+        e.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "e1");
+        Element c = doc.createElementNS(null, "c");
+        c.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "a1");
+        e.appendChild(c);
+        a.getParentNode().appendChild(e);
+        indexedLookup.addToIndex(e);
+        assertSame(e, indexedLookup.getElement("#e1", null, true));
+        // A duplicate Id in the added Elements is detected
+        assertNull(indexedLookup.getElement("#a1", null, true));
+
+        // An Element that is removed from the index is not found
+        indexedLookup.removeFromIndex(e);
+        e.getParentNode().removeChild(e);
+        assertNull(indexedLookup.getElement("#e1", null, true));
+        assertSame(a, indexedLookup.getElement("#a1", null, true));
+
+        // A stale index is rebuilt
+        Element b = indexedLookup.getElement("#b1", null, true);
+        b.setAttributeNS(null, "Id", "b2");
+        assertNull(indexedLookup.getElement("#b1", null, true));
+        assertSame(b, indexedLookup.getElement("#b2", null, true));
+    }
+}
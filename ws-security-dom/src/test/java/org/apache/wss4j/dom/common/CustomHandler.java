@@ -20,8 +20,11 @@
 package org.apache.wss4j.dom.common;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
 import org.apache.wss4j.dom.handler.HandlerAction;
+import org.apache.wss4j.dom.handler.ReceiverProfile;
+import org.apache.wss4j.dom.handler.SenderActionPlan;
 import org.apache.wss4j.dom.handler.WSHandler;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
@@ -93,6 +96,32 @@ public class CustomHandler extends WSHandler {
         );
     }
 
+    public SenderActionPlan compile(
+        RequestData reqData,
+        List<HandlerAction> actions,
+        SOAPConstants soapConstants
+    ) throws WSSecurityException {
+        return compileSenderActionPlan(
+            reqData,
+            actions,
+            soapConstants
+        );
+    }
+
+    public void send(
+        Document doc,
+        RequestData reqData,
+        SenderActionPlan plan,
+        boolean request
+    ) throws WSSecurityException {
+        doSenderAction(
+            doc,
+            reqData,
+            plan,
+            request
+        );
+    }
+
     public void receive(
         List<Integer> actions,
         RequestData reqData
@@ -103,6 +132,16 @@ public class CustomHandler extends WSHandler {
         );
     }
 
+    public ReceiverProfile compileReceiver(
+        List<Integer> actions,
+        RequestData reqData
+    ) throws WSSecurityException {
+        return compileReceiverProfile(
+            actions,
+            reqData
+        );
+    }
+
     public void signatureConfirmation(
         RequestData requestData,
         WSHandlerResult handlerResults
@@ -43,6 +43,8 @@ import java.util.Collections;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -273,4 +275,42 @@ public class CustomActionProcessorTest {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that the configured classes are instantiated once and shared if this is enabled
+     */
+    @Test
+    public void
+    testCachedInstances() throws Exception {
+        WSSConfig cfg = WSSConfig.getNewInstance();
+        assertNotSame(cfg.getProcessor(WSConstants.SIGNATURE), cfg.getProcessor(WSConstants.SIGNATURE));
+
+        cfg.setCacheInstances(true);
+        assertSame(cfg.getProcessor(WSConstants.SIGNATURE), cfg.getProcessor(WSConstants.SIGNATURE));
+        assertSame(cfg.getValidator(WSConstants.SIGNATURE), cfg.getValidator(WSConstants.SIGNATURE));
+        assertSame(cfg.getAction(WSConstants.SIGN), cfg.getAction(WSConstants.SIGN));
+
+        // Replacing a class is honoured
+        cfg.setProcessor(WSConstants.SIGNATURE, CustomProcessor.class);
+        assertTrue(cfg.getProcessor(WSConstants.SIGNATURE) instanceof CustomProcessor);
+
+        // The shared instances are used for every message
+        WSSConfig defaultCfg = WSSConfig.getNewInstance();
+        defaultCfg.setCacheInstances(true);
+        final WSSecurityEngine engine = new WSSecurityEngine();
+        engine.setWssConfig(defaultCfg);
+        for (int i = 0; i < 2; i++) {
+            Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+            WSSecHeader secHeader = new WSSecHeader(doc);
+            secHeader.insertSecurityHeader();
+
+            WSSecSignature builder = new WSSecSignature(secHeader);
+            builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+            builder.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+            builder.build(crypto);
+
+            WSHandlerResult results = engine.processSecurityHeader(doc, null, null, crypto);
+            assertEquals(1, results.getActionResults().get(WSConstants.SIGN).size());
+        }
+    }
+
+}
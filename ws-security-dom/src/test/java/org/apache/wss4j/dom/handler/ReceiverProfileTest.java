@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.CustomHandler;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.common.SecurityTestUtil;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Some tests for processing messages with a ReceiverProfile.
+ */
+public class ReceiverProfileTest {
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+
+    @AfterAll
+    public static void cleanup() throws Exception {
+        SecurityTestUtil.cleanup();
+    }
+
+    public ReceiverProfileTest() {
+        WSSConfig.init();
+    }
+
+    @Test
+    public void testProcessSeveralMessages() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        List<Integer> actions = Arrays.asList(WSConstants.TS, WSConstants.SIGN, WSConstants.ENCR);
+        ReceiverProfile profile = handler.compileReceiver(actions, createRequestData());
+
+        RequestData previousReqData = null;
+        for (int i = 0; i < 3; i++) {
+            Document doc = secureMessage(handler);
+            RequestData reqData = profile.createRequestData(new TreeMap<String, Object>());
+            WSHandlerResult results = secEngine.processSecurityHeader(doc, reqData);
+
+            assertTrue(profile.checkResultsAnyOrder(results.getResults()));
+            assertTrue(handler.checkResultsAnyOrder(results.getResults(), actions));
+
+            // The Crypto instances are only resolved once, the BSPEnforcer is per message
+            assertNotNull(reqData.getSigVerCrypto());
+            if (previousReqData != null) {
+                assertSame(previousReqData.getSigVerCrypto(), reqData.getSigVerCrypto());
+                assertSame(previousReqData.getDecCrypto(), reqData.getDecCrypto());
+                assertNotSame(previousReqData.getBSPEnforcer(), reqData.getBSPEnforcer());
+            }
+            previousReqData = reqData;
+        }
+    }
+
+    @Test
+    public void testCheckResults() throws Exception {
+        CustomHandler handler = new CustomHandler();
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        RequestData sendData = new RequestData();
+        sendData.setMsgContext(new TreeMap<String, Object>());
+        handler.send(doc, sendData, Collections.singletonList(new HandlerAction(WSConstants.TS)), true);
+
+        ReceiverProfile profile =
+            handler.compileReceiver(Collections.singletonList(WSConstants.TS), createRequestData());
+        WSHandlerResult results =
+            secEngine.processSecurityHeader(doc, profile.createRequestData(null));
+        assertTrue(profile.checkResults(results.getResults()));
+        assertTrue(profile.checkResultsAnyOrder(results.getResults()));
+
+        profile = handler.compileReceiver(Arrays.asList(WSConstants.TS, WSConstants.SIGN), createRequestData());
+        assertFalse(profile.checkResults(results.getResults()));
+        assertFalse(profile.checkResultsAnyOrder(results.getResults()));
+        assertFalse(handler.checkResults(results.getResults(), profile.getActions()));
+    }
+
+    @Test
+    public void testBSPEnforcerNotSharedBetweenMessages() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        ReceiverProfile profile =
+            handler.compileReceiver(Collections.singletonList(WSConstants.TS), createRequestData());
+
+        // Relaxing the BSP rules of one message does not relax them for the other messages
+        RequestData reqData = profile.createRequestData(null);
+        reqData.getBSPEnforcer().setDisableBSPRules(true);
+        reqData.getBSPEnforcer().handleBSPRule(BSPRule.R3203);
+
+        try {
+            profile.createRequestData(null).getBSPEnforcer().handleBSPRule(BSPRule.R3203);
+            fail("Failure expected on a BSP rule");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getMessage().contains(BSPRule.R3203.name()));
+        }
+    }
+
+    private RequestData createRequestData() {
+        RequestData reqData = new RequestData();
+        Map<String, Object> config = new TreeMap<>();
+        config.put(WSHandlerConstants.PW_CALLBACK_REF, new KeystoreCallbackHandler());
+        config.put(WSHandlerConstants.SIG_VER_PROP_FILE, "wss40.properties");
+        config.put(WSHandlerConstants.DEC_PROP_FILE, "wss40.properties");
+        reqData.setMsgContext(config);
+        return reqData;
+    }
+
+    private Document secureMessage(CustomHandler handler) throws Exception {
+        RequestData reqData = new RequestData();
+        Map<String, Object> config = new TreeMap<>();
+        config.put(WSHandlerConstants.PW_CALLBACK_REF, new KeystoreCallbackHandler());
+        config.put(WSHandlerConstants.SIG_PROP_FILE, "wss40.properties");
+        config.put(WSHandlerConstants.SIGNATURE_USER, "wss40");
+        config.put(WSHandlerConstants.ENC_PROP_FILE, "wss40.properties");
+        config.put(WSHandlerConstants.ENCRYPTION_USER, "wss40");
+        reqData.setMsgContext(config);
+
+        List<HandlerAction> actions = new ArrayList<>();
+        actions.add(new HandlerAction(WSConstants.TS));
+        actions.add(new HandlerAction(WSConstants.SIGN));
+        actions.add(new HandlerAction(WSConstants.ENCR));
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        handler.send(doc, reqData, actions, true);
+        return doc;
+    }
+
+}
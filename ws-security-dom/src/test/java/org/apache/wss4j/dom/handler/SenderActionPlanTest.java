@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.wss4j.common.EncryptionActionToken;
+import org.apache.wss4j.common.SignatureActionToken;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.SOAPConstants;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.common.CustomHandler;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.common.SecurityTestUtil;
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Some tests for securing messages with a SenderActionPlan.
+ */
+public class SenderActionPlanTest {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SenderActionPlanTest.class);
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto;
+
+    @AfterAll
+    public static void cleanup() throws Exception {
+        SecurityTestUtil.cleanup();
+    }
+
+    public SenderActionPlanTest() throws WSSecurityException {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("wss40.properties");
+    }
+
+    @Test
+    public void testSecureSeveralMessages() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        SenderActionPlan plan =
+            handler.compile(createRequestData(), createActions(), SOAPConstants.SOAP11_CONSTANTS);
+
+        // The signed Timestamp must be added to the security header before the Signature
+        assertEquals(WSConstants.TS, plan.getActionsToPerform().get(1).getAction());
+        assertEquals(WSConstants.SIGN, plan.getActionsToPerform().get(2).getAction());
+        assertEquals(WSConstants.SIGN, plan.getActions().get(1).getAction());
+
+        for (int i = 0; i < 3; i++) {
+            Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+            RequestData reqData = plan.createRequestData(new TreeMap<String, Object>());
+            handler.send(doc, reqData, plan, true);
+
+            if (LOG.isDebugEnabled()) {
+                String outputString =
+                    XMLUtils.prettyDocumentToString(doc);
+                LOG.debug(outputString);
+            }
+
+            WSHandlerResult results = verify(doc);
+            assertNotNull(results.getActionResults().get(WSConstants.TS));
+            WSSecurityEngineResult signatureResult =
+                results.getActionResults().get(WSConstants.SIGN).get(0);
+            assertEquals(2,
+                ((List<?>)signatureResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS)).size());
+            assertNotNull(results.getActionResults().get(WSConstants.ENCR));
+        }
+    }
+
+    @Test
+    public void testOverrideConfigurationOfMessage() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        SenderActionPlan plan =
+            handler.compile(createRequestData(), createActions(), SOAPConstants.SOAP11_CONSTANTS);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        RequestData reqData = plan.createRequestData(new TreeMap<String, Object>());
+        reqData.setActor("myActor");
+        handler.send(doc, reqData, plan, true);
+        assertNotNull(WSSecurityUtil.getSecurityHeader(doc, "myActor"));
+
+        // The override only applies to the message it was made for
+        doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        reqData = plan.createRequestData(new TreeMap<String, Object>());
+        handler.send(doc, reqData, plan, true);
+        assertNull(WSSecurityUtil.getSecurityHeader(doc, "myActor"));
+        verify(doc);
+    }
+
+    @Test
+    public void testSOAPVersionMismatch() throws Exception {
+        CustomHandler handler = new CustomHandler();
+        SenderActionPlan plan =
+            handler.compile(createRequestData(), createActions(), SOAPConstants.SOAP12_CONSTANTS);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        try {
+            handler.send(doc, plan.createRequestData(new TreeMap<String, Object>()), plan, true);
+            fail("Failure expected on a SOAP version mismatch");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testActionTokensNotSharedBetweenMessages() throws Exception {
+        EncryptionActionToken encryptionToken = new EncryptionActionToken();
+        encryptionToken.setUser("wss40");
+        encryptionToken.setCrypto(crypto);
+        encryptionToken.setParts(Collections.singletonList(
+            new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "Content")));
+        SignatureActionToken signatureToken = new SignatureActionToken();
+        signatureToken.setUser("wss40");
+        signatureToken.setCrypto(crypto);
+        signatureToken.setParts(Collections.singletonList(
+            new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "")));
+
+        List<HandlerAction> actions = new ArrayList<>();
+        actions.add(new HandlerAction(WSConstants.SIGN, signatureToken));
+        actions.add(new HandlerAction(WSConstants.ENCR, encryptionToken));
+
+        final CustomHandler handler = new CustomHandler();
+        final SenderActionPlan plan =
+            handler.compile(createRequestData(), actions, SOAPConstants.SOAP11_CONSTANTS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Document>> tasks = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                tasks.add(new Callable<Document>() {
+                    public Document call() throws Exception {
+                        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+                        handler.send(doc, plan.createRequestData(new TreeMap<String, Object>()), plan, true);
+                        return doc;
+                    }
+                });
+            }
+            for (Future<Document> future : executor.invokeAll(tasks)) {
+                WSHandlerResult results = verify(future.get());
+                assertNotNull(results.getActionResults().get(WSConstants.SIGN));
+                assertNotNull(results.getActionResults().get(WSConstants.ENCR));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // The parts of the plan are not updated with the elements of the messages
+        assertNull(encryptionToken.getParts().get(0).getEncId());
+        assertNull(signatureToken.getParts().get(0).getElement());
+    }
+
+    private RequestData createRequestData() {
+        RequestData reqData = new RequestData();
+        reqData.setWssConfig(WSSConfig.getNewInstance());
+        Map<String, Object> config = new TreeMap<>();
+        config.put(WSHandlerConstants.PW_CALLBACK_REF, new KeystoreCallbackHandler());
+        config.put(WSHandlerConstants.SIG_PROP_FILE, "wss40.properties");
+        config.put(WSHandlerConstants.SIGNATURE_USER, "wss40");
+        config.put(
+            WSHandlerConstants.SIGNATURE_PARTS,
+            "{}{" + WSConstants.WSU_NS + "}Timestamp;{}{" + WSConstants.URI_SOAP11_ENV + "}Body"
+        );
+        config.put(WSHandlerConstants.ENC_PROP_FILE, "wss40.properties");
+        config.put(WSHandlerConstants.ENCRYPTION_USER, "wss40");
+        reqData.setMsgContext(config);
+        return reqData;
+    }
+
+    private List<HandlerAction> createActions() {
+        List<HandlerAction> actions = new ArrayList<>();
+        actions.add(new HandlerAction(WSConstants.ENCR));
+        actions.add(new HandlerAction(WSConstants.SIGN));
+        actions.add(new HandlerAction(WSConstants.TS));
+        return actions;
+    }
+
+    private WSHandlerResult verify(Document doc) throws Exception {
+        return secEngine.processSecurityHeader(doc, null, new KeystoreCallbackHandler(), crypto);
+    }
+
+}
@@ -28,6 +28,7 @@ import org.apache.wss4j.dom.common.SecurityTestUtil;
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -591,6 +592,54 @@ public class EncryptionPartsTest {
         assertTrue(outputString.contains("asf2"));
     }
 
+    /**
+     * Test that the EncryptedData elements are decrypted in parallel, if this is enabled, with the
+     * same result as when they are decrypted one after another.
+     */
+    @Test
+    public void testParallelDecryption() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG_MULTIPLE);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt encrypt = new WSSecEncrypt(secHeader);
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", "Element"));
+        encrypt.getParts().add(
+            new WSEncryptionPart("testMethod", "http://axis/service/security/test6/LogTestService8", "")
+        );
+
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        SecretKey symmetricKey = keyGen.generateKey();
+        Document encryptedDoc = encrypt.build(crypto, symmetricKey);
+        String encryptedMessage = XMLUtils.prettyDocumentToString(encryptedDoc);
+        assertFalse(encryptedMessage.contains("testMethod"));
+
+        Document sequentialDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+        verify(sequentialDoc);
+
+        Document parallelDoc = SOAPUtil.toSOAPPart(encryptedMessage);
+        RequestData requestData = new RequestData();
+        requestData.setDecCrypto(crypto);
+        requestData.setCallbackHandler(callbackHandler);
+        requestData.setParallelDecryption(true);
+        WSHandlerResult results = secEngine.processSecurityHeader(parallelDoc, requestData);
+
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.ENCR).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs =
+            (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(3, refs.size());
+        assertEquals(new QName("urn:foo.bar", "foobar"), refs.get(0).getName());
+
+        String outputString = XMLUtils.prettyDocumentToString(parallelDoc);
+        assertTrue(outputString.contains("asf1"));
+        assertTrue(outputString.contains("asf2"));
+        assertEquals(XMLUtils.prettyDocumentToString(sequentialDoc), outputString);
+    }
+
 
     /**
      * Verifies the soap envelope
@@ -19,16 +19,21 @@
 
 package org.apache.wss4j.dom.message;
 
+import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
 
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeyCache;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.CryptoType;
@@ -39,6 +44,7 @@ import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.callback.DOMCallbackLookup;
 import org.apache.wss4j.dom.common.CustomHandler;
 import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
 import org.apache.wss4j.dom.common.SOAPUtil;
@@ -59,6 +65,7 @@ import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -239,6 +246,177 @@ public class EncryptionTest {
         assertTrue(referenceType == REFERENCE_TYPE.KEY_IDENTIFIER);
     }
 
+    /**
+     * Process the same encrypted message twice with a shared EncryptedKeyCache, so that the
+     * EncryptedKey is only unwrapped with the private key once.
+     */
+    @Test
+    public void testEncryptedKeyCache() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("wss40");
+        builder.setKeyIdentifierType(WSConstants.X509_KEY_IDENTIFIER);
+        builder.setKeyEncAlgo(WSConstants.KEYTRANSPORT_RSAOAEP);
+
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        SecretKey symmetricKey = keyGen.generateKey();
+        Document encryptedDoc = builder.build(crypto, symmetricKey);
+        String outputString = XMLUtils.prettyDocumentToString(encryptedDoc);
+        assertFalse(outputString.contains("counter_port_type"));
+
+        try (EncryptedKeyCache encryptedKeyCache = new EncryptedKeyCache()) {
+            for (int i = 0; i < 2; i++) {
+                Document receivedDoc = SOAPUtil.toSOAPPart(outputString);
+                RequestData data = new RequestData();
+                data.setCallbackHandler(keystoreCallbackHandler);
+                data.setDecCrypto(crypto);
+                data.setEncryptedKeyCache(encryptedKeyCache);
+
+                WSHandlerResult results = new WSSecurityEngine().processSecurityHeader(receivedDoc, data);
+                WSSecurityEngineResult actionResult =
+                    results.getActionResults().get(WSConstants.ENCR).get(0);
+                assertArrayEquals(symmetricKey.getEncoded(),
+                                  (byte[])actionResult.get(WSSecurityEngineResult.TAG_SECRET));
+                assertTrue(XMLUtils.prettyDocumentToString(receivedDoc).contains("counter_port_type"));
+                assertEquals(1, encryptedKeyCache.size());
+            }
+        }
+    }
+
+    /**
+     * The Ids of the message are only indexed if this is enabled, otherwise the message is searched
+     * for each referenced Id.
+     */
+    @Test
+    public void testDecryptionWithIdIndex() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("wss40");
+        builder.setKeyIdentifierType(WSConstants.X509_KEY_IDENTIFIER);
+        builder.setKeyEncAlgo(WSConstants.KEYTRANSPORT_RSAOAEP);
+
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        SecretKey symmetricKey = keyGen.generateKey();
+        String outputString = XMLUtils.prettyDocumentToString(builder.build(crypto, symmetricKey));
+
+        for (boolean indexElementIds : new boolean[] {false, true}) {
+            Document receivedDoc = SOAPUtil.toSOAPPart(outputString);
+            final RequestData data = new RequestData();
+            final java.util.List<DOMCallbackLookup> callbackLookups = new ArrayList<>();
+            // Record the lookup of the message while it is processed
+            data.setCallbackHandler(new CallbackHandler() {
+                public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    callbackLookups.add((DOMCallbackLookup)data.getWsDocInfo().getCallbackLookup());
+                    keystoreCallbackHandler.handle(callbacks);
+                }
+            });
+            data.setDecCrypto(crypto);
+            data.setIndexElementIds(indexElementIds);
+
+            new WSSecurityEngine().processSecurityHeader(receivedDoc, data);
+            assertTrue(XMLUtils.prettyDocumentToString(receivedDoc).contains("counter_port_type"));
+            assertEquals(indexElementIds, callbackLookups.get(0).isIndexIds());
+        }
+    }
+
+    /**
+     * An EncryptedKeyCache that is shared between endpoints must not hand a key that was unwrapped
+     * by one endpoint to another endpoint, which has no access to the private key.
+     */
+    @Test
+    public void testEncryptedKeyCacheSharedBetweenEndpoints() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+        builder.setUserInfo("wss40");
+        builder.setKeyIdentifierType(WSConstants.X509_KEY_IDENTIFIER);
+        builder.setKeyEncAlgo(WSConstants.KEYTRANSPORT_RSAOAEP);
+
+        KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+        SecretKey symmetricKey = keyGen.generateKey();
+        String outputString = XMLUtils.prettyDocumentToString(builder.build(crypto, symmetricKey));
+
+        try (EncryptedKeyCache encryptedKeyCache = new EncryptedKeyCache()) {
+            RequestData data = new RequestData();
+            data.setCallbackHandler(keystoreCallbackHandler);
+            data.setDecCrypto(crypto);
+            data.setEncryptedKeyCache(encryptedKeyCache);
+            new WSSecurityEngine().processSecurityHeader(SOAPUtil.toSOAPPart(outputString), data);
+            assertEquals(1, encryptedKeyCache.size());
+
+            // An endpoint with a different Crypto, which does not hold the private key
+            data = new RequestData();
+            data.setCallbackHandler(keystoreCallbackHandler);
+            data.setDecCrypto(CryptoFactory.getInstance("crypto.properties"));
+            data.setEncryptedKeyCache(encryptedKeyCache);
+            try {
+                new WSSecurityEngine().processSecurityHeader(SOAPUtil.toSOAPPart(outputString), data);
+                fail("Failure expected as the private key is not available");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+            }
+
+            // An endpoint without a decryption Crypto
+            data = new RequestData();
+            data.setCallbackHandler(keystoreCallbackHandler);
+            data.setEncryptedKeyCache(encryptedKeyCache);
+            try {
+                new WSSecurityEngine().processSecurityHeader(SOAPUtil.toSOAPPart(outputString), data);
+                fail("Failure expected as there is no decryption Crypto");
+            } catch (WSSecurityException ex) {
+                assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+            }
+        }
+    }
+
+    /**
+     * Encrypt several messages with a shared EncryptedKeySessionCache, so that the symmetric
+     * key and the EncryptedKey are reused until the session reaches its maximum number of messages.
+     */
+    @Test
+    public void testEncryptedKeySessionCache() throws Exception {
+        try (EncryptedKeySessionCache sessionCache = new EncryptedKeySessionCache(2, 60L)) {
+            String[] cipherValues = new String[3];
+            for (int i = 0; i < cipherValues.length; i++) {
+                Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+                WSSecHeader secHeader = new WSSecHeader(doc);
+                secHeader.insertSecurityHeader();
+
+                WSSecEncrypt builder = new WSSecEncrypt(secHeader);
+                builder.setUserInfo("wss40");
+                builder.setKeyIdentifierType(WSConstants.X509_KEY_IDENTIFIER);
+                builder.setEncryptedKeySessionCache(sessionCache);
+
+                SecretKey symmetricKey = builder.getSessionKey(crypto);
+                if (i == 1) {
+                    assertNotNull(symmetricKey);
+                } else {
+                    assertTrue(symmetricKey == null);
+                    KeyGenerator keyGen = KeyUtils.getKeyGenerator(WSConstants.AES_128);
+                    symmetricKey = keyGen.generateKey();
+                }
+                Document encryptedDoc = builder.build(crypto, symmetricKey);
+                Element cipherValue =
+                    XMLUtils.findElement(builder.getEncryptedKeyElement(), "CipherValue", WSConstants.ENC_NS);
+                cipherValues[i] = cipherValue.getTextContent();
+
+                verify(encryptedDoc, keystoreCallbackHandler, SOAP_BODY);
+            }
+
+            assertEquals(cipherValues[0], cipherValues[1]);
+            assertFalse(cipherValues[1].equals(cipherValues[2]));
+            assertEquals(1, sessionCache.size());
+        }
+    }
+
     @Test
     public void testEncryptionDecryptionPublicKey() throws Exception {
         Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
@@ -24,6 +24,7 @@ import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.callback.DOMCallbackLookup;
 import org.apache.wss4j.dom.common.CustomHandler;
 import org.apache.wss4j.dom.common.SAML1CallbackHandler;
 import org.apache.wss4j.dom.common.SOAPUtil;
@@ -51,13 +52,24 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.crypto.dom.DOMCryptoContext;
 import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -660,6 +672,253 @@ public class SignaturePartsTest {
         assertTrue(handler.checkResults(results.getResults(), receivedActions));
     }
 
+    /**
+     * Test that the digests of the References of a Signature are computed in parallel, if this is
+     * enabled, and that the References are in the order of the parts
+     */
+    @Test
+    public void testParallelSignatureDigests() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG_MULTIPLE);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.setParallelDigests(true);
+        final AtomicInteger executions = new AtomicInteger();
+        sign.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                executions.incrementAndGet();
+                command.run();
+            }
+        });
+        sign.getParts().add(new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, ""));
+        sign.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", ""));
+        sign.getParts().add(
+            new WSEncryptionPart("testMethod", "http://axis/service/security/test6/LogTestService8", "")
+        );
+
+        Document signedDoc = sign.build(crypto);
+        // The calling thread digests the first Reference, the Executor the others
+        assertEquals(3, executions.get());
+
+        if (LOG.isDebugEnabled()) {
+            String outputString = XMLUtils.prettyDocumentToString(signedDoc);
+            LOG.debug(outputString);
+        }
+
+        WSHandlerResult results = verify(signedDoc);
+
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.SIGN).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs =
+            (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(4, refs.size());
+        assertEquals(WSConstants.ELEM_BODY, refs.get(0).getName().getLocalPart());
+        assertEquals(new QName("urn:foo.bar", "foobar"), refs.get(1).getName());
+    }
+
+    /**
+     * Test that the References of a Signature are validated in parallel, if this is enabled
+     */
+    @Test
+    public void testParallelSignatureVerification() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG_MULTIPLE);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.getParts().add(new WSEncryptionPart("foobar", "urn:foo.bar", ""));
+        sign.getParts().add(
+            new WSEncryptionPart("testMethod", "http://axis/service/security/test6/LogTestService8", "")
+        );
+        sign.getParts().add(new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, ""));
+
+        Document signedDoc = sign.build(crypto);
+        String signedMessage = XMLUtils.prettyDocumentToString(signedDoc);
+
+        RequestData requestData = new RequestData();
+        requestData.setSigVerCrypto(crypto);
+        requestData.setParallelSignatureVerification(true);
+        WSHandlerResult results = secEngine.processSecurityHeader(signedDoc, requestData);
+
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.SIGN).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs =
+            (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(4, refs.size());
+        assertEquals(new QName("urn:foo.bar", "foobar"), refs.get(0).getName());
+
+        // Modify a signed part
+        Document modifiedDoc =
+            SOAPUtil.toSOAPPart(signedMessage.replace(">asf2<", ">asf3<"));
+        requestData = new RequestData();
+        requestData.setSigVerCrypto(crypto);
+        requestData.setParallelSignatureVerification(true);
+        try {
+            secEngine.processSecurityHeader(modifiedDoc, requestData);
+            fail("Failure expected on a modified part");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Test that many References are validated correctly in parallel, while several messages are
+     * processed concurrently on a small shared Executor
+     */
+    @Test
+    public void testParallelSignatureVerificationUnderContention() throws Exception {
+        StringBuilder items = new StringBuilder();
+        // Secure validation allows at most 30 References per Signature
+        for (int i = 0; i < 24; i++) {
+            items.append("<ns1:item xmlns:ns1=\"urn:items\">item").append(i).append("</ns1:item>");
+        }
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG.replace("</soapenv:Body>", items + "</soapenv:Body>"));
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.getParts().add(new WSEncryptionPart("item", "urn:items", ""));
+        sign.getParts().add(new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, ""));
+
+        final String signedMessage = XMLUtils.prettyDocumentToString(sign.build(crypto));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                final boolean modified = i % 4 == 3;
+                futures.add(callers.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        String message = signedMessage;
+                        if (modified) {
+                            message = message.replace(">item17<", ">item71<");
+                        }
+                        RequestData requestData = new RequestData();
+                        requestData.setSigVerCrypto(crypto);
+                        requestData.setParallelSignatureVerification(true);
+                        requestData.setExecutor(executor);
+                        try {
+                            WSHandlerResult results = new WSSecurityEngine().processSecurityHeader(
+                                SOAPUtil.toSOAPPart(message), requestData
+                            );
+                            WSSecurityEngineResult actionResult =
+                                results.getActionResults().get(WSConstants.SIGN).get(0);
+                            return ((List<?>)actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS)).size();
+                        } catch (WSSecurityException ex) {
+                            if (!modified) {
+                                throw ex;
+                            }
+                            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+                            return -1;
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i % 4 == 3 ? -1 : 25, futures.get(i).get().intValue());
+            }
+        } finally {
+            callers.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that References are validated in parallel correctly on a document that is parsed with
+     * deferred node expansion, with a CallbackLookup that only visits the children of the SOAP Body
+     */
+    @Test
+    public void testParallelSignatureVerificationDeferredNodeExpansion() throws Exception {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < 24; i++) {
+            items.append("<ns1:item xmlns:ns1=\"urn:items\"><ns1:value a=\"").append(i).append("\">item")
+                .append(i).append("</ns1:value></ns1:item>");
+        }
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG.replace("</soapenv:Body>", items + "</soapenv:Body>"));
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSignature sign = new WSSecSignature(secHeader);
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        sign.getParts().add(new WSEncryptionPart("item", "urn:items", ""));
+        sign.getParts().add(new WSEncryptionPart(WSConstants.ELEM_BODY, WSConstants.URI_SOAP11_ENV, ""));
+        String signedMessage = XMLUtils.prettyDocumentToString(sign.build(crypto));
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 20; i++) {
+                boolean modified = i % 5 == 4;
+                String message = modified ? signedMessage.replace(">item17<", ">item71<") : signedMessage;
+                Document receivedDoc;
+                try (InputStream in = new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8))) {
+                    receivedDoc = factory.newDocumentBuilder().parse(in);
+                }
+
+                RequestData requestData = new RequestData();
+                requestData.setSigVerCrypto(crypto);
+                requestData.setParallelSignatureVerification(true);
+                requestData.setExecutor(executor);
+                WSSecurityEngine engine = new WSSecurityEngine();
+                engine.setCallbackLookup(new BodyCallbackLookup(receivedDoc));
+                try {
+                    WSHandlerResult results = engine.processSecurityHeader(receivedDoc, requestData);
+                    assertFalse(modified);
+                    WSSecurityEngineResult actionResult =
+                        results.getActionResults().get(WSConstants.SIGN).get(0);
+                    assertEquals(25, ((List<?>)actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS)).size());
+                } catch (WSSecurityException ex) {
+                    if (!modified) {
+                        throw ex;
+                    }
+                    assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A CallbackLookup that finds the SOAP Body and its children without searching the document
+     */
+    private static final class BodyCallbackLookup extends DOMCallbackLookup {
+
+        BodyCallbackLookup(Document doc) {
+            super(doc);
+        }
+
+        @Override
+        public Element getAndRegisterElement(
+            String id, String valueType, boolean checkMultipleElements, DOMCryptoContext context
+        ) throws WSSecurityException {
+            String idToMatch = XMLUtils.getIDFromReference(id);
+            Element bodyElement = getSOAPBody();
+            for (Node node = bodyElement.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element
+                    && idToMatch.equals(((Element)node).getAttributeNS(WSConstants.WSU_NS, "Id"))) {
+                    if (context != null) {
+                        context.setIdAttributeNS((Element)node, WSConstants.WSU_NS, "Id");
+                    }
+                    return (Element)node;
+                }
+            }
+            return super.getAndRegisterElement(id, valueType, checkMultipleElements, context);
+        }
+    }
+
     /**
      * Verifies the soap envelope
      * <p/>
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.validate;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.spi.LoginModule;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.common.SecurityTestUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.token.KerberosSecurity;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Some tests for caching the service Subject in the KerberosTokenValidator. A LoginModule that
+ * counts the logins stands in for the KDC, and so the tickets themselves fail to validate.
+ */
+public class KerberosTokenValidatorTest {
+
+    private static final AtomicInteger LOGINS = new AtomicInteger();
+
+    private Configuration previousConfiguration;
+
+    @AfterAll
+    public static void cleanup() throws Exception {
+        SecurityTestUtil.cleanup();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        LOGINS.set(0);
+        try {
+            previousConfiguration = Configuration.getConfiguration();
+        } catch (SecurityException ex) {
+            previousConfiguration = null;
+        }
+        Configuration.setConfiguration(new TestConfiguration());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Configuration.setConfiguration(previousConfiguration);
+    }
+
+    @Test
+    public void testSubjectNotCachedByDefault() throws Exception {
+        KerberosTokenValidator validator = createValidator("bob");
+
+        validateTicket(validator);
+        validateTicket(validator);
+        assertEquals(2, LOGINS.get());
+    }
+
+    @Test
+    public void testSubjectCached() throws Exception {
+        KerberosTokenValidator validator = createValidator("bob");
+        validator.setCacheSubject(true);
+
+        validateTicket(validator);
+        validateTicket(validator);
+        validateTicket(validator);
+        assertEquals(1, LOGINS.get());
+
+        validator.clearSubjectCache();
+        validateTicket(validator);
+        assertEquals(2, LOGINS.get());
+    }
+
+    @Test
+    public void testSubjectCachedPerContext() throws Exception {
+        KerberosTokenValidator validator = createValidator("bob");
+        validator.setCacheSubject(true);
+        validateTicket(validator);
+
+        validator.setContextName("alice");
+        validateTicket(validator);
+        validateTicket(validator);
+        assertEquals(2, LOGINS.get());
+    }
+
+    @Test
+    public void testSubjectRefreshedBeforeTicketExpiry() throws Exception {
+        // The ticket of the Subject expires within the refresh margin, so the Subject is only
+        // cached for half of the remaining lifetime of the ticket
+        KerberosTokenValidator validator = createValidator("expiring");
+        validator.setCacheSubject(true);
+
+        validateTicket(validator);
+        validateTicket(validator);
+        assertEquals(1, LOGINS.get());
+
+        Thread.sleep(1250L);
+        validateTicket(validator);
+        assertEquals(2, LOGINS.get());
+    }
+
+    private KerberosTokenValidator createValidator(String contextName) {
+        KerberosTokenValidator validator = new KerberosTokenValidator();
+        validator.setContextName(contextName);
+        validator.setServiceName("bob@service.ws.apache.org");
+        return validator;
+    }
+
+    private void validateTicket(KerberosTokenValidator validator) throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        KerberosSecurity kerberosSecurity = new KerberosSecurity(doc);
+        kerberosSecurity.setToken(new byte[] {1, 2, 3, 4});
+
+        Credential credential = new Credential();
+        credential.setBinarySecurityToken(kerberosSecurity);
+        try {
+            validator.validate(credential, new RequestData());
+            fail("Failure expected on an invalid ticket");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+
+    private static class TestConfiguration extends Configuration {
+
+        @Override
+        public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+            Map<String, Object> options = new HashMap<>();
+            if ("expiring".equals(name)) {
+                options.put("ticketLifetime", "2");
+            }
+            return new AppConfigurationEntry[] {
+                new AppConfigurationEntry(
+                    CountingLoginModule.class.getName(),
+                    AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options
+                ),
+            };
+        }
+    }
+
+    public static class CountingLoginModule implements LoginModule {
+
+        private Subject subject;
+        private Map<String, ?> options = Collections.emptyMap();
+
+        @Override
+        public void initialize(Subject subject, CallbackHandler callbackHandler,
+                               Map<String, ?> sharedState, Map<String, ?> options) {
+            this.subject = subject;
+            this.options = options;
+        }
+
+        @Override
+        public boolean login() {
+            LOGINS.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean commit() {
+            KerberosPrincipal principal = new KerberosPrincipal("bob@service.ws.apache.org");
+            subject.getPrincipals().add(principal);
+            String ticketLifetime = (String)options.get("ticketLifetime");
+            if (ticketLifetime != null) {
+                Date now = new Date();
+                Date endTime = new Date(now.getTime() + Long.parseLong(ticketLifetime) * 1000L);
+                KerberosTicket ticket =
+                    new KerberosTicket(new byte[] {1}, principal, principal, new byte[16], 17,
+                                       null, now, now, endTime, null, null);
+                subject.getPrivateCredentials().add(ticket);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean abort() {
+            return true;
+        }
+
+        @Override
+        public boolean logout() {
+            return true;
+        }
+    }
+
+}
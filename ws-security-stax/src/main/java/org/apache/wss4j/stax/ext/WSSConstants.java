@@ -214,6 +214,9 @@ public class WSSConstants extends XMLSecurityConstants {
 
     public static final String PROP_ENCRYPTED_DATA_REFS = "PROP_ENCRYPTED_DATA_REFS";
 
+    public static final String PROP_ENCRYPTED_KEY_SESSION_TOKEN_ID = "PROP_ENCRYPTED_KEY_SESSION_TOKEN_ID";
+    public static final String PROP_ENCRYPTED_KEY_SESSION_KEY_REUSED = "PROP_ENCRYPTED_KEY_SESSION_KEY_REUSED";
+
     public static final Action TIMESTAMP = new Action(ConfigurationConstants.TIMESTAMP);
     public static final Action USERNAMETOKEN = new Action(ConfigurationConstants.USERNAME_TOKEN);
     public static final Action USERNAMETOKEN_SIGNED = new Action(ConfigurationConstants.USERNAME_TOKEN_SIGNATURE);
@@ -38,6 +38,7 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.Merlin;
@@ -108,6 +109,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private EncryptedKeySessionCache encryptedKeySessionCache;
+    private boolean cacheOutboundKeyMaterial;
+    private int outboundKeyMaterialCacheTTL = 300;
     private boolean validateSamlSubjectConfirmation = true;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
@@ -164,6 +168,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.timestampReplayCache = wssSecurityProperties.timestampReplayCache;
         this.nonceReplayCache = wssSecurityProperties.nonceReplayCache;
         this.samlOneTimeUseReplayCache = wssSecurityProperties.samlOneTimeUseReplayCache;
+        this.encryptedKeySessionCache = wssSecurityProperties.encryptedKeySessionCache;
+        this.cacheOutboundKeyMaterial = wssSecurityProperties.cacheOutboundKeyMaterial;
+        this.outboundKeyMaterialCacheTTL = wssSecurityProperties.outboundKeyMaterialCacheTTL;
         this.allowRSA15KeyTransportAlgorithm = wssSecurityProperties.allowRSA15KeyTransportAlgorithm;
         this.derivedKeyIterations = wssSecurityProperties.derivedKeyIterations;
         this.useDerivedKeyForMAC = wssSecurityProperties.useDerivedKeyForMAC;
@@ -764,6 +771,51 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         return samlOneTimeUseReplayCache;
     }
 
+    /**
+     * Set the cache of outbound symmetric key sessions, which allows a symmetric key and the
+     * EncryptedKey that wraps it to be reused for several messages to the same recipient.
+     * It is not used by default.
+     */
+    public void setEncryptedKeySessionCache(EncryptedKeySessionCache encryptedKeySessionCache) {
+        this.encryptedKeySessionCache = encryptedKeySessionCache;
+    }
+
+    /**
+     * Get the cache of outbound symmetric key sessions
+     */
+    public EncryptedKeySessionCache getEncryptedKeySessionCache() {
+        return encryptedKeySessionCache;
+    }
+
+    /**
+     * Set whether the signature private key and certificates and the encryption certificates, which
+     * are looked up via the signature and encryption user, should be resolved once per OutboundWSSec
+     * instance instead of for every message. When enabled, the CallbackHandler is not asked again for
+     * the signature key password once the key was recovered. The cached key material is looked up
+     * again once it is older than the outboundKeyMaterialCacheTTL, or when a ReloadingMerlin Crypto
+     * has reloaded its keystore. The default is false.
+     */
+    public void setCacheOutboundKeyMaterial(boolean cacheOutboundKeyMaterial) {
+        this.cacheOutboundKeyMaterial = cacheOutboundKeyMaterial;
+    }
+
+    public boolean isCacheOutboundKeyMaterial() {
+        return cacheOutboundKeyMaterial;
+    }
+
+    /**
+     * Set the time in seconds for which cached outbound key material is used, see
+     * setCacheOutboundKeyMaterial. A value of 0 or less means that the key material is only looked up
+     * again when a ReloadingMerlin Crypto has reloaded its keystore. The default is 300 seconds.
+     */
+    public void setOutboundKeyMaterialCacheTTL(int outboundKeyMaterialCacheTTL) {
+        this.outboundKeyMaterialCacheTTL = outboundKeyMaterialCacheTTL;
+    }
+
+    public int getOutboundKeyMaterialCacheTTL() {
+        return outboundKeyMaterialCacheTTL;
+    }
+
     public boolean isDisableBSPEnforcement() {
         return disableBSPEnforcement;
     }
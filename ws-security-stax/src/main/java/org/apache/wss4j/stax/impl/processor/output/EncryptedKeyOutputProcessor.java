@@ -40,6 +40,8 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -275,48 +277,38 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
                 createStartElementAndOutputAsEvent(subOutputProcessorChain, WSSConstants.TAG_xenc_CipherValue, false, null);
 
                 try {
-                    //encrypt the symmetric session key with the public key from the receiver:
-                    String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
-                    Cipher cipher = Cipher.getInstance(jceid);
-
-                    AlgorithmParameterSpec algorithmParameterSpec = null;
-                    if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm)
-                        || XMLSecurityConstants.NS_XENC_RSAOAEPMGF1P.equals(encryptionKeyTransportAlgorithm)) {
-
-                        String jceDigestAlgorithm = "SHA-1";
-                        String encryptionKeyTransportDigestAlgorithm =
-                            getSecurityProperties().getEncryptionKeyTransportDigestAlgorithm();
-                        if (encryptionKeyTransportDigestAlgorithm != null) {
-                            jceDigestAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportDigestAlgorithm);
-                        }
-
-                        PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
-                        byte[] oaepParams = getSecurityProperties().getEncryptionKeyTransportOAEPParams();
-                        if (oaepParams != null) {
-                            pSource = new PSource.PSpecified(oaepParams);
-                        }
+                    Key secretKey = securityToken.getSecretKey("");
 
-                        MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
-                        if (encryptionKeyTransportMGFAlgorithm != null) {
-                            String jceMGFAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportMGFAlgorithm);
-                            mgfParameterSpec = new MGF1ParameterSpec(jceMGFAlgorithm);
+                    // Reuse the EncryptedKey of the current session with the receiver, if any
+                    EncryptedKeySessionCache encryptedKeySessionCache = null;
+                    String sessionContext = null;
+                    boolean sessionKeyReused = false;
+                    byte[] encryptedEphemeralKey = null;
+                    String sessionTokenId =
+                        outputProcessorChain.getSecurityContext().get(WSSConstants.PROP_ENCRYPTED_KEY_SESSION_TOKEN_ID);
+                    if (securityToken.getId().equals(sessionTokenId)) {
+                        encryptedKeySessionCache =
+                            ((WSSSecurityProperties)getSecurityProperties()).getEncryptedKeySessionCache();
+                        sessionContext = WSSUtils.getEncryptedKeySessionContext(
+                            publicKey, (WSSSecurityProperties)getSecurityProperties());
+                        sessionKeyReused = Boolean.TRUE.equals(outputProcessorChain.getSecurityContext().<Boolean>get(
+                            WSSConstants.PROP_ENCRYPTED_KEY_SESSION_KEY_REUSED));
+                        if (sessionKeyReused) {
+                            encryptedEphemeralKey =
+                                encryptedKeySessionCache.getEncryptedKey(sessionContext, secretKey.getEncoded());
                         }
-                        algorithmParameterSpec = new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
                     }
 
-                    cipher.init(Cipher.WRAP_MODE, publicKey, algorithmParameterSpec);
-
-                    Key secretKey = securityToken.getSecretKey("");
-
-                    int blockSize = cipher.getBlockSize();
-                    if (blockSize > 0 && blockSize < secretKey.getEncoded().length) {
-                        throw new WSSecurityException(
-                                WSSecurityException.ErrorCode.FAILURE,
-                                "unsupportedKeyTransp",
-                                new Object[] {"public key algorithm too weak to encrypt symmetric key"}
-                        );
+                    if (encryptedEphemeralKey == null) {
+                        encryptedEphemeralKey = wrapKey(publicKey, secretKey, encryptionKeyTransportAlgorithm);
+                        // Only a newly generated key starts a session, a reused key whose session was
+                        // replaced in the meantime is wrapped for this message only
+                        if (encryptedKeySessionCache != null && !sessionKeyReused) {
+                            encryptedKeySessionCache.putSession(sessionContext,
+                                                                getSecurityProperties().getEncryptionSymAlgorithm(),
+                                                                secretKey.getEncoded(), encryptedEphemeralKey);
+                        }
                     }
-                    byte[] encryptedEphemeralKey = cipher.wrap(secretKey);
 
                     if (((WSSSecurityProperties)getSecurityProperties()).getCallbackHandler() != null) {
                         // Store the Encrypted Key in the CallbackHandler for processing on the inbound side
@@ -350,6 +342,57 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
             }
         }
 
+        private byte[] wrapKey(PublicKey publicKey, Key secretKey, String encryptionKeyTransportAlgorithm)
+            throws XMLSecurityException, NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException, IllegalBlockSizeException, InvalidAlgorithmParameterException {
+            //encrypt the symmetric session key with the public key from the receiver:
+            String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
+
+            AlgorithmParameterSpec algorithmParameterSpec = null;
+            if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm)
+                || XMLSecurityConstants.NS_XENC_RSAOAEPMGF1P.equals(encryptionKeyTransportAlgorithm)) {
+
+                String jceDigestAlgorithm = "SHA-1";
+                String encryptionKeyTransportDigestAlgorithm =
+                    getSecurityProperties().getEncryptionKeyTransportDigestAlgorithm();
+                if (encryptionKeyTransportDigestAlgorithm != null) {
+                    jceDigestAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportDigestAlgorithm);
+                }
+
+                PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
+                byte[] oaepParams = getSecurityProperties().getEncryptionKeyTransportOAEPParams();
+                if (oaepParams != null) {
+                    pSource = new PSource.PSpecified(oaepParams);
+                }
+
+                MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
+                String encryptionKeyTransportMGFAlgorithm =
+                    getSecurityProperties().getEncryptionKeyTransportMGFAlgorithm();
+                if (encryptionKeyTransportMGFAlgorithm != null) {
+                    String jceMGFAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportMGFAlgorithm);
+                    mgfParameterSpec = new MGF1ParameterSpec(jceMGFAlgorithm);
+                }
+                algorithmParameterSpec = new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
+            }
+
+            Cipher cipher = JCAInstancePool.getCipher(jceid);
+            try {
+                cipher.init(Cipher.WRAP_MODE, publicKey, algorithmParameterSpec);
+
+                int blockSize = cipher.getBlockSize();
+                if (blockSize > 0 && blockSize < secretKey.getEncoded().length) {
+                    throw new WSSecurityException(
+                            WSSecurityException.ErrorCode.FAILURE,
+                            "unsupportedKeyTransp",
+                            new Object[] {"public key algorithm too weak to encrypt symmetric key"}
+                    );
+                }
+                return cipher.wrap(secretKey);
+            } finally {
+                JCAInstancePool.release(cipher);
+            }
+        }
+
         protected void createSecurityTokenReferenceStructureForEncryptedKey(
                 OutputProcessorChain outputProcessorChain,
                 OutboundSecurityToken securityToken,
@@ -38,6 +38,7 @@ import org.apache.wss4j.binding.wss10.KeyIdentifierType;
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -274,8 +275,9 @@ public class SecurityTokenFactoryImpl extends SecurityTokenFactory {
                     (WSInboundSecurityContext) inboundSecurityContext, crypto, callbackHandler, binaryContent,
                     securityTokenReferenceId, securityProperties);
         } else if (WSSConstants.NS_THUMBPRINT.equals(valueType)) {
+            MessageDigest messageDigest = null;
             try {
-                MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+                messageDigest = JCAInstancePool.getMessageDigest("SHA-1");
                 //first look if the token is included in the message (necessary for TokenInclusion policy)...
                 List<SecurityTokenProvider<? extends InboundSecurityToken>> securityTokenProviders =
                         inboundSecurityContext.getRegisteredSecurityTokenProviders();
@@ -296,6 +298,8 @@ public class SecurityTokenFactoryImpl extends SecurityTokenFactory {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
             } catch (CertificateEncodingException e) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN);
+            } finally {
+                JCAInstancePool.release(messageDigest);
             }
 
             //...then if none is found create a new SecurityToken instance
@@ -333,9 +337,10 @@ public class SecurityTokenFactoryImpl extends SecurityTokenFactory {
                         WSSecurityTokenConstants.KEYIDENTIFIER_SECURITY_TOKEN_DIRECT_REFERENCE);
             }
 
+            MessageDigest messageDigest = null;
             try {
                 //ok we have to find the token via digesting...
-                MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+                messageDigest = JCAInstancePool.getMessageDigest("SHA-1");
                 List<SecurityTokenProvider<? extends InboundSecurityToken>> securityTokenProviders =
                         inboundSecurityContext.getRegisteredSecurityTokenProviders();
                 for (int i = 0; i < securityTokenProviders.size(); i++) {
@@ -353,6 +358,8 @@ public class SecurityTokenFactoryImpl extends SecurityTokenFactory {
                 }
             } catch (NoSuchAlgorithmException e) {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+            } finally {
+                JCAInstancePool.release(messageDigest);
             }
 
             // Finally, just delegate to a Callback as per EncryptedKeySHA1
@@ -31,6 +31,7 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
@@ -591,6 +592,12 @@ public final class ConfigurationConverter {
             properties.setSamlOneTimeUseReplayCache(samlOneTimeUseCache);
         }
 
+        EncryptedKeySessionCache encryptedKeySessionCache =
+            (EncryptedKeySessionCache)config.get(ConfigurationConstants.ENCRYPTED_KEY_SESSION_CACHE_INSTANCE);
+        if (encryptedKeySessionCache != null) {
+            properties.setEncryptedKeySessionCache(encryptedKeySessionCache);
+        }
+
         String derivedSignatureKeyLength = getString(ConfigurationConstants.DERIVED_SIGNATURE_KEY_LENGTH, config);
         if (derivedSignatureKeyLength != null) {
             int sigLength = Integer.parseInt(derivedSignatureKeyLength);
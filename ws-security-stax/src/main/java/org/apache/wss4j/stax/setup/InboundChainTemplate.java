@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.setup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.impl.processor.input.OperationInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.SignatureConfirmationInputProcessor;
+import org.apache.xml.security.stax.ext.InboundSecurityContext;
+import org.apache.xml.security.stax.ext.InputProcessor;
+import org.apache.xml.security.stax.impl.DocumentContextImpl;
+import org.apache.xml.security.stax.impl.InputProcessorChainImpl;
+import org.apache.xml.security.stax.impl.processor.input.XMLEventReaderInputProcessor;
+
+/**
+ * An immutable description of the inbound InputProcessorChain for a given WSSSecurityProperties
+ * instance. The processor ordering is resolved once, when the template is built, so that a chain
+ * can be stamped out per message without re-sorting the processors. The processors which carry
+ * per-message state are created fresh for every chain, the additional InputProcessors configured
+ * on the WSSSecurityProperties are shared, as they are when the chain is built dynamically.
+ */
+final class InboundChainTemplate {
+
+    private static final Object XML_EVENT_READER_SLOT = XMLEventReaderInputProcessor.class;
+    private static final Object SECURITY_HEADER_SLOT = SecurityHeaderInputProcessor.class;
+    private static final Object OPERATION_SLOT = OperationInputProcessor.class;
+    private static final Object SIGNATURE_CONFIRMATION_SLOT = SignatureConfirmationInputProcessor.class;
+
+    private final boolean signatureConfirmationVerification;
+    private final InputProcessor[] additionalInputProcessors;
+    private final Object[] slots;
+
+    InboundChainTemplate(WSSSecurityProperties securityProperties) {
+        this.signatureConfirmationVerification = securityProperties.isEnableSignatureConfirmationVerification();
+        List<InputProcessor> inputProcessorList = securityProperties.getInputProcessorList();
+        this.additionalInputProcessors = inputProcessorList.toArray(new InputProcessor[inputProcessorList.size()]);
+
+        //let the regular chain resolve the ordering once, using prototype processors. The constructors
+        //of the prototypes only set the phase and the ordering constraints, they must not claim any
+        //per-thread or per-message resources, as the prototypes never process a message
+        InputProcessorChainImpl prototypeChain = new InputProcessorChainImpl(null, new DocumentContextImpl());
+        List<Object> prototypeSlots = new ArrayList<>();
+        addPrototype(prototypeChain, prototypeSlots,
+                     new XMLEventReaderInputProcessor(securityProperties, null), XML_EVENT_READER_SLOT);
+        addPrototype(prototypeChain, prototypeSlots,
+                     new SecurityHeaderInputProcessor(securityProperties), SECURITY_HEADER_SLOT);
+        addPrototype(prototypeChain, prototypeSlots,
+                     new OperationInputProcessor(securityProperties), OPERATION_SLOT);
+        if (signatureConfirmationVerification) {
+            addPrototype(prototypeChain, prototypeSlots,
+                         new SignatureConfirmationInputProcessor(securityProperties), SIGNATURE_CONFIRMATION_SLOT);
+        }
+        for (InputProcessor inputProcessor : additionalInputProcessors) {
+            addPrototype(prototypeChain, prototypeSlots, inputProcessor, inputProcessor);
+        }
+
+        List<InputProcessor> orderedProcessors = prototypeChain.getProcessors();
+        this.slots = new Object[orderedProcessors.size()];
+        for (int i = 0; i < orderedProcessors.size(); i++) {
+            InputProcessor orderedProcessor = orderedProcessors.get(i);
+            for (int j = 0; j < prototypeSlots.size(); j += 2) {
+                if (prototypeSlots.get(j) == orderedProcessor) {
+                    this.slots[i] = prototypeSlots.get(j + 1);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void addPrototype(InputProcessorChainImpl prototypeChain, List<Object> prototypeSlots,
+                                     InputProcessor prototype, Object slot) {
+        prototypeChain.addProcessor(prototype);
+        prototypeSlots.add(prototype);
+        prototypeSlots.add(slot);
+    }
+
+    /**
+     * Returns true if this template still reflects the processor configuration of the given
+     * WSSSecurityProperties, i.e. no InputProcessors were added since the template was built.
+     */
+    boolean isApplicable(WSSSecurityProperties securityProperties) {
+        if (signatureConfirmationVerification != securityProperties.isEnableSignatureConfirmationVerification()) {
+            return false;
+        }
+        List<InputProcessor> inputProcessorList = securityProperties.getInputProcessorList();
+        if (inputProcessorList.size() != additionalInputProcessors.length) {
+            return false;
+        }
+        for (int i = 0; i < additionalInputProcessors.length; i++) {
+            if (inputProcessorList.get(i) != additionalInputProcessors[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a new InputProcessorChain for a single message, with the processors already in order.
+     */
+    InputProcessorChainImpl newInputProcessorChain(WSSSecurityProperties securityProperties,
+                                                   InboundSecurityContext inboundSecurityContext,
+                                                   DocumentContextImpl documentContext,
+                                                   XMLStreamReader xmlStreamReader) {
+        //leave some room for the processors which are added while the security header is processed
+        List<InputProcessor> inputProcessors = new ArrayList<>(slots.length + 16);
+        for (Object slot : slots) {
+            if (slot == XML_EVENT_READER_SLOT) {
+                inputProcessors.add(new XMLEventReaderInputProcessor(securityProperties, xmlStreamReader));
+            } else if (slot == SECURITY_HEADER_SLOT) {
+                inputProcessors.add(new SecurityHeaderInputProcessor(securityProperties));
+            } else if (slot == OPERATION_SLOT) {
+                inputProcessors.add(new OperationInputProcessor(securityProperties));
+            } else if (slot == SIGNATURE_CONFIRMATION_SLOT) {
+                inputProcessors.add(new SignatureConfirmationInputProcessor(securityProperties));
+            } else {
+                inputProcessors.add((InputProcessor)slot);
+            }
+        }
+        return new PrecompiledInputProcessorChain(inboundSecurityContext, documentContext, inputProcessors);
+    }
+
+    private static final class PrecompiledInputProcessorChain extends InputProcessorChainImpl {
+
+        PrecompiledInputProcessorChain(InboundSecurityContext inboundSecurityContext,
+                                       DocumentContextImpl documentContext,
+                                       List<InputProcessor> inputProcessors) {
+            super(inboundSecurityContext, documentContext, 0, inputProcessors);
+        }
+    }
+}
@@ -78,6 +78,7 @@ public class InboundWSSec {
     private final WSSSecurityProperties securityProperties;
     private final boolean initiator;
     private final boolean returnSecurityError;
+    private volatile InboundChainTemplate inboundChainTemplate;
 
     public InboundWSSec(WSSSecurityProperties securityProperties) {
         this(securityProperties, false, false);
@@ -253,28 +254,39 @@ public class InboundWSSec {
 
         DocumentContextImpl documentContext = new DocumentContextImpl();
         documentContext.setEncoding(xmlStreamReader.getEncoding() != null ? xmlStreamReader.getEncoding() : StandardCharsets.UTF_8.name());
-        InputProcessorChainImpl inputProcessorChain = new InputProcessorChainImpl(securityContextImpl, documentContext);
-        inputProcessorChain.addProcessor(new XMLEventReaderInputProcessor(securityProperties, xmlStreamReader));
-        inputProcessorChain.addProcessor(new SecurityHeaderInputProcessor(securityProperties));
-        inputProcessorChain.addProcessor(new OperationInputProcessor(securityProperties));
+        InputProcessorChainImpl inputProcessorChain;
+        if (LOG.isTraceEnabled()) {
+            inputProcessorChain = new InputProcessorChainImpl(securityContextImpl, documentContext);
+            inputProcessorChain.addProcessor(new XMLEventReaderInputProcessor(securityProperties, xmlStreamReader));
+            inputProcessorChain.addProcessor(new SecurityHeaderInputProcessor(securityProperties));
+            inputProcessorChain.addProcessor(new OperationInputProcessor(securityProperties));
 
-        if (securityProperties.isEnableSignatureConfirmationVerification()) {
-            inputProcessorChain.addProcessor(new SignatureConfirmationInputProcessor(securityProperties));
-        }
+            if (securityProperties.isEnableSignatureConfirmationVerification()) {
+                inputProcessorChain.addProcessor(new SignatureConfirmationInputProcessor(securityProperties));
+            }
 
-        if (LOG.isTraceEnabled()) {
             LogInputProcessor logInputProcessor = new LogInputProcessor(securityProperties);
             logInputProcessor.addAfterProcessor(SecurityHeaderInputProcessor.class.getName());
             inputProcessorChain.addProcessor(logInputProcessor);
-        }
 
-        List<InputProcessor> additionalInputProcessors = securityProperties.getInputProcessorList();
-        if (!additionalInputProcessors.isEmpty()) {
-            Iterator<InputProcessor> inputProcessorIterator = additionalInputProcessors.iterator();
-            while (inputProcessorIterator.hasNext()) {
-                InputProcessor inputProcessor = inputProcessorIterator.next();
-                inputProcessorChain.addProcessor(inputProcessor);
+            List<InputProcessor> additionalInputProcessors = securityProperties.getInputProcessorList();
+            if (!additionalInputProcessors.isEmpty()) {
+                Iterator<InputProcessor> inputProcessorIterator = additionalInputProcessors.iterator();
+                while (inputProcessorIterator.hasNext()) {
+                    InputProcessor inputProcessor = inputProcessorIterator.next();
+                    inputProcessorChain.addProcessor(inputProcessor);
+                }
+            }
+        } else {
+            InboundChainTemplate chainTemplate = this.inboundChainTemplate;
+            //the template is built for the first message, as an instance is often created per message,
+            //and rebuilt if the processor configuration was changed after that
+            if (chainTemplate == null || !chainTemplate.isApplicable(securityProperties)) {
+                chainTemplate = new InboundChainTemplate(securityProperties);
+                this.inboundChainTemplate = chainTemplate;
             }
+            inputProcessorChain = chainTemplate.newInputProcessorChain(
+                securityProperties, securityContextImpl, documentContext, xmlStreamReader);
         }
 
         return new WSSecurityStreamReader(inputProcessorChain, securityProperties, initiator, returnSecurityError);
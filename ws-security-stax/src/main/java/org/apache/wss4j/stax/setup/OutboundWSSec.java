@@ -23,6 +23,7 @@ import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.crypto.KeyGenerator;
@@ -30,8 +31,11 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
+import org.apache.wss4j.common.crypto.ReloadingMerlin;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.DocumentCreatorImpl;
@@ -83,6 +87,9 @@ import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
 public class OutboundWSSec {
 
     private final WSSSecurityProperties securityProperties;
+    private volatile OutboundProfile outboundProfile;
+    private volatile CachedKeyMaterial signatureKeyMaterial;
+    private volatile CachedKeyMaterial encryptionKeyMaterial;
 
     public OutboundWSSec(WSSSecurityProperties securityProperties) {
         this.securityProperties = securityProperties;
@@ -177,14 +184,27 @@ public class OutboundWSSec {
             final SecurityHeaderOutputProcessor securityHeaderOutputProcessor = new SecurityHeaderOutputProcessor();
             initializeOutputProcessor(outputProcessorChain, securityHeaderOutputProcessor, null);
 
-            ConfiguredAction configuredAction = configureActions(outputProcessorChain);
+            OutboundProfile profile = getOutboundProfile();
+            for (ProcessorSlot processorSlot : profile.processorSlots) {
+                initializeOutputProcessor(outputProcessorChain, processorSlot.processorType.newOutputProcessor(),
+                                          processorSlot.action);
+            }
+
+            ConfiguredAction configuredAction = profile.configuredAction;
+            if (configuredAction.samlToken && securityProperties.getDocumentCreator() == null) {
+                try {
+                    securityProperties.setDocumentCreator(new DocumentCreatorImpl());
+                } catch (ParserConfigurationException e) {
+                    throw new XMLSecurityException(e);
+                }
+            }
 
             // Set up appropriate keys
             if (configuredAction.signatureAction) {
                 setupSignatureKey(outputProcessorChain, securityProperties, configuredAction.signedSAML);
             }
             if (configuredAction.encryptionAction) {
-                setupEncryptionKey(outputProcessorChain, securityProperties);
+                setupEncryptionKey(outputProcessorChain, securityProperties, profile);
             }
             if (configuredAction.kerberos) {
                 setupKerberosKey(outputProcessorChain, securityProperties,
@@ -265,6 +285,13 @@ public class OutboundWSSec {
 
         // We have no supplied key. So use the PasswordCallback to get a secret key or password
         String alias = securityProperties.getSignatureUser();
+        CachedKeyMaterial cachedKeyMaterial = this.signatureKeyMaterial;
+        if (cachedKeyMaterial != null && securityProperties.isCacheOutboundKeyMaterial()
+            && cachedKeyMaterial.isFor(alias, securityProperties.getSignatureCrypto(), System.currentTimeMillis())) {
+            registerSignatureKey(outputProcessorChain, cachedKeyMaterial.key, cachedKeyMaterial.x509Certificates);
+            return;
+        }
+
         WSPasswordCallback pwCb = new WSPasswordCallback(alias, WSPasswordCallback.SIGNATURE);
             WSSUtils.doPasswordCallback(securityProperties.getCallbackHandler(), pwCb);
 
@@ -282,6 +309,11 @@ public class OutboundWSSec {
                     throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_SIGNATURE, "noUserCertsFound",
                                                   new Object[] {alias});
                 }
+                if (securityProperties.isCacheOutboundKeyMaterial()) {
+                    this.signatureKeyMaterial =
+                        new CachedKeyMaterial(alias, securityProperties.getSignatureCrypto(), key, x509Certificates,
+                                              securityProperties.getOutboundKeyMaterialCacheTTL());
+                }
             } else if (secretKey != null) {
                 x509Certificates = null;
                 String algoFamily = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(signatureAlgorithm);
@@ -298,6 +330,12 @@ public class OutboundWSSec {
             throw ex;
         }
 
+        registerSignatureKey(outputProcessorChain, key, x509Certificates);
+    }
+
+    private void registerSignatureKey(
+        OutputProcessorChainImpl outputProcessorChain, Key key, X509Certificate[] x509Certificates
+    ) throws XMLSecurityException {
         // Create a new outbound Signature token for the generated key / cert
         final String id = IDGenerator.generateID(null);
         final GenericOutboundSecurityToken binarySecurityToken =
@@ -324,54 +362,21 @@ public class OutboundWSSec {
 
     private void setupEncryptionKey(
         OutputProcessorChainImpl outputProcessorChain,
-        WSSSecurityProperties securityProperties
+        WSSSecurityProperties securityProperties,
+        OutboundProfile profile
     ) throws XMLSecurityException {
         final String symmetricEncryptionAlgorithm = securityProperties.getEncryptionSymAlgorithm();
 
         // First check to see if a Symmetric key is available
         GenericOutboundSecurityToken securityToken =
             getOutboundSecurityToken(outputProcessorChain, WSSConstants.PROP_USE_THIS_TOKEN_ID_FOR_ENCRYPTION);
-        if (securityToken == null || securityToken.getSecretKey(symmetricEncryptionAlgorithm) == null) {
-            //prepare the symmetric session key for all encryption parts
-            String keyAlgorithm = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(securityProperties.getEncryptionSymAlgorithm());
-            KeyGenerator keyGen;
-            try {
-                keyGen = KeyGenerator.getInstance(keyAlgorithm);
-            } catch (NoSuchAlgorithmException e) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
-            }
-            //the sun JCE provider expects the real key size for 3DES (112 or 168 bit)
-            //whereas bouncy castle expects the block size of 128 or 192 bits
-            if (keyAlgorithm.contains("AES")) {
-                int keyLength = JCEAlgorithmMapper.getKeyLengthFromURI(securityProperties.getEncryptionSymAlgorithm());
-                keyGen.init(keyLength);
-            }
-
-            final Key symmetricKey = keyGen.generateKey();
-            final String symmId = IDGenerator.generateID(null);
-
-            final GenericOutboundSecurityToken symmetricSecurityToken =
-                new GenericOutboundSecurityToken(symmId, WSSecurityTokenConstants.EncryptedKeyToken, symmetricKey);
-            securityToken = symmetricSecurityToken;
-            final SecurityTokenProvider<OutboundSecurityToken> securityTokenProvider =
-                new SecurityTokenProvider<OutboundSecurityToken>() {
-
-                @Override
-                public OutboundSecurityToken getSecurityToken() throws XMLSecurityException {
-                    return symmetricSecurityToken;
-                }
-
-                @Override
-                public String getId() {
-                    return symmId;
-                }
-            };
-
-            outputProcessorChain.getSecurityContext().registerSecurityTokenProvider(symmId, securityTokenProvider);
-            outputProcessorChain.getSecurityContext().put(WSSConstants.PROP_USE_THIS_TOKEN_ID_FOR_ENCRYPTION, symmId);
-        }
+        boolean generateKey =
+            securityToken == null || securityToken.getSecretKey(symmetricEncryptionAlgorithm) == null;
 
         if (!securityProperties.isEncryptSymmetricEncryptionKey()) {
+            if (generateKey) {
+                registerSymmetricKey(outputProcessorChain, generateSymmetricKey(profile));
+            }
             // No EncryptedKey Token required here, so return
             return;
         }
@@ -394,13 +399,25 @@ public class OutboundWSSec {
             x509Certificates = new X509Certificate[1];
             x509Certificates[0] = securityProperties.getEncryptionUseThisCertificate();
         } else {
-            CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
-            cryptoType.setAlias(securityProperties.getEncryptionUser());
+            String encryptionUser = securityProperties.getEncryptionUser();
             Crypto crypto = securityProperties.getEncryptionCrypto();
-            x509Certificates = crypto.getX509Certificates(cryptoType);
-            if (x509Certificates == null || x509Certificates.length == 0) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, "noUserCertsFound",
-                                              new Object[] {securityProperties.getEncryptionUser(), "encryption"});
+            CachedKeyMaterial cachedKeyMaterial = this.encryptionKeyMaterial;
+            if (cachedKeyMaterial != null && securityProperties.isCacheOutboundKeyMaterial()
+                && cachedKeyMaterial.isFor(encryptionUser, crypto, System.currentTimeMillis())) {
+                x509Certificates = cachedKeyMaterial.x509Certificates;
+            } else {
+                CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+                cryptoType.setAlias(encryptionUser);
+                x509Certificates = crypto.getX509Certificates(cryptoType);
+                if (x509Certificates == null || x509Certificates.length == 0) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, "noUserCertsFound",
+                                                  new Object[] {encryptionUser, "encryption"});
+                }
+                if (securityProperties.isCacheOutboundKeyMaterial()) {
+                    this.encryptionKeyMaterial =
+                        new CachedKeyMaterial(encryptionUser, crypto, null, x509Certificates,
+                                              securityProperties.getOutboundKeyMaterialCacheTTL());
+                }
             }
         }
 
@@ -410,6 +427,23 @@ public class OutboundWSSec {
             crypto.verifyTrust(x509Certificates, true, null, null);
         }
 
+        if (generateKey) {
+            //prepare the symmetric session key for all encryption parts, which is the key of the
+            //current session with the recipient if sessions are enabled
+            Key symmetricKey = getSessionKey(securityProperties, x509Certificates, publicKey);
+            boolean sessionKey = symmetricKey != null;
+            if (!sessionKey) {
+                symmetricKey = generateSymmetricKey(profile);
+            }
+            securityToken = registerSymmetricKey(outputProcessorChain, symmetricKey);
+            if (securityProperties.getEncryptedKeySessionCache() != null) {
+                outputProcessorChain.getSecurityContext().put(
+                    WSSConstants.PROP_ENCRYPTED_KEY_SESSION_TOKEN_ID, securityToken.getId());
+                outputProcessorChain.getSecurityContext().put(
+                    WSSConstants.PROP_ENCRYPTED_KEY_SESSION_KEY_REUSED, sessionKey);
+            }
+        }
+
         // Create a new outbound EncryptedKey token for the cert
         final String id = IDGenerator.generateID(null);
         final GenericOutboundSecurityToken encryptedKeyToken =
@@ -437,6 +471,73 @@ public class OutboundWSSec {
         outputProcessorChain.getSecurityContext().put(WSSConstants.PROP_USE_THIS_TOKEN_ID_FOR_ENCRYPTED_KEY, id);
     }
 
+    private Key generateSymmetricKey(OutboundProfile profile) throws XMLSecurityException {
+        KeyGenerator keyGen;
+        try {
+            keyGen = JCAInstancePool.getKeyGenerator(profile.symmetricKeyAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+        }
+        //the sun JCE provider expects the real key size for 3DES (112 or 168 bit)
+        //whereas bouncy castle expects the block size of 128 or 192 bits
+        if (profile.symmetricKeyLength > 0) {
+            keyGen.init(profile.symmetricKeyLength);
+        }
+
+        final Key symmetricKey = keyGen.generateKey();
+        JCAInstancePool.release(keyGen);
+        return symmetricKey;
+    }
+
+    private Key getSessionKey(
+        WSSSecurityProperties securityProperties,
+        X509Certificate[] x509Certificates,
+        PublicKey publicKey
+    ) {
+        EncryptedKeySessionCache encryptedKeySessionCache = securityProperties.getEncryptedKeySessionCache();
+        if (encryptedKeySessionCache == null) {
+            return null;
+        }
+        PublicKey encryptingKey = publicKey;
+        if (x509Certificates != null && x509Certificates.length > 0) {
+            encryptingKey = x509Certificates[0].getPublicKey();
+        }
+        String symmetricEncryptionAlgorithm = securityProperties.getEncryptionSymAlgorithm();
+        byte[] sessionKey = encryptedKeySessionCache.getSessionKey(
+            WSSUtils.getEncryptedKeySessionContext(encryptingKey, securityProperties), symmetricEncryptionAlgorithm);
+        if (sessionKey == null) {
+            return null;
+        }
+        return new SecretKeySpec(sessionKey, JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(symmetricEncryptionAlgorithm));
+    }
+
+    private GenericOutboundSecurityToken registerSymmetricKey(
+        OutputProcessorChainImpl outputProcessorChain,
+        Key symmetricKey
+    ) throws XMLSecurityException {
+        final String symmId = IDGenerator.generateID(null);
+
+        final GenericOutboundSecurityToken symmetricSecurityToken =
+            new GenericOutboundSecurityToken(symmId, WSSecurityTokenConstants.EncryptedKeyToken, symmetricKey);
+        final SecurityTokenProvider<OutboundSecurityToken> securityTokenProvider =
+            new SecurityTokenProvider<OutboundSecurityToken>() {
+
+            @Override
+            public OutboundSecurityToken getSecurityToken() throws XMLSecurityException {
+                return symmetricSecurityToken;
+            }
+
+            @Override
+            public String getId() {
+                return symmId;
+            }
+        };
+
+        outputProcessorChain.getSecurityContext().registerSecurityTokenProvider(symmId, securityTokenProvider);
+        outputProcessorChain.getSecurityContext().put(WSSConstants.PROP_USE_THIS_TOKEN_ID_FOR_ENCRYPTION, symmId);
+        return symmetricSecurityToken;
+    }
+
     private void setupKerberosKey(
         OutputProcessorChainImpl outputProcessorChain,
         WSSSecurityProperties securityProperties,
@@ -567,8 +668,18 @@ public class OutboundWSSec {
             }
     }
 
-    private ConfiguredAction configureActions(OutputProcessorChainImpl outputProcessorChain) throws XMLSecurityException {
+    private OutboundProfile getOutboundProfile() {
+        OutboundProfile profile = this.outboundProfile;
+        if (profile == null || !profile.isApplicable(securityProperties)) {
+            profile = compileOutboundProfile();
+            this.outboundProfile = profile;
+        }
+        return profile;
+    }
+
+    private OutboundProfile compileOutboundProfile() {
         ConfiguredAction configuredAction = new ConfiguredAction();
+        List<ProcessorSlot> processorSlots = new ArrayList<>();
 
         //todo some combinations are not possible atm: eg Action.SIGNATURE and Action.USERNAMETOKEN_SIGNED
         //todo they use the same signature parts
@@ -589,69 +700,50 @@ public class OutboundWSSec {
 
         for (XMLSecurityConstants.Action action : securityProperties.getActions()) {
             if (WSSConstants.TIMESTAMP.equals(action)) {
-                final TimestampOutputProcessor timestampOutputProcessor = new TimestampOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, timestampOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.TIMESTAMP, action));
 
             } else if (WSSConstants.SIGNATURE.equals(action)) {
                 configuredAction.signatureAction = true;
-                final BinarySecurityTokenOutputProcessor binarySecurityTokenOutputProcessor =
-                    new BinarySecurityTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, binarySecurityTokenOutputProcessor, action);
-
-                final WSSSignatureOutputProcessor signatureOutputProcessor = new WSSSignatureOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE, action));
 
             } else if (WSSConstants.ENCRYPT.equals(action)) {
                 configuredAction.encryptionAction = true;
 
-                EncryptedKeyOutputProcessor encryptedKeyOutputProcessor = null;
+                boolean encryptedKey = false;
                 if (securityProperties.isEncryptSymmetricEncryptionKey()) {
-                    final BinarySecurityTokenOutputProcessor binarySecurityTokenOutputProcessor =
-                        new BinarySecurityTokenOutputProcessor();
-                    initializeOutputProcessor(outputProcessorChain, binarySecurityTokenOutputProcessor, action);
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
 
-                    encryptedKeyOutputProcessor = new EncryptedKeyOutputProcessor();
-                    initializeOutputProcessor(outputProcessorChain, encryptedKeyOutputProcessor, action);
+                    encryptedKey = true;
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPTED_KEY, action));
                 }
 
-                final EncryptOutputProcessor encryptOutputProcessor = new EncryptOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, encryptOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPT, action));
 
-                if (encryptedKeyOutputProcessor == null) {
-                    final ReferenceListOutputProcessor referenceListOutputProcessor = new ReferenceListOutputProcessor();
-                    referenceListOutputProcessor.addAfterProcessor(EncryptEndingOutputProcessor.class.getName());
-                    initializeOutputProcessor(outputProcessorChain, referenceListOutputProcessor, action);
+                if (!encryptedKey) {
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.REFERENCE_LIST, action));
                 }
 
             } else if (WSSConstants.USERNAMETOKEN.equals(action)) {
-                final UsernameTokenOutputProcessor usernameTokenOutputProcessor = new UsernameTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, usernameTokenOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.USERNAME_TOKEN, action));
 
             } else if (WSSConstants.USERNAMETOKEN_SIGNED.equals(action)) {
-                final UsernameTokenOutputProcessor usernameTokenOutputProcessor = new UsernameTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, usernameTokenOutputProcessor, action);
-
-                final WSSSignatureOutputProcessor signatureOutputProcessor = new WSSSignatureOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.USERNAME_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE, action));
 
             } else if (WSSConstants.SIGNATURE_CONFIRMATION.equals(action)) {
-                final SignatureConfirmationOutputProcessor signatureConfirmationOutputProcessor =
-                        new SignatureConfirmationOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureConfirmationOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE_CONFIRMATION, action));
 
             } else if (WSSConstants.SIGNATURE_WITH_DERIVED_KEY.equals(action)) {
                 if (securityProperties.getDerivedKeyTokenReference() == WSSConstants.DerivedKeyTokenReference.EncryptedKey) {
                     if (derivedSignatureButNotDerivedEncryption) {
-                        final EncryptedKeyOutputProcessor encryptedKeyOutputProcessor = new EncryptedKeyOutputProcessor();
-                        initializeOutputProcessor(outputProcessorChain, encryptedKeyOutputProcessor, action);
+                        processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPTED_KEY, action));
                     }
                     configuredAction.encryptionAction = true;
                     configuredAction.derivedEncryption = true;
                 } else if (securityProperties.getDerivedKeyTokenReference()
                     == WSSConstants.DerivedKeyTokenReference.SecurityContextToken) {
-                    final SecurityContextTokenOutputProcessor securityContextTokenOutputProcessor =
-                            new SecurityContextTokenOutputProcessor();
-                    initializeOutputProcessor(outputProcessorChain, securityContextTokenOutputProcessor, action);
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.SECURITY_CONTEXT_TOKEN, action));
                     configuredAction.signatureAction = true;
                     configuredAction.derivedSignature = true;
                 } else {
@@ -659,112 +751,245 @@ public class OutboundWSSec {
                     configuredAction.derivedSignature = true;
                 }
 
-                final DerivedKeyTokenOutputProcessor derivedKeyTokenOutputProcessor = new DerivedKeyTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, derivedKeyTokenOutputProcessor, action);
-
-                final WSSSignatureOutputProcessor signatureOutputProcessor = new WSSSignatureOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.DERIVED_KEY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE, action));
 
             } else if (WSSConstants.ENCRYPT_WITH_DERIVED_KEY.equals(action)) {
                 configuredAction.encryptionAction = true;
                 configuredAction.derivedEncryption = true;
 
-                EncryptedKeyOutputProcessor encryptedKeyOutputProcessor = null;
+                boolean encryptedKey = false;
 
                 if (securityProperties.getDerivedKeyTokenReference() == WSSConstants.DerivedKeyTokenReference.EncryptedKey) {
-                    encryptedKeyOutputProcessor = new EncryptedKeyOutputProcessor();
-                    initializeOutputProcessor(outputProcessorChain, encryptedKeyOutputProcessor, action);
+                    encryptedKey = true;
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPTED_KEY, action));
 
                 } else if (securityProperties.getDerivedKeyTokenReference()
                     == WSSConstants.DerivedKeyTokenReference.SecurityContextToken) {
-                    final SecurityContextTokenOutputProcessor securityContextTokenOutputProcessor =
-                            new SecurityContextTokenOutputProcessor();
-                    initializeOutputProcessor(outputProcessorChain, securityContextTokenOutputProcessor, action);
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.SECURITY_CONTEXT_TOKEN, action));
                 }
-                final DerivedKeyTokenOutputProcessor derivedKeyTokenOutputProcessor = new DerivedKeyTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, derivedKeyTokenOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.DERIVED_KEY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPT, action));
 
-                final EncryptOutputProcessor encryptOutputProcessor = new EncryptOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, encryptOutputProcessor, action);
-
-                if (encryptedKeyOutputProcessor == null) {
-                    final ReferenceListOutputProcessor referenceListOutputProcessor = new ReferenceListOutputProcessor();
-                    referenceListOutputProcessor.addAfterProcessor(EncryptEndingOutputProcessor.class.getName());
-                    initializeOutputProcessor(outputProcessorChain, referenceListOutputProcessor, action);
+                if (!encryptedKey) {
+                    processorSlots.add(new ProcessorSlot(OutputProcessorType.REFERENCE_LIST, action));
                 }
             } else if (WSSConstants.SAML_TOKEN_SIGNED.equals(action)) {
                 configuredAction.signatureAction = true;
                 configuredAction.signedSAML = true;
-                final BinarySecurityTokenOutputProcessor binarySecurityTokenOutputProcessor =
-                    new BinarySecurityTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, binarySecurityTokenOutputProcessor, action);
-
-                final SAMLTokenOutputProcessor samlTokenOutputProcessor = new SAMLTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, samlTokenOutputProcessor, action);
-
-                final WSSSignatureOutputProcessor signatureOutputProcessor = new WSSSignatureOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureOutputProcessor, action);
-
-                if (securityProperties.getDocumentCreator() == null) {
-                    try {
-                        securityProperties.setDocumentCreator(new DocumentCreatorImpl());
-                    } catch (ParserConfigurationException e) {
-                        throw new XMLSecurityException(e);
-                    }
-                }
+                configuredAction.samlToken = true;
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SAML_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE, action));
 
             } else if (WSSConstants.SAML_TOKEN_UNSIGNED.equals(action)) {
-                final SAMLTokenOutputProcessor samlTokenOutputProcessor = new SAMLTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, samlTokenOutputProcessor, action);
-
-                if (securityProperties.getDocumentCreator() == null) {
-                    try {
-                        securityProperties.setDocumentCreator(new DocumentCreatorImpl());
-                    } catch (ParserConfigurationException e) {
-                        throw new XMLSecurityException(e);
-                    }
-                }
+                configuredAction.samlToken = true;
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SAML_TOKEN, action));
             } else if (WSSConstants.SIGNATURE_WITH_KERBEROS_TOKEN.equals(action)) {
                 configuredAction.kerberos = true;
                 configuredAction.signatureKerberos = true;
-                final BinarySecurityTokenOutputProcessor kerberosTokenOutputProcessor =
-                        new BinarySecurityTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, kerberosTokenOutputProcessor, action);
-
-                final WSSSignatureOutputProcessor signatureOutputProcessor = new WSSSignatureOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, signatureOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.SIGNATURE, action));
             } else if (WSSConstants.ENCRYPT_WITH_KERBEROS_TOKEN.equals(action)) {
                 configuredAction.kerberos = true;
                 configuredAction.encryptionKerberos = true;
-                final BinarySecurityTokenOutputProcessor kerberosTokenOutputProcessor =
-                        new BinarySecurityTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, kerberosTokenOutputProcessor, action);
-
-                final EncryptOutputProcessor encryptOutputProcessor = new EncryptOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, encryptOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.ENCRYPT, action));
             } else if (WSSConstants.KERBEROS_TOKEN.equals(action)) {
                 configuredAction.kerberos = true;
-                final BinarySecurityTokenOutputProcessor kerberosTokenOutputProcessor =
-                    new BinarySecurityTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, kerberosTokenOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.BINARY_SECURITY_TOKEN, action));
             } else if (WSSConstants.CUSTOM_TOKEN.equals(action)) {
-                final CustomTokenOutputProcessor unknownTokenOutputProcessor =
-                    new CustomTokenOutputProcessor();
-                initializeOutputProcessor(outputProcessorChain, unknownTokenOutputProcessor, action);
+                processorSlots.add(new ProcessorSlot(OutputProcessorType.CUSTOM_TOKEN, action));
             }
         }
 
-        return configuredAction;
+        return new OutboundProfile(securityProperties, configuredAction, processorSlots);
     }
 
     private static class ConfiguredAction {
         boolean signatureAction = false;
         boolean encryptionAction = false;
         boolean signedSAML = false;
+        boolean samlToken = false;
         boolean kerberos = false;
         boolean signatureKerberos = false;
         boolean encryptionKerberos = false;
         boolean derivedSignature = false;
         boolean derivedEncryption = false;
     }
+    /**
+     * The actions, processor topology and algorithm mapping for the current configuration,
+     * resolved once and reused for every message as long as the configuration is unchanged.
+     */
+    private static final class OutboundProfile {
+        private final List<XMLSecurityConstants.Action> actions;
+        private final WSSConstants.DerivedKeyTokenReference derivedKeyTokenReference;
+        private final boolean encryptSymmetricEncryptionKey;
+        private final String encryptionSymAlgorithm;
+        private final String symmetricKeyAlgorithm;
+        private final int symmetricKeyLength;
+        private final ConfiguredAction configuredAction;
+        private final ProcessorSlot[] processorSlots;
+
+        OutboundProfile(WSSSecurityProperties securityProperties, ConfiguredAction configuredAction,
+                        List<ProcessorSlot> processorSlots) {
+            this.actions = new ArrayList<>(securityProperties.getActions());
+            this.derivedKeyTokenReference = securityProperties.getDerivedKeyTokenReference();
+            this.encryptSymmetricEncryptionKey = securityProperties.isEncryptSymmetricEncryptionKey();
+            this.encryptionSymAlgorithm = securityProperties.getEncryptionSymAlgorithm();
+            this.configuredAction = configuredAction;
+            this.processorSlots = processorSlots.toArray(new ProcessorSlot[processorSlots.size()]);
+
+            if (encryptionSymAlgorithm != null) {
+                this.symmetricKeyAlgorithm = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(encryptionSymAlgorithm);
+            } else {
+                this.symmetricKeyAlgorithm = null;
+            }
+            //the sun JCE provider expects the real key size for 3DES (112 or 168 bit)
+            //whereas bouncy castle expects the block size of 128 or 192 bits
+            if (symmetricKeyAlgorithm != null && symmetricKeyAlgorithm.contains("AES")) {
+                this.symmetricKeyLength = JCEAlgorithmMapper.getKeyLengthFromURI(encryptionSymAlgorithm);
+            } else {
+                this.symmetricKeyLength = 0;
+            }
+        }
+
+        boolean isApplicable(WSSSecurityProperties securityProperties) {
+            if (derivedKeyTokenReference != securityProperties.getDerivedKeyTokenReference()
+                || encryptSymmetricEncryptionKey != securityProperties.isEncryptSymmetricEncryptionKey()) {
+                return false;
+            }
+            if (encryptionSymAlgorithm == null
+                ? securityProperties.getEncryptionSymAlgorithm() != null
+                : !encryptionSymAlgorithm.equals(securityProperties.getEncryptionSymAlgorithm())) {
+                return false;
+            }
+            return actions.equals(securityProperties.getActions());
+        }
+    }
+
+    private static final class ProcessorSlot {
+        private final OutputProcessorType processorType;
+        private final XMLSecurityConstants.Action action;
+
+        ProcessorSlot(OutputProcessorType processorType, XMLSecurityConstants.Action action) {
+            this.processorType = processorType;
+            this.action = action;
+        }
+    }
+
+    private enum OutputProcessorType {
+        TIMESTAMP {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new TimestampOutputProcessor();
+            }
+        },
+        BINARY_SECURITY_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new BinarySecurityTokenOutputProcessor();
+            }
+        },
+        SIGNATURE {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new WSSSignatureOutputProcessor();
+            }
+        },
+        ENCRYPTED_KEY {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new EncryptedKeyOutputProcessor();
+            }
+        },
+        ENCRYPT {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new EncryptOutputProcessor();
+            }
+        },
+        REFERENCE_LIST {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                final ReferenceListOutputProcessor referenceListOutputProcessor = new ReferenceListOutputProcessor();
+                referenceListOutputProcessor.addAfterProcessor(EncryptEndingOutputProcessor.class.getName());
+                return referenceListOutputProcessor;
+            }
+        },
+        USERNAME_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new UsernameTokenOutputProcessor();
+            }
+        },
+        SIGNATURE_CONFIRMATION {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new SignatureConfirmationOutputProcessor();
+            }
+        },
+        SECURITY_CONTEXT_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new SecurityContextTokenOutputProcessor();
+            }
+        },
+        DERIVED_KEY_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new DerivedKeyTokenOutputProcessor();
+            }
+        },
+        SAML_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new SAMLTokenOutputProcessor();
+            }
+        },
+        CUSTOM_TOKEN {
+            @Override
+            OutputProcessor newOutputProcessor() throws XMLSecurityException {
+                return new CustomTokenOutputProcessor();
+            }
+        };
+
+        abstract OutputProcessor newOutputProcessor() throws XMLSecurityException;
+    }
+
+    /**
+     * Key material looked up via the signature or encryption user, see
+     * WSSSecurityProperties#setCacheOutboundKeyMaterial. The key material is valid for the
+     * configured TTL, and for as long as a ReloadingMerlin Crypto has not loaded a new snapshot.
+     */
+    static final class CachedKeyMaterial {
+        private final String alias;
+        private final Crypto crypto;
+        private final Object cryptoState;
+        private final long expires;
+        final Key key;
+        final X509Certificate[] x509Certificates;
+
+        CachedKeyMaterial(String alias, Crypto crypto, Key key, X509Certificate[] x509Certificates, int ttl) {
+            this.alias = alias;
+            this.crypto = crypto;
+            this.cryptoState = getCryptoState(crypto);
+            this.expires = ttl > 0 ? System.currentTimeMillis() + ttl * 1000L : Long.MAX_VALUE;
+            this.key = key;
+            this.x509Certificates = x509Certificates;
+        }
+
+        boolean isFor(String alias, Crypto crypto, long now) {
+            return this.crypto == crypto && (this.alias == null ? alias == null : this.alias.equals(alias))
+                && now < expires && cryptoState == getCryptoState(crypto);
+        }
+
+        private static Object getCryptoState(Crypto crypto) {
+            //a ReloadingMerlin keeps its identity across reloads, the snapshot changes with the key material
+            if (crypto instanceof ReloadingMerlin) {
+                return ((ReloadingMerlin)crypto).getSnapshot();
+            }
+            return crypto;
+        }
+    }
 }
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
@@ -38,6 +39,8 @@ import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Attribute;
 
+import org.apache.wss4j.common.cache.EncryptedKeySessionCache;
+import org.apache.wss4j.common.crypto.JCAInstancePool;
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -306,13 +309,16 @@ public class WSSUtils extends XMLSecurityUtils {
         abstractOutputProcessor.createStartElementAndOutputAsEvent(outputProcessorChain,
                                                                    WSSConstants.TAG_WSSE_KEY_IDENTIFIER,
                                                                    false, attributes);
+        MessageDigest sha = null;
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            sha = JCAInstancePool.getMessageDigest("SHA-1");
             byte[] data = sha.digest(x509Certificates[0].getEncoded());
             abstractOutputProcessor.createCharactersAndOutputAsEvent(outputProcessorChain,
                                                                      XMLUtils.encodeToString(data));
         } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+        } finally {
+            JCAInstancePool.release(sha);
         }
         abstractOutputProcessor.createEndElementAndOutputAsEvent(outputProcessorChain, WSSConstants.TAG_WSSE_KEY_IDENTIFIER);
     }
@@ -321,13 +327,16 @@ public class WSSUtils extends XMLSecurityUtils {
                                                                  OutputProcessorChain outputProcessorChain, Key key)
             throws XMLStreamException, XMLSecurityException {
 
+        MessageDigest sha = null;
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            sha = JCAInstancePool.getMessageDigest("SHA-1");
             byte[] data = sha.digest(key.getEncoded());
             createEncryptedKeySha1IdentifierStructure(abstractOutputProcessor, outputProcessorChain,
                                                       XMLUtils.encodeToString(data));
         } catch (NoSuchAlgorithmException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+        } finally {
+            JCAInstancePool.release(sha);
         }
     }
 
@@ -640,6 +649,20 @@ public class WSSUtils extends XMLSecurityUtils {
         return stringBuilder.toString();
     }
 
+    /**
+     * Get the EncryptedKeySessionCache context of the recipient with the given public key, for the
+     * key transport algorithm and parameters of the given security properties.
+     */
+    public static String getEncryptedKeySessionContext(PublicKey publicKey, WSSSecurityProperties securityProperties) {
+        return EncryptedKeySessionCache.getContext(
+            publicKey,
+            securityProperties.getEncryptionKeyTransportAlgorithm(),
+            securityProperties.getEncryptionKeyTransportDigestAlgorithm(),
+            securityProperties.getEncryptionKeyTransportMGFAlgorithm(),
+            securityProperties.getEncryptionKeyTransportOAEPParams()
+        );
+    }
+
     @SuppressWarnings("unchecked")
     public static <T extends SecurityToken> T getRootToken(T securityToken) throws XMLSecurityException {
         T tmp = securityToken;
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.setup;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.ReloadingMerlin;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the outbound key material that is cached by OutboundWSSec.
+ */
+public class CachedKeyMaterialTest {
+
+    @Test
+    public void testExpiry() throws Exception {
+        Crypto crypto = CryptoFactory.getInstance("transmitter-crypto.properties");
+        X509Certificate[] certs = getCertificates(crypto, "receiver");
+
+        OutboundWSSec.CachedKeyMaterial cachedKeyMaterial =
+            new OutboundWSSec.CachedKeyMaterial("receiver", crypto, null, certs, 300);
+        long now = System.currentTimeMillis();
+        assertTrue(cachedKeyMaterial.isFor("receiver", crypto, now));
+        assertFalse(cachedKeyMaterial.isFor("transmitter", crypto, now));
+        assertFalse(cachedKeyMaterial.isFor("receiver", CryptoFactory.getInstance("transmitter-crypto.properties"), now));
+        assertFalse(cachedKeyMaterial.isFor("receiver", crypto, now + 301000L));
+
+        // Without a TTL the key material does not expire
+        cachedKeyMaterial = new OutboundWSSec.CachedKeyMaterial("receiver", crypto, null, certs, 0);
+        assertTrue(cachedKeyMaterial.isFor("receiver", crypto, Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testReloadedKeyStore() throws Exception {
+        KeyStore transmitterStore = KeyStore.getInstance("JKS");
+        try (InputStream input = this.getClass().getClassLoader().getResourceAsStream("transmitter.jks")) {
+            transmitterStore.load(input, "default".toCharArray());
+        }
+
+        File keyStoreFile = File.createTempFile("keystore", ".jks");
+        keyStoreFile.deleteOnExit();
+        writeKeyStore(keyStoreFile, transmitterStore.getCertificate("receiver"));
+
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.ReloadingMerlin");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", keyStoreFile.getAbsolutePath());
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "default");
+        properties.put("org.apache.wss4j.crypto.merlin.reload.interval", "0");
+
+        try (ReloadingMerlin crypto = (ReloadingMerlin)CryptoFactory.getInstance(properties)) {
+            OutboundWSSec.CachedKeyMaterial cachedKeyMaterial =
+                new OutboundWSSec.CachedKeyMaterial("receiver", crypto, null, getCertificates(crypto, "receiver"), 0);
+            assertTrue(cachedKeyMaterial.isFor("receiver", crypto, System.currentTimeMillis()));
+
+            // The rotated certificate must be picked up, although the Crypto instance is the same
+            writeKeyStore(keyStoreFile, transmitterStore.getCertificate("transmitter"));
+            assertTrue(crypto.reloadIfModified());
+            assertFalse(cachedKeyMaterial.isFor("receiver", crypto, System.currentTimeMillis()));
+            assertEquals(transmitterStore.getCertificate("transmitter"), getCertificates(crypto, "receiver")[0]);
+        }
+    }
+
+    private static X509Certificate[] getCertificates(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType);
+    }
+
+    private static void writeKeyStore(File file, Certificate cert) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("receiver", cert);
+        try (OutputStream output = Files.newOutputStream(file.toPath())) {
+            keyStore.store(output, "default".toCharArray());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.setup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.impl.processor.input.OperationInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.SignatureConfirmationInputProcessor;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.AbstractInputProcessor;
+import org.apache.xml.security.stax.ext.InputProcessor;
+import org.apache.xml.security.stax.ext.InputProcessorChain;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.impl.DocumentContextImpl;
+import org.apache.xml.security.stax.impl.InputProcessorChainImpl;
+import org.apache.xml.security.stax.impl.processor.input.XMLEventReaderInputProcessor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a chain stamped out of an InboundChainTemplate has the same processor ordering as
+ * the chain that is built dynamically for the same WSSSecurityProperties.
+ */
+public class InboundChainTemplateTest {
+
+    @Test
+    public void testDefaultChain() throws Exception {
+        assertSameOrdering(new WSSSecurityProperties());
+    }
+
+    @Test
+    public void testSignatureConfirmation() throws Exception {
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.setEnableSignatureConfirmationVerification(true);
+        assertSameOrdering(securityProperties);
+    }
+
+    @Test
+    public void testAdditionalInputProcessors() throws Exception {
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        securityProperties.setEnableSignatureConfirmationVerification(true);
+
+        TestInputProcessor beforeSecurityHeader = new TestInputProcessor(securityProperties);
+        beforeSecurityHeader.setPhase(WSSConstants.Phase.POSTPROCESSING);
+        beforeSecurityHeader.addBeforeProcessor(SecurityHeaderInputProcessor.class.getName());
+        securityProperties.addInputProcessor(beforeSecurityHeader);
+
+        TestInputProcessor afterOperation = new TestInputProcessor(securityProperties);
+        afterOperation.setPhase(WSSConstants.Phase.POSTPROCESSING);
+        afterOperation.addAfterProcessor(OperationInputProcessor.class.getName());
+        securityProperties.addInputProcessor(afterOperation);
+
+        TestInputProcessor preProcessing = new TestInputProcessor(securityProperties);
+        preProcessing.setPhase(WSSConstants.Phase.PREPROCESSING);
+        securityProperties.addInputProcessor(preProcessing);
+
+        assertSameOrdering(securityProperties);
+    }
+
+    @Test
+    public void testApplicability() throws Exception {
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        InboundChainTemplate template = new InboundChainTemplate(securityProperties);
+        assertTrue(template.isApplicable(securityProperties));
+
+        securityProperties.addInputProcessor(new TestInputProcessor(securityProperties));
+        assertFalse(template.isApplicable(securityProperties));
+
+        template = new InboundChainTemplate(securityProperties);
+        assertTrue(template.isApplicable(securityProperties));
+        securityProperties.setEnableSignatureConfirmationVerification(true);
+        assertFalse(template.isApplicable(securityProperties));
+    }
+
+    @Test
+    public void testPerMessageProcessors() throws Exception {
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        TestInputProcessor additionalProcessor = new TestInputProcessor(securityProperties);
+        securityProperties.addInputProcessor(additionalProcessor);
+        InboundChainTemplate template = new InboundChainTemplate(securityProperties);
+
+        List<InputProcessor> first = template.newInputProcessorChain(
+            securityProperties, null, new DocumentContextImpl(), null).getProcessors();
+        List<InputProcessor> second = template.newInputProcessorChain(
+            securityProperties, null, new DocumentContextImpl(), null).getProcessors();
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            if (first.get(i) == additionalProcessor) {
+                // The additional InputProcessors are shared, as on a dynamically built chain
+                assertSame(additionalProcessor, second.get(i));
+            } else {
+                assertNotSame(first.get(i), second.get(i));
+            }
+        }
+    }
+
+    private static void assertSameOrdering(WSSSecurityProperties securityProperties) {
+        InputProcessorChainImpl dynamicChain = new InputProcessorChainImpl(null, new DocumentContextImpl());
+        dynamicChain.addProcessor(new XMLEventReaderInputProcessor(securityProperties, null));
+        dynamicChain.addProcessor(new SecurityHeaderInputProcessor(securityProperties));
+        dynamicChain.addProcessor(new OperationInputProcessor(securityProperties));
+        if (securityProperties.isEnableSignatureConfirmationVerification()) {
+            dynamicChain.addProcessor(new SignatureConfirmationInputProcessor(securityProperties));
+        }
+        for (InputProcessor inputProcessor : securityProperties.getInputProcessorList()) {
+            dynamicChain.addProcessor(inputProcessor);
+        }
+
+        InboundChainTemplate template = new InboundChainTemplate(securityProperties);
+        InputProcessorChainImpl templateChain =
+            template.newInputProcessorChain(securityProperties, null, new DocumentContextImpl(), null);
+
+        assertEquals(describe(dynamicChain.getProcessors()), describe(templateChain.getProcessors()));
+    }
+
+    private static List<Object> describe(List<InputProcessor> processors) {
+        List<Object> description = new ArrayList<>();
+        for (InputProcessor processor : processors) {
+            if (processor instanceof TestInputProcessor) {
+                // The additional InputProcessors are the same instances in both chains
+                description.add(processor);
+            } else {
+                description.add(processor.getClass());
+            }
+        }
+        return description;
+    }
+
+    private static final class TestInputProcessor extends AbstractInputProcessor {
+
+        TestInputProcessor(XMLSecurityProperties securityProperties) {
+            super(securityProperties);
+        }
+
+        @Override
+        public XMLSecEvent processHeaderEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+            return inputProcessorChain.processHeaderEvent();
+        }
+
+        @Override
+        public XMLSecEvent processEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+            return inputProcessorChain.processEvent();
+        }
+    }
+}
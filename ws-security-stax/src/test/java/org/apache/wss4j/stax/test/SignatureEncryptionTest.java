@@ -20,15 +20,21 @@ package org.apache.wss4j.stax.test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
@@ -38,6 +44,7 @@ import javax.xml.transform.stream.StreamResult;
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.dom.WSConstants;
@@ -47,7 +54,9 @@ import org.apache.wss4j.dom.message.WSSecHeader;
 import org.apache.wss4j.dom.message.WSSecSignature;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
+import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
+import org.apache.wss4j.stax.setup.InboundWSSec;
 import org.apache.wss4j.stax.setup.OutboundWSSec;
 import org.apache.wss4j.stax.setup.WSSec;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
@@ -58,6 +67,7 @@ import org.apache.xml.security.stax.impl.OutboundSecurityContextImpl;
 import org.apache.xml.security.stax.impl.securityToken.GenericOutboundSecurityToken;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.xml.security.stax.securityToken.OutboundSecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
 import org.junit.jupiter.api.Test;
@@ -106,6 +116,132 @@ public class SignatureEncryptionTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testSignatureEncryptionInboundChainTemplate() throws Exception {
+
+        ByteArrayOutputStream baos;
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            List<WSSConstants.Action> actions = new ArrayList<>();
+            actions.add(WSSConstants.SIGNATURE);
+            actions.add(WSSConstants.ENCRYPT);
+            actions.add(WSSConstants.TIMESTAMP);
+            securityProperties.setActions(actions);
+            securityProperties.loadEncryptionKeystore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+            securityProperties.setEncryptionUser("receiver");
+            securityProperties.loadSignatureKeyStore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+            securityProperties.setSignatureUser("transmitter");
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            baos = doOutboundSecurity(securityProperties, sourceDocument);
+        }
+
+        //the chain is stamped out of the InboundChainTemplate, unless trace logging is enabled, in
+        //which case it is built dynamically. Both chains must produce the same result:
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            securityProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+
+            TestSecurityEventListener templateListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+            Document templateDocument =
+                doInboundSecurity(securityProperties, new ByteArrayInputStream(baos.toByteArray()), templateListener);
+
+            org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(InboundWSSec.class);
+            org.apache.log4j.Level level = logger.getLevel();
+            TestSecurityEventListener dynamicListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+            Document dynamicDocument;
+            try {
+                logger.setLevel(org.apache.log4j.Level.TRACE);
+                dynamicDocument =
+                    doInboundSecurity(securityProperties, new ByteArrayInputStream(baos.toByteArray()), dynamicListener);
+            } finally {
+                logger.setLevel(level);
+            }
+
+            NodeList nodeList = templateDocument.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            assertEquals(0, nodeList.getLength());
+            assertEquals(toString(dynamicDocument), toString(templateDocument));
+            assertEquals(getEventTypes(dynamicListener), getEventTypes(templateListener));
+        }
+    }
+
+    @Test
+    public void testSignatureEncryptionOutboundCachedKeyMaterial() throws Exception {
+
+        final AtomicInteger signatureCallbacks = new AtomicInteger();
+        final CallbackHandler delegate = new CallbackHandlerImpl();
+        CallbackHandler countingCallbackHandler = new CallbackHandler() {
+            @Override
+            public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                for (Callback callback : callbacks) {
+                    if (callback instanceof WSPasswordCallback
+                        && ((WSPasswordCallback) callback).getUsage() == WSPasswordCallback.SIGNATURE) {
+                        signatureCallbacks.incrementAndGet();
+                    }
+                }
+                delegate.handle(callbacks);
+            }
+        };
+
+        WSSSecurityProperties outboundProperties = new WSSSecurityProperties();
+        List<WSSConstants.Action> actions = new ArrayList<>();
+        actions.add(WSSConstants.SIGNATURE);
+        actions.add(WSSConstants.ENCRYPT);
+        actions.add(WSSConstants.TIMESTAMP);
+        outboundProperties.setActions(actions);
+        outboundProperties.loadEncryptionKeystore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        outboundProperties.setEncryptionUser("receiver");
+        outboundProperties.loadSignatureKeyStore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        outboundProperties.setSignatureUser("transmitter");
+        outboundProperties.setCallbackHandler(countingCallbackHandler);
+        outboundProperties.setCacheOutboundKeyMaterial(true);
+
+        //both messages are secured by the same OutboundWSSec, the second one with the cached private key
+        OutboundWSSec wsSecOut = WSSec.getOutboundWSSec(outboundProperties);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            XMLStreamWriter xmlStreamWriter =
+                wsSecOut.processOutMessage(baos, StandardCharsets.UTF_8.name(), new ArrayList<SecurityEvent>());
+            XMLStreamReader xmlStreamReader =
+                xmlInputFactory.createXMLStreamReader(this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml"));
+            XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+            xmlStreamWriter.close();
+
+            WSSSecurityProperties inboundProperties = new WSSSecurityProperties();
+            inboundProperties.loadSignatureVerificationKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            inboundProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            inboundProperties.setCallbackHandler(new CallbackHandlerImpl());
+
+            TestSecurityEventListener securityEventListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+            Document document =
+                doInboundSecurity(inboundProperties, new ByteArrayInputStream(baos.toByteArray()), securityEventListener);
+
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            assertEquals(0, nodeList.getLength());
+            assertEquals(1, securityEventListener.getSecurityEvents(WSSecurityEventConstants.SIGNED_PART).size());
+            assertEquals(1, securityEventListener.getSecurityEvents(WSSecurityEventConstants.ENCRYPTED_PART).size());
+        }
+
+        assertEquals(1, signatureCallbacks.get());
+    }
+
+    private static String toString(Document document) throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        TRANSFORMER_FACTORY.newTransformer().transform(new DOMSource(document), new StreamResult(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static List<SecurityEventConstants.Event> getEventTypes(TestSecurityEventListener listener) {
+        List<SecurityEventConstants.Event> eventTypes = new ArrayList<>();
+        for (SecurityEvent securityEvent : listener.getReceivedSecurityEvents()) {
+            eventTypes.add(securityEvent.getSecurityEventType());
+        }
+        return eventTypes;
+    }
+
     @Test
     public void testEncryptionSymmetricOutbound() throws Exception {
 